@@ -14,10 +14,16 @@ import java.io.File;
 import java.io.FileReader;
 import java.util.*;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.locks.Lock;
 
 import com.articulate.sigma.KB;
+import com.articulate.sigma.jedit.fastac.ArgumentTypes;
+import com.articulate.sigma.jedit.fastac.CaretContext;
+import com.articulate.sigma.jedit.fastac.CompletionEngine;
+import com.articulate.sigma.jedit.fastac.CompletionRanker;
+import com.articulate.sigma.jedit.fastac.KBVocabulary;
+import com.articulate.sigma.jedit.fastac.KifTermIndex;
+import com.articulate.sigma.jedit.fastac.LineTokens;
 
 /**
  * AutoCompleteManager provides prefix-based suggestions and a caret-anchored
@@ -30,9 +36,13 @@ public class AutoCompleteManager {
     /**  */
     private final JEditTextArea textArea;
     /**  */
-    private final KB kb;
+    private final Collection<String> kbTerms;
+    /** read side of the KB lock, held while the terms are copied; null for a vocabulary nothing changes */
+    private final Lock kbReadLock;
     /**  */
     private final SuggestionIndex index = new SuggestionIndex();
+    /** tokens of the current buffer, kept current by {@link BufferTokens} */
+    private volatile LineTokens bufferTokens = new LineTokens();
     /**  */
     private final JPopupMenu popup = new JPopupMenu();
     /**  */
@@ -49,8 +59,6 @@ public class AutoCompleteManager {
     private boolean acceptOnEnter = false;
     /**  */
     private boolean caseSensitive = false;
-    /**  */
-    private final Pattern tokenPattern = Pattern.compile("[A-Za-z0-9_.-]+");
 
     /******************************************************************
      */
@@ -137,9 +145,35 @@ public class AutoCompleteManager {
      */
     public AutoCompleteManager(View view, KB kb) {
 
+        this(view, kb, null);
+    }
+
+    /******************************************************************
+     * @param kbReadLock the lock a merge into the KB takes the write
+     *                   side of, held while the KB terms are copied
+     */
+    public AutoCompleteManager(View view, KB kb, Lock kbReadLock) {
+
+        this(view, kb != null ? kb.terms : null, kbReadLock);
+    }
+
+    /******************************************************************
+     * Build the manager from a bare term vocabulary, e.g. one read from
+     * a {@link KBSnapshot} before the KB itself has been loaded.
+     */
+    public AutoCompleteManager(View view, Collection<String> kbTerms) {
+
+        this(view, kbTerms, null);
+    }
+
+    /******************************************************************
+     */
+    private AutoCompleteManager(View view, Collection<String> kbTerms, Lock kbReadLock) {
+
         this.view = view;
         this.textArea = view.getEditPane().getTextArea();
-        this.kb = kb;
+        this.kbTerms = kbTerms;
+        this.kbReadLock = kbReadLock;
         list.setModel(listModel);
         list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         list.setVisibleRowCount(Math.min(maxSuggestions, 12));
@@ -164,27 +198,35 @@ public class AutoCompleteManager {
     }
 
     /******************************************************************
-     * Rebuild suggestions from the loaded KB (classes, relations, constants).
+     * Point suggestions at the loaded KB (classes, relations, constants).
+     * The terms live in the process-wide {@link CompletionEngine}, which
+     * {@link KBVocabulary} builds once per KB and shares with every other
+     * view and completion UI rather than copying it into this manager.
      */
     public void rebuildIndexFromKB() {
 
-        if (kb == null) return;
-        for (String t : kb.terms) if (t != null && !t.isBlank()) index.addKB(t);
+        if (kbReadLock != null) kbReadLock.lock();
+        try {
+            index.useKB(KBVocabulary.publish(kbTerms));
+        }
+        finally {
+            if (kbReadLock != null) kbReadLock.unlock();
+        }
     }
 
     /******************************************************************
-     * Scan current buffer and add tokens to the index. 
+     * Offer the tokens of the current buffer. They are kept up to date
+     * from buffer change events, so only the first use of a buffer scans
+     * it. The terms of the other .kif files of a .kif buffer's project
+     * are offered too, once {@link KifTermIndex} has crawled them in the
+     * background.
      */
     public void rebuildIndexFromBuffer() {
     
         Buffer buffer = view.getBuffer();
-        if (buffer == null) return;
-        String text = buffer.getText(0, buffer.getLength());
-        Matcher m = tokenPattern.matcher(text);
-        while (m.find()) {
-            String tok = m.group();
-            if (tok.length() >= minPrefix) index.add(tok);
-        }
+        bufferTokens = BufferTokens.of(buffer);
+        if (buffer != null && buffer.getPath() != null && buffer.getPath().toLowerCase(Locale.ROOT).endsWith(".kif"))
+            KifTermIndex.get().ensureIndexed(buffer);
     }
 
     /******************************************************************
@@ -208,7 +250,6 @@ public class AutoCompleteManager {
      */
     public void refreshIndexOnBufferChange() {
     
-        index.clearBufferLayer();
         rebuildIndexFromBuffer();
         hidePopup();
     }
@@ -229,9 +270,31 @@ public class AutoCompleteManager {
     private void maybeShow() {
 
         if (!popupEnabled()) return;
-        String prefix = currentWordPrefix();
+        CaretContext ctx = CaretContext.at(view.getBuffer(), textArea.getCaretPosition());
+        String prefix = ctx.prefix;
         if (prefix.length() < minPrefix) { hidePopup(); return; }
-        List<String> sugg = index.startsWith(prefix, maxSuggestions, caseSensitive);
+        LineTokens tokens = bufferTokens;
+        // the ranker keeps only the best maxSuggestions; each source hands it a bounded pool
+        int pool = CompletionRanker.pool(maxSuggestions);
+        CompletionRanker.Selector best = CompletionRanker.shared().selector(prefix, maxSuggestions,
+                ctx.slot(), tokens::count);
+        best.offerAll(argumentCandidates(ctx));
+        if (best.size() == 0) {
+            index.forEachStartingWith(prefix, caseSensitive, pool, best::offer);
+            // long CamelCase terms by an inner word or initials ("Assess", "OrgProc"); ranked below prefix matches
+            best.offerAll(index.subwords(prefix, pool));
+            // the word being typed is itself a buffer token; offer only longer ones
+            for (String t : tokens.complete(prefix, pool, caseSensitive)) {
+                if (t.length() > prefix.length()) best.offer(t);
+            }
+            // terms of the project's other .kif files, e.g. ones not loaded into the KB
+            for (String t : KifTermIndex.get().suggest(prefix, maxSuggestions)) {
+                if (t.length() > prefix.length() && (!caseSensitive || t.startsWith(prefix))) best.offer(t);
+            }
+        }
+        List<String> sugg = best.result();
+        // nothing starts with the prefix: probably a typo, offer the nearest terms
+        if (sugg.isEmpty()) sugg = index.similar(prefix, maxSuggestions);
         if (sugg.isEmpty()) { hidePopup(); return; }
         listModel.clear();
         for (String s : sugg) listModel.addElement(s);
@@ -265,28 +328,20 @@ public class AutoCompleteManager {
         String pick = list.getSelectedValue();
         if (pick == null) return;
         replaceCurrentPrefixWith(pick);
+        CompletionRanker.accepted(pick);
         hidePopup();
     }
 
     /******************************************************************
+     * When the caret is in an argument of a relation with a domain or
+     * domainSubclass signature, the terms of the expected type that start
+     * with the word being typed. Null if the argument is not restricted.
      */
-    private String currentWordPrefix() {
-    
-        Buffer buffer = view.getBuffer();
-        if (buffer == null) return "";
-        int caret = textArea.getCaretPosition();
-        if (caret <= 0) return "";
-        int line = textArea.getCaretLine();
-        int lineStart = textArea.getLineStartOffset(line);
-        int i = caret - 1;
-        while (i >= lineStart) {
-            char c = charAt(buffer, i);
-            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.') break;
-            i--;
-        }
-        int prefixStart = i + 1;
-        if (prefixStart >= caret) return "";
-        return buffer.getText(prefixStart, caret - prefixStart);
+    private Iterable<String> argumentCandidates(CaretContext ctx) {
+
+        ArgumentTypes types = ArgumentTypes.shared();
+        if (types.isEmpty() || ctx.head == null || ctx.argument < 1) return null;
+        return types.withPrefix(ctx.head, ctx.argument, ctx.prefix, caseSensitive);
     }
 
     /******************************************************************
@@ -296,29 +351,12 @@ public class AutoCompleteManager {
         Buffer buffer = view.getBuffer();
         if (buffer == null) return;
         int caret = textArea.getCaretPosition();
-        int line = textArea.getCaretLine();
-        int lineStart = textArea.getLineStartOffset(line);
-        int i = caret - 1;
-        while (i >= lineStart) {
-            char c = charAt(buffer, i);
-            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.') break;
-            i--;
-        }
-        int prefixStart = i + 1;
+        int prefixStart = caret - CaretContext.prefix(buffer, caret).length();
         Selection.Range sel = new Selection.Range(prefixStart, caret);
         textArea.setSelection(sel);
         textArea.setSelectedText(fullToken);
     }
 
-    /******************************************************************
-     */
-    private char charAt(Buffer buffer, int offset) {
-    
-        if (offset < 0 || offset >= buffer.getLength()) return '\0';
-        String s = buffer.getText(offset, 1);
-        return s.isEmpty() ? '\0' : s.charAt(0);
-    }
-
     /******************************************************************
      */
     private Point caretAnchorPoint() {
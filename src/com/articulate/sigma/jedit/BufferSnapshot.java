@@ -0,0 +1,199 @@
+package com.articulate.sigma.jedit;
+
+/*
+ * BufferSnapshot.java
+ * part of the SUMOjEdit plugin for the jEdit text editor
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/******************************************************************
+ * An immutable copy of a buffer's or file's text together with the
+ * offset of every line start. It is taken once, so lines can then be
+ * looked up from any thread without touching the jEdit buffer or
+ * reading the file again. Lines are split on '\n' the way jEdit counts
+ * them, so text ending in a newline has a final empty line; a '\r'
+ * before the newline is not part of the line.
+ *
+ * Offsets map to lines by binary search over the line starts, so a
+ * check run builds one snapshot and resolves every diagnostic against
+ * it without scanning lines. Formulas are looked up in an index of the
+ * first line of every top-level formula, built on first use.
+ */
+final class BufferSnapshot {
+
+    /**  */
+    final String text;
+    /** the file the text belongs to, may be null */
+    final String path;
+    /** true if the text came from an open editor buffer rather than disk */
+    final boolean fromEditor;
+    /** offset of the first character of each line */
+    private final int[] lineStarts;
+    /** first line containing a given string, filled in on demand */
+    private final Map<String, Integer> lineContaining = new ConcurrentHashMap<>();
+    /** trimmed first line of each top-level formula -> its 0-based line, built on first use */
+    private volatile Map<String, Integer> formulaStarts;
+
+    /******************************************************************
+     */
+    private BufferSnapshot(String path, String text, boolean fromEditor) {
+
+        this.path = path;
+        this.text = text;
+        this.fromEditor = fromEditor;
+        int[] starts = new int[16];
+        int n = 1;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+            if (n == starts.length) starts = Arrays.copyOf(starts, n * 2);
+            starts[n++] = i + 1;
+        }
+        this.lineStarts = Arrays.copyOf(starts, n);
+    }
+
+    /******************************************************************
+     * @param text the text of an open editor buffer
+     */
+    static BufferSnapshot of(String text) {
+
+        return of(null, text);
+    }
+
+    /******************************************************************
+     * @param path the file the buffer shows, may be null
+     * @param text the text of an open editor buffer
+     */
+    static BufferSnapshot of(String path, String text) {
+
+        return new BufferSnapshot(path, text == null ? "" : text, true);
+    }
+
+    /******************************************************************
+     * @param lines buffer lines without terminators
+     */
+    static BufferSnapshot ofLines(String[] lines) {
+
+        return of(null, lines == null ? "" : String.join("\n", lines));
+    }
+
+    /******************************************************************
+     * Read a file once.
+     * @return the snapshot, or null if the file can't be read
+     */
+    static BufferSnapshot ofFile(String filePath) {
+
+        if (filePath == null) return null;
+        try {
+            return new BufferSnapshot(filePath, Files.readString(Paths.get(filePath)), false);
+        }
+        catch (Throwable ignore) {
+            return null;
+        }
+    }
+
+    /******************************************************************
+     */
+    int lineCount() {
+
+        return lineStarts.length;
+    }
+
+    /******************************************************************
+     * @return the offset of the first character of a 0-based line
+     */
+    int lineStart(int line) {
+
+        return lineStarts[line];
+    }
+
+    /******************************************************************
+     * @return the 0-based line holding the given offset; offsets past the
+     *         end map to the last line
+     */
+    int lineOf(int offset) {
+
+        int i = Arrays.binarySearch(lineStarts, Math.max(0, offset));
+        return (i >= 0) ? i : -i - 2;
+    }
+
+    /******************************************************************
+     * @return the first 0-based line that contains the given string, or
+     *         -1 if none does; the string must not contain a newline
+     */
+    int firstLineContaining(String s) {
+
+        if (s == null || s.isEmpty()) return -1;
+        return lineContaining.computeIfAbsent(s, k -> {
+            int pos = text.indexOf(k);
+            return (pos < 0) ? -1 : lineOf(pos);
+        });
+    }
+
+    /******************************************************************
+     * @param firstLine the trimmed first line of a formula
+     * @return the 0-based line where the first top-level formula starting
+     *         with that line begins, or -1 if none does
+     */
+    int formulaLine(String firstLine) {
+
+        if (firstLine == null || firstLine.isEmpty()) return -1;
+        Map<String, Integer> starts = formulaStarts;
+        if (starts == null) {
+            starts = new HashMap<>();
+            for (KifFormulaSegmenter.Segment seg : KifFormulaSegmenter.segment(text)) {
+                int nl = seg.text.indexOf('\n');
+                starts.putIfAbsent((nl < 0 ? seg.text : seg.text.substring(0, nl)).trim(), seg.line);
+            }
+            formulaStarts = starts;
+        }
+        return starts.getOrDefault(firstLine, -1);
+    }
+
+    /******************************************************************
+     * @return the length of a 0-based line without its line terminator
+     */
+    int lineLength(int line) {
+
+        int start = lineStarts[line];
+        int end = (line + 1 < lineStarts.length) ? lineStarts[line + 1] - 1 : text.length();
+        if (end > start && text.charAt(end - 1) == '\r') end--;
+        return end - start;
+    }
+
+    /******************************************************************
+     * @return the text of a 0-based line, or "" if it is out of range
+     */
+    String lineText(int line) {
+
+        if (line < 0 || line >= lineStarts.length) return "";
+        int start = lineStarts[line];
+        return text.substring(start, start + lineLength(line));
+    }
+
+    /******************************************************************
+     * @return the column just past the term that starts at or covers the
+     *         given column, at least one past it unless the line is empty
+     */
+    int tokenEnd(int line, int start) {
+
+        int length = lineLength(line);
+        int offset = lineStarts[line];
+        int end = Math.min(start + 1, length);
+        while (end < length && KifFormulaSegmenter.isTermChar(text.charAt(offset + end))) end++;
+        return end;
+    }
+}
@@ -0,0 +1,103 @@
+package com.articulate.sigma.jedit;
+
+import com.articulate.sigma.jedit.fastac.LineTokens;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.gjt.sp.jedit.buffer.BufferAdapter;
+import org.gjt.sp.jedit.buffer.JEditBuffer;
+
+/**
+ * Keeps the tokens of each open buffer up to date from jEdit's buffer
+ * change events, for the completion UIs to query without scanning the
+ * buffer.
+ *
+ * A buffer is tokenized in full the first time it is asked for (and again
+ * when it is reloaded); after that each insert or remove re-tokenizes only
+ * the lines it touched. All completion UIs share one {@link LineTokens}
+ * per buffer.
+ */
+public final class BufferTokens extends BufferAdapter {
+
+    /** weak so closed buffers are dropped */
+    private static final Map<JEditBuffer, BufferTokens> BY_BUFFER = new WeakHashMap<>();
+
+    private final LineTokens tokens = new LineTokens();
+
+    private BufferTokens() {}
+
+    /******************************************************************
+     * The tokens of buffer, kept current from then on.
+     * @param buffer the buffer, may be null
+     * @return the buffer's tokens; empty for a null buffer
+     */
+    public static synchronized LineTokens of(JEditBuffer buffer) {
+
+        if (buffer == null) return new LineTokens();
+        BufferTokens bt = BY_BUFFER.get(buffer);
+        if (bt == null) {
+            bt = new BufferTokens();
+            bt.reload(buffer);
+            buffer.addBufferListener(bt);
+            BY_BUFFER.put(buffer, bt);
+        }
+        return bt.tokens;
+    }
+
+    /******************************************************************
+     * Stop tracking every buffer, e.g. when the plugin is unloaded.
+     */
+    public static synchronized void disposeAll() {
+
+        for (Map.Entry<JEditBuffer, BufferTokens> e : BY_BUFFER.entrySet()) {
+            e.getKey().removeBufferListener(e.getValue());
+        }
+        BY_BUFFER.clear();
+    }
+
+    /******************************************************************
+     */
+    private void reload(JEditBuffer buffer) {
+
+        tokens.reset(buffer.getText(0, buffer.getLength()));
+    }
+
+    /******************************************************************
+     * Lines from startLine up to and including endLine, as they are now.
+     */
+    private static List<String> lines(JEditBuffer buffer, int startLine, int endLine) {
+
+        List<String> out = new ArrayList<>(endLine - startLine + 1);
+        for (int i = startLine; i <= endLine; i++) out.add(buffer.getLineText(i));
+        return out;
+    }
+
+    /******************************************************************
+     * The old startLine is now lines startLine..startLine+numLines.
+     */
+    @Override
+    public void contentInserted(JEditBuffer buffer, int startLine, int offset, int numLines, int length) {
+
+        tokens.replaceLines(startLine, 1, lines(buffer, startLine, startLine + numLines));
+    }
+
+    /******************************************************************
+     * The old lines startLine..startLine+numLines are now startLine.
+     */
+    @Override
+    public void contentRemoved(JEditBuffer buffer, int startLine, int offset, int numLines, int length) {
+
+        tokens.replaceLines(startLine, numLines + 1, lines(buffer, startLine, startLine));
+    }
+
+    /******************************************************************
+     */
+    @Override
+    public void bufferLoaded(JEditBuffer buffer) {
+
+        reload(buffer);
+    }
+}
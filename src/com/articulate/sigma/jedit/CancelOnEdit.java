@@ -0,0 +1,93 @@
+package com.articulate.sigma.jedit;
+
+/*
+ * CancelOnEdit.java
+ * part of the SUMOjEdit plugin for the jEdit text editor
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.gjt.sp.jedit.Buffer;
+import org.gjt.sp.jedit.buffer.BufferAdapter;
+import org.gjt.sp.jedit.buffer.JEditBuffer;
+
+/******************************************************************
+ * Cancels a buffer's running error check as soon as the buffer is
+ * edited. The check works on the text as it was when it started, so
+ * once the text changes its diagnostics would point at the wrong
+ * places; it stops at the next formula instead of finishing and
+ * publishing them.
+ */
+final class CancelOnEdit extends BufferAdapter {
+
+    /** weak so closed buffers are dropped */
+    private static final Map<JEditBuffer, CancelOnEdit> BY_BUFFER = new WeakHashMap<>();
+
+    /**  */
+    private final CheckScheduler checks;
+    /** the buffer's path, as its checks are keyed */
+    private volatile String path;
+
+    CancelOnEdit(CheckScheduler checks, String path) {
+
+        this.checks = checks;
+        this.path = path;
+    }
+
+    /******************************************************************
+     * Cancel the checks of buffer on every edit from now on.
+     * @param buffer the buffer, may be null
+     * @param checks the scheduler its checks are submitted to
+     */
+    static synchronized void watch(Buffer buffer, CheckScheduler checks) {
+
+        if (buffer == null) return;
+        CancelOnEdit ce = BY_BUFFER.get(buffer);
+        if (ce != null && ce.checks == checks) {
+            // the buffer may have been saved under another name
+            ce.path = buffer.getPath();
+            return;
+        }
+        if (ce != null) buffer.removeBufferListener(ce);
+        ce = new CancelOnEdit(checks, buffer.getPath());
+        buffer.addBufferListener(ce);
+        BY_BUFFER.put(buffer, ce);
+    }
+
+    /******************************************************************
+     * Stop watching every buffer, e.g. when the plugin is unloaded.
+     */
+    static synchronized void disposeAll() {
+
+        for (Map.Entry<JEditBuffer, CancelOnEdit> e : BY_BUFFER.entrySet()) {
+            e.getKey().removeBufferListener(e.getValue());
+        }
+        BY_BUFFER.clear();
+    }
+
+    /******************************************************************
+     */
+    @Override
+    public void contentInserted(JEditBuffer buffer, int startLine, int offset, int numLines, int length) {
+
+        checks.cancel(path);
+    }
+
+    /******************************************************************
+     */
+    @Override
+    public void contentRemoved(JEditBuffer buffer, int startLine, int offset, int numLines, int length) {
+
+        checks.cancel(path);
+    }
+}
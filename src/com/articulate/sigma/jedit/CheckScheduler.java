@@ -0,0 +1,131 @@
+package com.articulate.sigma.jedit;
+
+/*
+ * CheckScheduler.java
+ * part of the SUMOjEdit plugin for the jEdit text editor
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/******************************************************************
+ * Runs background checks so that at most one check per buffer is
+ * current. Every job gets a generation number; submitting a new job
+ * for a buffer cancels the one before it. Cancellation is cooperative:
+ * a running job polls {@link Job#isCurrent()} (or calls
+ * {@link Job#throwIfCancelled()}) between units of work, and must not
+ * publish anything once it is no longer current.
+ */
+final class CheckScheduler {
+
+    /******************************************************************
+     * One scheduled check
+     */
+    static final class Job {
+
+        /** the buffer the check is for */
+        final String key;
+        /** increases with every job submitted to the scheduler */
+        final long generation;
+        /**  */
+        private volatile boolean cancelled;
+
+        Job(String key, long generation) {
+            this.key = key; this.generation = generation;
+        }
+
+        /******************************************************************
+         * @return false once the job has been superseded or cancelled
+         */
+        boolean isCurrent() {
+
+            return !cancelled;
+        }
+
+        /******************************************************************
+         * @throws CancellationException if the job is no longer current
+         */
+        void throwIfCancelled() {
+
+            if (cancelled) throw new CancellationException(this + " superseded");
+        }
+
+        @Override
+        public String toString() {
+            return "check #" + generation + " of " + key;
+        }
+    }
+
+    /**  */
+    private final Executor executor;
+    /**  */
+    private long generation;
+    /** the latest job per buffer, until it finishes */
+    private final Map<String, Job> latest = new HashMap<>();
+
+    /******************************************************************
+     * @param executor runs the jobs
+     */
+    CheckScheduler(Executor executor) {
+
+        this.executor = executor;
+    }
+
+    /******************************************************************
+     * Cancel any job for the same buffer and run a new one.
+     * @param key identifies the buffer, e.g. its path
+     * @param work the check; a CancellationException it throws is
+     *             treated as a normal end of a superseded job
+     * @return the new job
+     */
+    Job submit(String key, Consumer<Job> work) {
+
+        final Job job;
+        synchronized (this) {
+            job = new Job(key, ++generation);
+            Job previous = latest.put(key, job);
+            if (previous != null) previous.cancelled = true;
+        }
+        executor.execute(() -> {
+            try {
+                if (job.isCurrent()) work.accept(job);
+            }
+            catch (CancellationException ignore) {}
+            finally {
+                synchronized (this) {
+                    latest.remove(key, job);
+                }
+            }
+        });
+        return job;
+    }
+
+    /******************************************************************
+     * Cancel the running job for a buffer, e.g. when it is closed.
+     */
+    synchronized void cancel(String key) {
+
+        Job job = latest.remove(key);
+        if (job != null) job.cancelled = true;
+    }
+
+    /******************************************************************
+     * @return the number of jobs submitted but not yet finished
+     */
+    synchronized int running() {
+
+        return latest.size();
+    }
+}
@@ -0,0 +1,509 @@
+package com.articulate.sigma.jedit;
+
+/*
+ * IncrementalKifChecker.java
+ * part of the SUMOjEdit plugin for the jEdit text editor
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+import com.articulate.sigma.editor.ErrRec;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
+
+/******************************************************************
+ * Checks a KIF buffer one top-level formula at a time and keeps the
+ * diagnostics of each formula between runs, so that an edit only
+ * re-checks the formulas it touched.
+ *
+ * A formula is checked by running the whole-file checker on a small
+ * text that holds the formula together with the formulas its result
+ * depends on: the statements (subclass, domain, documentation, ...)
+ * that define a term it mentions, and any other copy of the same
+ * formula. Only the diagnostics inside the formula are kept. What the
+ * checker says about the file itself, such as the "not loaded into the
+ * KB" warning, is taken from one check of an empty text and reported
+ * once per run.
+ *
+ * Results are cached by the text of the formula and of that context.
+ * When only the layout changed, cached diagnostics are moved to the
+ * formula's new line and column instead of being checked again. A
+ * formula with a copy elsewhere in the file is checked at its real
+ * position, because a duplicate warning names the other copy's line,
+ * and is checked again whenever one of the copies moves.
+ *
+ * When an executor is given and enough formulas need checking, they
+ * are checked in contiguous slices on the executor. Each formula's
+ * check only sees its own text and context, so the result is the same
+ * as a serial run. The caller's locks (e.g. the KB read lock) are held
+ * until every slice is done.
+ *
+ * State is kept per file: runs over the same file take turns, runs
+ * over different files don't wait for each other.
+ */
+final class IncrementalKifChecker {
+
+    /** deterministic order: line, column, end, type, message */
+    static final Comparator<ErrRec> ORDER = Comparator
+            .comparingInt((ErrRec e) -> e.line)
+            .thenComparingInt(e -> e.start)
+            .thenComparingInt(e -> e.end)
+            .thenComparingInt(e -> e.type)
+            .thenComparing(e -> e.msg == null ? "" : e.msg);
+
+    /** fewest formulas to check before the work is spread over the executor */
+    static final int PARALLEL_THRESHOLD = 32;
+    /** fewest formulas in one slice */
+    private static final int MIN_SLICE = 8;
+
+    /******************************************************************
+     * Outcome of one run
+     */
+    static final class Result {
+
+        /** all diagnostics for the file, sorted by line and column */
+        final List<ErrRec> diagnostics;
+        /** true if the diagnostics are identical to the previous run's */
+        final boolean unchanged;
+        /** formulas checked in this run, and formulas whose cached diagnostics were reused */
+        final int checked, reused;
+
+        Result(List<ErrRec> diagnostics, boolean unchanged, int checked, int reused) {
+            this.diagnostics = diagnostics; this.unchanged = unchanged; this.checked = checked; this.reused = reused;
+        }
+
+        @Override
+        public String toString() {
+            return diagnostics.size() + " diagnostics, " + checked + " formulas checked, " + reused + " reused"
+                    + (unchanged ? ", unchanged" : "");
+        }
+    }
+
+    /******************************************************************
+     * The diagnostics of one formula, as found at a given position
+     */
+    private static final class Entry {
+
+        /** where the formula started when it was checked */
+        final int line, column;
+        /**  */
+        final List<ErrRec> diagnostics;
+
+        Entry(int line, int column, List<ErrRec> diagnostics) {
+            this.line = line; this.column = column; this.diagnostics = diagnostics;
+        }
+    }
+
+    /******************************************************************
+     * A formula of the current text, with what its result depends on
+     */
+    static final class Unit {
+
+        /**  */
+        final KifFormulaSegmenter.Segment segment;
+        /** the other formulas checked along with it, in text order */
+        final List<KifFormulaSegmenter.Segment> context;
+        /** true if the formula has a copy and must be checked where it is */
+        final boolean positioned;
+        /** identifies the result in the cache */
+        final String key;
+
+        Unit(KifFormulaSegmenter.Segment segment, List<KifFormulaSegmenter.Segment> context, boolean positioned) {
+
+            this.segment = segment; this.context = context; this.positioned = positioned;
+            StringBuilder sb = new StringBuilder();
+            if (positioned) sb.append(segment.line).append(':').append(segment.column).append('\u0000');
+            sb.append(segment.text);
+            for (KifFormulaSegmenter.Segment c : context) {
+                sb.append('\u0000');
+                if (positioned) sb.append(c.line).append(':').append(c.column).append('\u0000');
+                sb.append(c.text);
+            }
+            this.key = sb.toString();
+        }
+    }
+
+    /******************************************************************
+     * What is remembered about one file between runs
+     */
+    private static final class FileState {
+
+        /** bumped when the KB changed underneath the file */
+        volatile int generation;
+        /** the generation the cache below belongs to */
+        int cacheGeneration;
+        /** unit key -> diagnostics */
+        Map<String, Entry> byKey = new HashMap<>();
+        /** the diagnostics about the file itself, null until known */
+        List<ErrRec> fileLevel;
+        /**  */
+        List<ErrRec> last = Collections.emptyList();
+    }
+
+    /** the whole-file check */
+    private final BiFunction<String, String, List<ErrRec>> checker;
+
+    /** runs slices of a large check, null to always check serially */
+    private final ExecutorService executor;
+    /** most slices one check is split into */
+    private final int parallelism;
+
+    /**  */
+    private final Map<String, FileState> files = new ConcurrentHashMap<>();
+
+    /******************************************************************
+     * @param checker the whole-file check, called with a KIF text and
+     *                the file path, e.g. KifFileChecker::check
+     */
+    IncrementalKifChecker(BiFunction<String, String, List<ErrRec>> checker) {
+
+        this(checker, null, 1);
+    }
+
+    /******************************************************************
+     * @param checker the whole-file check, called with a KIF text and
+     *                the file path; must be safe to call from several
+     *                threads at once
+     * @param executor runs slices of a large check, may be null. It must
+     *                 not be the executor that runs check() itself, or
+     *                 the slices could wait behind their own caller.
+     * @param parallelism most slices one check is split into, usually
+     *                    the executor's thread count
+     */
+    IncrementalKifChecker(BiFunction<String, String, List<ErrRec>> checker, ExecutorService executor, int parallelism) {
+
+        this.checker = checker;
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /******************************************************************
+     * Check the given text, re-using what is still valid from the
+     * previous run over the same file.
+     * @param text the full buffer text
+     * @param filePath the buffer's path, used as the cache key and in
+     *                 the diagnostics
+     * @return the diagnostics and whether they differ from last time
+     */
+    Result check(String text, String filePath) {
+
+        return check(text, filePath, () -> false);
+    }
+
+    /******************************************************************
+     * Same as {@link #check(String, String)}, giving up between two
+     * formulas once the caller no longer wants the result. The formulas
+     * checked until then are cached for the next run.
+     * @param cancelled polled before each formula is checked
+     * @throws CancellationException if cancelled returned true
+     */
+    Result check(String text, String filePath, BooleanSupplier cancelled) {
+
+        FileState state = files.computeIfAbsent(filePath, k -> new FileState());
+        synchronized (state) {
+            int generation = state.generation;
+            if (generation != state.cacheGeneration) {
+                state.byKey = new HashMap<>();
+                state.fileLevel = null;
+                state.cacheGeneration = generation;
+            }
+            if (state.fileLevel == null) state.fileLevel = apply("", filePath);
+            List<Unit> units = units(KifFormulaSegmenter.segment(text));
+
+            Map<String, Entry> byKey = new HashMap<>();
+            List<Unit> toCheck = new ArrayList<>();
+            for (Unit u : units) {
+                Entry e = state.byKey.get(u.key);
+                if (e == null) toCheck.add(u);
+                else byKey.put(u.key, e);
+            }
+            int reused = byKey.size();
+            try {
+                if (executor != null && toCheck.size() >= PARALLEL_THRESHOLD)
+                    checkInParallel(toCheck, filePath, state.fileLevel, cancelled, byKey);
+                else for (Unit u : toCheck) {
+                    if (cancelled.getAsBoolean()) throw new CancellationException("KIF check cancelled");
+                    byKey.put(u.key, checkUnit(u, filePath, state.fileLevel));
+                }
+            }
+            catch (RuntimeException e) {
+                // what was checked before giving up is still valid
+                state.byKey.putAll(byKey);
+                throw e;
+            }
+
+            List<ErrRec> all = new ArrayList<>(state.fileLevel);
+            for (Unit u : units) all.addAll(place(byKey.get(u.key), u.segment));
+            all.sort(ORDER);
+            boolean unchanged = sameDiagnostics(all, state.last);
+            state.byKey = byKey;
+            state.last = all;
+            return new Result(all, unchanged, toCheck.size(), reused);
+        }
+    }
+
+    /******************************************************************
+     * Check the units in contiguous slices on the executor, each slice
+     * polling cancelled before each of its formulas. Whatever finished
+     * is added to results, also when the run is given up.
+     * @throws CancellationException if cancelled returned true or the
+     *         calling thread was interrupted
+     */
+    private void checkInParallel(List<Unit> units, String filePath, List<ErrRec> fileLevel,
+                                 BooleanSupplier cancelled, Map<String, Entry> results) {
+
+        int slices = Math.max(1, Math.min(parallelism, units.size() / MIN_SLICE));
+        int size = (units.size() + slices - 1) / slices;
+        Map<String, Entry> done = new ConcurrentHashMap<>();
+        List<Callable<Boolean>> tasks = new ArrayList<>(slices);
+        for (int from = 0; from < units.size(); from += size) {
+            List<Unit> slice = units.subList(from, Math.min(units.size(), from + size));
+            tasks.add(() -> {
+                for (Unit u : slice) {
+                    if (cancelled.getAsBoolean()) return false;
+                    done.put(u.key, checkUnit(u, filePath, fileLevel));
+                }
+                return true;
+            });
+        }
+        try {
+            boolean finished = true;
+            for (Future<Boolean> f : executor.invokeAll(tasks)) finished &= f.get();
+            if (!finished) throw new CancellationException("KIF check cancelled");
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("KIF check interrupted");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+        finally {
+            results.putAll(done);
+        }
+    }
+
+    /******************************************************************
+     * Drop everything cached for a file, e.g. when it is closed.
+     */
+    void forget(String filePath) {
+
+        files.remove(filePath);
+    }
+
+    /******************************************************************
+     * Drop the cached diagnostics of every file except the given one,
+     * e.g. after the KB changed underneath them. Doesn't wait for a run
+     * in progress; its results are dropped on the next run. The previous
+     * results are kept, so an unchanged outcome is still recognized.
+     * @param keep a file whose cache stays valid, may be null
+     */
+    void invalidateExcept(String keep) {
+
+        for (Map.Entry<String, FileState> e : files.entrySet())
+            if (!e.getKey().equals(keep)) e.getValue().generation++;
+    }
+
+    /******************************************************************
+     * Pair every formula with the formulas its check depends on.
+     * @param segments the formulas of a text, in text order
+     */
+    static List<Unit> units(List<KifFormulaSegmenter.Segment> segments) {
+
+        Map<String, List<KifFormulaSegmenter.Segment>> definers = new HashMap<>();
+        Map<String, List<KifFormulaSegmenter.Segment>> copies = new HashMap<>();
+        for (KifFormulaSegmenter.Segment s : segments) {
+            // an unterminated formula would swallow whatever follows it
+            if (!s.complete) continue;
+            String defined = KifFormulaSegmenter.definedTerm(s.text);
+            if (defined != null) definers.computeIfAbsent(defined, k -> new ArrayList<>()).add(s);
+            copies.computeIfAbsent(normalized(s.text), k -> new ArrayList<>(1)).add(s);
+        }
+        List<Unit> out = new ArrayList<>(segments.size());
+        for (KifFormulaSegmenter.Segment s : segments) {
+            Set<KifFormulaSegmenter.Segment> context = new HashSet<>();
+            for (String t : KifFormulaSegmenter.terms(s.text)) {
+                List<KifFormulaSegmenter.Segment> d = definers.get(t);
+                if (d != null) context.addAll(d);
+            }
+            List<KifFormulaSegmenter.Segment> same = copies.getOrDefault(normalized(s.text), Collections.emptyList());
+            boolean positioned = same.size() > 1;
+            if (positioned) context.addAll(same);
+            context.remove(s);
+            List<KifFormulaSegmenter.Segment> ordered = new ArrayList<>(context);
+            ordered.sort(Comparator.comparingInt(c -> c.start));
+            out.add(new Unit(s, ordered, positioned));
+        }
+        return out;
+    }
+
+    /******************************************************************
+     * @return the formula with every run of white space made one blank,
+     *         so copies that differ only in layout are recognized
+     */
+    private static String normalized(String formula) {
+
+        StringBuilder sb = new StringBuilder(formula.length());
+        boolean space = false;
+        for (int i = 0; i < formula.length(); i++) {
+            char c = formula.charAt(i);
+            if (Character.isWhitespace(c)) space = true;
+            else {
+                if (space && sb.length() > 0) sb.append(' ');
+                space = false;
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /******************************************************************
+     * Check one formula along with its context.
+     * @param fileLevel diagnostics about the file itself, left out
+     * @return the formula's diagnostics at its current position
+     */
+    private Entry checkUnit(Unit u, String filePath, List<ErrRec> fileLevel) {
+
+        KifFormulaSegmenter.Segment s = u.segment;
+        List<ErrRec> mine = new ArrayList<>();
+        if (u.positioned) {
+            List<KifFormulaSegmenter.Segment> all = new ArrayList<>(u.context);
+            all.add(s);
+            all.sort(Comparator.comparingInt(c -> c.start));
+            for (ErrRec r : apply(layOut(all), filePath)) {
+                if (isFileLevel(r, fileLevel) || insideAny(r, u.context)) continue;
+                mine.add(r);
+            }
+        }
+        else {
+            // the context first, then the formula at its own column
+            StringBuilder sb = new StringBuilder();
+            int at = 0;
+            for (KifFormulaSegmenter.Segment c : u.context) {
+                sb.append(c.text).append('\n');
+                at += lineCount(c.text) + 1;
+            }
+            for (int i = 0; i < s.column; i++) sb.append(' ');
+            sb.append(s.text);
+            for (ErrRec r : apply(sb.toString(), filePath)) {
+                if (r.line < at || isFileLevel(r, fileLevel)) continue;
+                mine.add(new ErrRec(r.type, r.file, r.line - at + s.line, r.start, r.end, r.msg));
+            }
+        }
+        return new Entry(s.line, s.column, mine);
+    }
+
+    /******************************************************************
+     */
+    private List<ErrRec> apply(String text, String filePath) {
+
+        List<ErrRec> found = checker.apply(text, filePath);
+        return (found == null) ? Collections.emptyList() : found;
+    }
+
+    /******************************************************************
+     * @return the diagnostics of an entry, moved to where the formula
+     *         is now
+     */
+    private static List<ErrRec> place(Entry e, KifFormulaSegmenter.Segment s) {
+
+        int dl = s.line - e.line, dc = s.column - e.column;
+        if (dl == 0 && dc == 0) return e.diagnostics;
+        List<ErrRec> out = new ArrayList<>(e.diagnostics.size());
+        for (ErrRec r : e.diagnostics) {
+            int d = (r.line == e.line) ? dc : 0;
+            out.add(new ErrRec(r.type, r.file, r.line + dl, r.start + d, r.end + d, r.msg));
+        }
+        return out;
+    }
+
+    /******************************************************************
+     * @param segments in text order
+     * @return a text holding only these formulas, each at its real line
+     *         and column
+     */
+    private static String layOut(List<KifFormulaSegmenter.Segment> segments) {
+
+        StringBuilder sb = new StringBuilder();
+        int line = 0, col = 0;
+        for (KifFormulaSegmenter.Segment s : segments) {
+            for (; line < s.line; line++) {
+                sb.append('\n');
+                col = 0;
+            }
+            for (; col < s.column; col++) sb.append(' ');
+            sb.append(s.text);
+            int nl = s.text.lastIndexOf('\n');
+            line += lineCount(s.text);
+            col = (nl < 0) ? col + s.text.length() : s.text.length() - nl - 1;
+        }
+        return sb.toString();
+    }
+
+    /******************************************************************
+     * @return the number of line breaks in s
+     */
+    private static int lineCount(String s) {
+
+        int n = 0;
+        for (int i = s.indexOf('\n'); i >= 0; i = s.indexOf('\n', i + 1)) n++;
+        return n;
+    }
+
+    /******************************************************************
+     * @return true if the diagnostic starts inside one of the formulas
+     */
+    private static boolean insideAny(ErrRec r, List<KifFormulaSegmenter.Segment> segments) {
+
+        for (KifFormulaSegmenter.Segment s : segments) {
+            if (r.line < s.line || (r.line == s.line && r.start < s.column)) continue;
+            int endLine = s.line + lineCount(s.text);
+            int nl = s.text.lastIndexOf('\n');
+            int endCol = (nl < 0) ? s.column + s.text.length() : s.text.length() - nl - 1;
+            if (r.line < endLine || (r.line == endLine && r.start < endCol)) return true;
+        }
+        return false;
+    }
+
+    /******************************************************************
+     */
+    private static boolean isFileLevel(ErrRec r, List<ErrRec> fileLevel) {
+
+        for (ErrRec f : fileLevel)
+            if (f.type == r.type && f.line == r.line && f.start == r.start && f.end == r.end
+                    && Objects.equals(f.msg, r.msg)) return true;
+        return false;
+    }
+
+    /******************************************************************
+     * @return true if both lists hold the same diagnostics in the same order
+     */
+    static boolean sameDiagnostics(List<ErrRec> a, List<ErrRec> b) {
+
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            ErrRec x = a.get(i), y = b.get(i);
+            if (x.type != y.type || x.line != y.line || x.start != y.start || x.end != y.end
+                    || !Objects.equals(x.msg, y.msg) || !Objects.equals(x.file, y.file)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,326 @@
+package com.articulate.sigma.jedit;
+
+/*
+ * KBConstituentMerger.java
+ * part of the SUMOjEdit plugin for the jEdit text editor
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+import com.articulate.sigma.Formula;
+import com.articulate.sigma.KB;
+import com.articulate.sigma.KIF;
+import com.articulate.sigma.utils.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/******************************************************************
+ * Merges a single constituent .kif file into an already loaded KB
+ * without rebuilding the whole KB. The file is parsed on its own and
+ * its formulas are diffed against the formulas the KB already
+ * attributes to it (via {@link Formula#sourceFile}); only the added
+ * and retracted formulas touch {@code kb.formulaMap}, the
+ * {@code kb.formulas} index lists and {@code kb.terms}.
+ *
+ * The taxonomy cache is only rebuilt when a changed formula uses one
+ * of the relations the cache is derived from. Callers are expected to
+ * fall back to {@link KB#reload()} if {@link #merge} throws.
+ *
+ * A merge changes the KB's maps and lists in place, so it holds the
+ * write side of {@link #readLock()}'s lock while it does; code that
+ * reads those structures from another thread (error checks, completion
+ * and snapshot builders) holds the read side.
+ */
+class KBConstituentMerger {
+
+    /** jEdit/system property to disable incremental merging */
+    static final String PROP_INCREMENTAL = "sumojedit.kb.incrementalReload";
+
+    /** relations whose assertions feed the KB's taxonomy cache */
+    private static final Set<String> CACHE_RELATIONS = Set.of(
+            "instance", "subclass", "subrelation", "subAttribute",
+            "domain", "domainSubclass", "range", "rangeSubclass",
+            "disjoint", "partition", "exhaustiveDecomposition",
+            "disjointDecomposition", "inverse", "valence");
+
+    /** index key prefixes under which a term may be referenced */
+    private static final String[] TERM_KEY_PREFIXES = {"ant-", "cons-", "stmt-"};
+
+    /** prefix of the index keys arg-N-term, for any argument position N */
+    private static final String ARG_KEY_PREFIX = "arg-";
+
+    /** per-file index keys from the last merge, so a retraction only visits those lists */
+    private final Map<String, Set<String>> lastIndexKeys = new HashMap<>();
+
+    /** per-file modification time at KB load or the last merge */
+    private final Map<String, Long> mergedStamps = new HashMap<>();
+
+    /** stamp of a file that changed while the KB was loading it */
+    private static final long STALE = -1L;
+
+    /** guards the KB's formulaMap, formulas and terms during a merge */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /******************************************************************
+     * Summary of a single merge
+     */
+    static final class Result {
+
+        final int added, retracted, kept;
+        final boolean cacheRebuilt;
+        Result(int a, int r, int k, boolean c) { added = a; retracted = r; kept = k; cacheRebuilt = c; }
+
+        @Override
+        public String toString() {
+            return "added=" + added + ", retracted=" + retracted + ", kept=" + kept + ", cacheRebuilt=" + cacheRebuilt;
+        }
+    }
+
+    /******************************************************************
+     * @return true unless incremental merging has been switched off
+     *         through {@link #PROP_INCREMENTAL}
+     */
+    static boolean isEnabled() {
+
+        String prop = null;
+        try {
+            prop = org.gjt.sp.jedit.jEdit.getProperty(PROP_INCREMENTAL);
+        }
+        catch (Throwable ignore) {}
+        if (prop == null || prop.isBlank()) prop = System.getProperty(PROP_INCREMENTAL, "true");
+        return !"false".equalsIgnoreCase(prop.trim());
+    }
+
+    /******************************************************************
+     * Record the modification time of every constituent of a freshly
+     * loaded KB, so a file edited on disk after the load is merged the
+     * next time it is opened or saved. A file modified after the load
+     * started may not be what the KB read, so it is marked for merging.
+     * @param kb the KB just loaded
+     * @param loadStarted System.currentTimeMillis() before the load
+     */
+    synchronized void recordLoaded(KB kb, long loadStarted) {
+
+        if (kb == null) return;
+        for (String path : new ArrayList<>(kb.constituents)) {
+            long mtime = new File(path).lastModified();
+            mergedStamps.put(path, (mtime <= loadStarted) ? mtime : STALE);
+        }
+    }
+
+    /******************************************************************
+     * Decide whether the given file needs to be (re)merged. A file that
+     * is not yet a constituent always does. A constituent is re-merged
+     * when its modification time differs from the one recorded at KB
+     * load or at its last merge, and when nothing was recorded for it.
+     * @param kb the KB to check against
+     * @param path absolute path of the .kif file
+     * @return true if {@link #merge} should be called for the file
+     */
+    synchronized boolean needsMerge(KB kb, String path) {
+
+        if (kb == null || path == null) return false;
+        if (!kb.constituents.contains(path)) return true;
+        Long seen = mergedStamps.get(path);
+        return seen == null || seen != new File(path).lastModified();
+    }
+
+    /******************************************************************
+     * @return the lock to hold while reading the KB's formulaMap,
+     *         formulas or terms from outside a merge
+     */
+    Lock readLock() {
+
+        return lock.readLock();
+    }
+
+    /******************************************************************
+     * @return the lock to hold while replacing the KB's contents some
+     *         other way, e.g. a full reload
+     */
+    Lock writeLock() {
+
+        return lock.writeLock();
+    }
+
+    /******************************************************************
+     * Parse the given file and merge the difference into the KB.
+     * @param kb the KB to update in place
+     * @param path absolute path of the .kif file
+     * @return a summary of the changes applied
+     * @throws Exception if the file can't be read or parsed (the KB is
+     *         left untouched) or the cache rebuild fails
+     */
+    synchronized Result merge(KB kb, String path) throws Exception {
+
+        File file = new File(path);
+        String canonical = canonical(file);
+        KIF parsed = new KIF();
+        parsed.readFile(path);
+
+        lock.writeLock().lock();
+        try {
+            return apply(kb, path, file, canonical, parsed);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /******************************************************************
+     * Diff a parsed file against the KB and apply the difference; the
+     * caller holds the write lock.
+     */
+    private Result apply(KB kb, String path, File file, String canonical, KIF parsed) {
+
+        // Formulas currently attributed to this file
+        Map<String, Formula> old = new HashMap<>();
+        for (Formula f : kb.formulaMap.values())
+            if (f != null && isFrom(f.sourceFile, path, canonical)) old.put(f.getFormula(), f);
+
+        List<Formula> added = new ArrayList<>();
+        int kept = 0;
+        for (Formula f : parsed.formulaMap.values()) {
+            String text = f.getFormula();
+            if (old.remove(text) != null) {
+                kept++;
+                kb.formulaMap.put(text, f); // keep line numbers current
+            }
+            else if (!kb.formulaMap.containsKey(text))
+                added.add(f);
+        }
+        Collection<Formula> retracted = old.values();
+
+        boolean touchesCache = false;
+        for (Formula f : retracted) touchesCache |= CACHE_RELATIONS.contains(f.car());
+        for (Formula f : added) touchesCache |= CACHE_RELATIONS.contains(f.car());
+
+        Set<String> candidateOrphans = new HashSet<>();
+        if (!retracted.isEmpty()) {
+            Set<String> gone = new HashSet<>();
+            for (Formula f : retracted) {
+                gone.add(f.getFormula());
+                kb.formulaMap.remove(f.getFormula());
+                candidateOrphans.addAll(KifFormulaSegmenter.terms(f.getFormula()));
+            }
+            Set<String> keys = lastIndexKeys.get(canonical);
+            Collection<? extends List<String>> lists = (keys != null) ? indexListsFor(kb, keys) : kb.formulas.values();
+            for (List<String> l : lists)
+                l.removeIf(gone::contains);
+        }
+
+        for (Formula f : added)
+            kb.formulaMap.put(f.getFormula(), f);
+        Set<String> addedText = new HashSet<>();
+        for (Formula f : added) addedText.add(f.getFormula());
+        for (Map.Entry<String, ? extends List<String>> e : parsed.formulas.entrySet()) {
+            List<String> target = null;
+            for (String s : e.getValue()) {
+                if (!addedText.contains(s)) continue;
+                if (target == null) target = kb.formulas.computeIfAbsent(e.getKey(), k -> new ArrayList<>());
+                target.add(s);
+            }
+        }
+        kb.terms.addAll(parsed.terms);
+        candidateOrphans.removeAll(parsed.terms);
+        candidateOrphans.removeAll(referenced(kb, candidateOrphans));
+        kb.terms.removeAll(candidateOrphans);
+
+        if (!kb.constituents.contains(path)) kb.constituents.add(path);
+        lastIndexKeys.put(canonical, new HashSet<>(parsed.formulas.keySet()));
+        mergedStamps.put(path, file.lastModified());
+
+        if (touchesCache) rebuildCache(kb);
+        return new Result(added.size(), retracted.size(), kept, touchesCache);
+    }
+
+    /******************************************************************
+     * Rebuild the KB's taxonomy cache after a merge changed one of the
+     * relations it is derived from.
+     */
+    void rebuildCache(KB kb) {
+
+        if (kb.kbCache != null) kb.kbCache.buildCaches();
+    }
+
+    /******************************************************************
+     * Forget the bookkeeping for a file, e.g. after a full reload.
+     */
+    synchronized void forget(String path) {
+
+        mergedStamps.remove(path);
+        lastIndexKeys.remove(canonical(new File(path)));
+    }
+
+    /******************************************************************
+     * @return the existing KB index lists for the given keys
+     */
+    private static List<List<String>> indexListsFor(KB kb, Set<String> keys) {
+
+        List<List<String>> out = new ArrayList<>(keys.size());
+        for (String k : keys) {
+            List<String> l = kb.formulas.get(k);
+            if (l != null) out.add(l);
+        }
+        return out;
+    }
+
+    /******************************************************************
+     * @return the given terms that a non-empty index list in the KB
+     *         still mentions. The arg-N-term keys are found in one pass
+     *         over the index, whatever the argument position N.
+     */
+    private static Set<String> referenced(KB kb, Set<String> terms) {
+
+        Set<String> out = new HashSet<>();
+        if (terms.isEmpty()) return out;
+        for (String t : terms) {
+            for (String p : TERM_KEY_PREFIXES) {
+                List<String> l = kb.formulas.get(p + t);
+                if (l != null && !l.isEmpty()) out.add(t);
+            }
+        }
+        for (Map.Entry<String, ? extends List<String>> e : kb.formulas.entrySet()) {
+            String key = e.getKey();
+            if (!key.startsWith(ARG_KEY_PREFIX) || e.getValue() == null || e.getValue().isEmpty()) continue;
+            // the position is a number, so the term is everything after the next dash
+            int dash = key.indexOf('-', ARG_KEY_PREFIX.length());
+            if (dash > 0 && terms.contains(key.substring(dash + 1))) out.add(key.substring(dash + 1));
+        }
+        return out;
+    }
+
+    /******************************************************************
+     * @return true if a formula's source file refers to the given path
+     */
+    private static boolean isFrom(String sourceFile, String path, String canonical) {
+
+        if (sourceFile == null) return false;
+        if (sourceFile.equals(path) || sourceFile.equals(canonical)) return true;
+        if (!FileUtil.noPath(sourceFile).equals(FileUtil.noPath(path))) return false;
+        return canonical(new File(sourceFile)).equals(canonical);
+    }
+
+    /******************************************************************
+     */
+    private static String canonical(File f) {
+
+        try {
+            return f.getCanonicalPath();
+        }
+        catch (IOException e) {
+            return f.getAbsolutePath();
+        }
+    }
+}
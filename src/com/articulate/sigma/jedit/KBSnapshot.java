@@ -0,0 +1,191 @@
+package com.articulate.sigma.jedit;
+
+/*
+ * KBSnapshot.java
+ * part of the SUMOjEdit plugin for the jEdit text editor
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/******************************************************************
+ * A versioned on-disk snapshot of the state the editor needs before
+ * the KB has finished loading: the KB name, its constituent files and
+ * the term vocabulary. The snapshot is keyed by a fingerprint over
+ * the constituents' paths, modification times and sizes, so a stale
+ * snapshot is detected without parsing anything.
+ *
+ * Layout (big-endian): magic, version, fingerprint, KB name,
+ * constituent count + paths, term count + terms. Strings are stored
+ * as an int length followed by UTF-8 bytes. The file is read through
+ * a read-only memory map.
+ */
+final class KBSnapshot {
+
+    /** file name inside the plugin home */
+    static final String FILE_NAME = "kb-snapshot.bin";
+
+    /** "SJKS" */
+    private static final int MAGIC = 0x534A4B53;
+
+    /** bump when the layout changes; older files are then ignored */
+    static final int VERSION = 1;
+
+    /**  */
+    final String kbName;
+    /**  */
+    final long fingerprint;
+    /**  */
+    final List<String> constituents;
+    /**  */
+    final List<String> terms;
+
+    /******************************************************************
+     */
+    private KBSnapshot(String kbName, long fingerprint, List<String> constituents, List<String> terms) {
+
+        this.kbName = kbName;
+        this.fingerprint = fingerprint;
+        this.constituents = Collections.unmodifiableList(constituents);
+        this.terms = Collections.unmodifiableList(terms);
+    }
+
+    /******************************************************************
+     * Compute the fingerprint of a set of constituent files. The order
+     * of the paths does not matter; a missing file contributes a zero
+     * modification time and size.
+     * @param constituents constituent file paths
+     * @return a 64 bit fingerprint
+     */
+    static long fingerprint(Collection<String> constituents) {
+
+        List<String> sorted = new ArrayList<>(constituents);
+        Collections.sort(sorted);
+        long h = 0xcbf29ce484222325L;
+        for (String path : sorted) {
+            File f = new File(path);
+            h = mix(h, path.hashCode());
+            h = mix(h, f.lastModified());
+            h = mix(h, f.length());
+        }
+        return h;
+    }
+
+    /******************************************************************
+     */
+    private static long mix(long h, long v) {
+
+        h ^= v;
+        h *= 0x100000001b3L;
+        return h ^ (h >>> 29);
+    }
+
+    /******************************************************************
+     * @return true if none of the recorded constituents changed since
+     *         the snapshot was written
+     */
+    boolean isCurrent() {
+
+        return fingerprint == fingerprint(constituents);
+    }
+
+    /******************************************************************
+     * Write a snapshot. The file is written to a temporary sibling first
+     * and then moved into place, so readers never see a partial file.
+     * @param file the target file
+     * @param kbName the name of the KB the vocabulary came from
+     * @param constituents the KB's constituent files
+     * @param terms the KB's term vocabulary
+     * @throws IOException if the snapshot can't be written
+     */
+    static void write(File file, String kbName, Collection<String> constituents, Collection<String> terms) throws IOException {
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir == null) throw new IOException("no directory to write the snapshot in: " + file);
+        dir.mkdirs();
+        Path tmp = Files.createTempFile(dir.toPath(), FILE_NAME, ".tmp");
+        // the temporary file goes away whether the write or the move fails
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(fingerprint(constituents));
+                writeString(out, kbName == null ? "" : kbName);
+                out.writeInt(constituents.size());
+                for (String c : constituents) writeString(out, c);
+                out.writeInt(terms.size());
+                for (String t : terms) writeString(out, t);
+            }
+            try {
+                Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /******************************************************************
+     * Read a snapshot.
+     * @param file the snapshot file
+     * @return the snapshot, or null if the file is missing, truncated,
+     *         corrupt or was written with a different layout version
+     */
+    static KBSnapshot load(File file) {
+
+        if (file == null || !file.isFile()) return null;
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) return null;
+            long fp = buf.getLong();
+            byte[] scratch = new byte[256];
+            String name = readString(buf, scratch);
+            int nc = buf.getInt();
+            List<String> constituents = new ArrayList<>(Math.max(0, nc));
+            for (int i = 0; i < nc; i++) constituents.add(readString(buf, scratch));
+            int nt = buf.getInt();
+            List<String> terms = new ArrayList<>(Math.max(0, nt));
+            for (int i = 0; i < nt; i++) terms.add(readString(buf, scratch));
+            return new KBSnapshot(name, fp, constituents, terms);
+        }
+        catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /******************************************************************
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    /******************************************************************
+     */
+    private static String readString(MappedByteBuffer buf, byte[] scratch) {
+
+        int len = buf.getInt();
+        if (len < 0 || len > buf.remaining()) throw new IllegalStateException("corrupt snapshot");
+        byte[] b = len <= scratch.length ? scratch : new byte[len];
+        buf.get(b, 0, len);
+        return new String(b, 0, len, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,52 @@
+package com.articulate.sigma.jedit;
+
+/*
+ * KBStage.java
+ * part of the SUMOjEdit plugin for the jEdit text editor
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+
+/******************************************************************
+ * The stages KB initialization goes through, in order. Each action in
+ * {@link SUMOjEditActions} declares the stage it needs through
+ * {@link RequiresStage}, so cheap features unlock as soon as their
+ * data is there instead of waiting for the whole KB.
+ */
+enum KBStage {
+
+    NONE("starting"),
+    TERMS("terms"),
+    FORMULA_INDEXES("formula indexes"),
+    PREPROCESSOR("preprocessor"),
+    TFA("TFA");
+
+    /** human readable name for the status bar */
+    final String label;
+
+    KBStage(String label) { this.label = label; }
+
+    /******************************************************************
+     * @return true if this stage is the given one or a later one
+     */
+    boolean atLeast(KBStage other) {
+
+        return compareTo(other) >= 0;
+    }
+
+    /******************************************************************
+     * @return the number of stages after NONE, for progress display
+     */
+    static int count() {
+
+        return values().length - 1;
+    }
+}
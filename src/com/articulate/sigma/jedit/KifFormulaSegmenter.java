@@ -0,0 +1,193 @@
+package com.articulate.sigma.jedit;
+
+/*
+ * KifFormulaSegmenter.java
+ * part of the SUMOjEdit plugin for the jEdit text editor
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ */
+import java.util.*;
+
+/******************************************************************
+ * Splits SUO-KIF text into its top-level S-expressions without a full
+ * parse. Strings and ';' comments are honored, so parentheses inside
+ * them don't affect nesting. Any other top-level text (a stray atom or
+ * ')') becomes a segment of its own, and an unterminated formula runs
+ * to the end of the text, so every character that a checker could
+ * complain about is covered by exactly one segment.
+ */
+final class KifFormulaSegmenter {
+
+    /** relations whose first argument is the term being defined */
+    static final Set<String> DEFINING_RELATIONS = Set.of(
+            "instance", "subclass", "subrelation", "subAttribute",
+            "domain", "domainSubclass", "range", "rangeSubclass",
+            "documentation", "format", "termFormat", "partition",
+            "disjointDecomposition", "exhaustiveDecomposition");
+
+    /******************************************************************
+     * A top-level formula and where it starts in the text
+     */
+    static final class Segment {
+
+        /** offset of the first character */
+        final int start;
+        /** offset one past the last character */
+        final int end;
+        /** 0-based line of the first character */
+        final int line;
+        /** 0-based column of the first character */
+        final int column;
+        /**  */
+        final String text;
+        /** false for a formula whose parentheses are still open at the end of the text */
+        final boolean complete;
+
+        Segment(int start, int end, int line, int column, String text, boolean complete) {
+            this.start = start; this.end = end; this.line = line; this.column = column; this.text = text;
+            this.complete = complete;
+        }
+
+        @Override
+        public String toString() {
+            return line + ":" + column + " " + text;
+        }
+    }
+
+    /******************************************************************
+     */
+    private KifFormulaSegmenter() {}
+
+    /******************************************************************
+     * @param text SUO-KIF source
+     * @return its top-level segments in text order
+     */
+    static List<Segment> segment(String text) {
+
+        List<Segment> out = new ArrayList<>();
+        if (text == null) return out;
+        int n = text.length();
+        int line = 0, lineStart = 0;
+        int i = 0;
+        while (i < n) {
+            char c = text.charAt(i);
+            if (c == '\n') { line++; lineStart = ++i; continue; }
+            if (Character.isWhitespace(c)) { i++; continue; }
+            if (c == ';') {
+                while (i < n && text.charAt(i) != '\n') i++;
+                continue;
+            }
+            int segStart = i, segLine = line, segCol = i - lineStart;
+            boolean complete = true;
+            if (c == '(') {
+                int depth = 0;
+                boolean inString = false;
+                for (; i < n; i++) {
+                    c = text.charAt(i);
+                    if (c == '\n') { line++; lineStart = i + 1; continue; }
+                    if (inString) {
+                        if (c == '\\' && i + 1 < n && text.charAt(i + 1) != '\n') i++;
+                        else if (c == '"') inString = false;
+                        continue;
+                    }
+                    if (c == '"') inString = true;
+                    else if (c == ';') {
+                        while (i + 1 < n && text.charAt(i + 1) != '\n') i++;
+                    }
+                    else if (c == '(') depth++;
+                    else if (c == ')' && --depth == 0) { i++; break; }
+                }
+                complete = depth == 0;
+            }
+            else {
+                while (i < n && !Character.isWhitespace(text.charAt(i)) && text.charAt(i) != '(' && text.charAt(i) != ';') i++;
+            }
+            out.add(new Segment(segStart, i, segLine, segCol, text.substring(segStart, i), complete));
+        }
+        return out;
+    }
+
+    /******************************************************************
+     * @return the constant terms a formula mentions, skipping variables,
+     *         strings and numbers
+     */
+    static Set<String> terms(String formula) {
+
+        Set<String> out = new HashSet<>();
+        int i = 0, n = formula.length();
+        while (i < n) {
+            char c = formula.charAt(i);
+            if (c == '"') {
+                i++;
+                while (i < n && formula.charAt(i) != '"') {
+                    if (formula.charAt(i) == '\\') i++;
+                    i++;
+                }
+                i++;
+                continue;
+            }
+            if (Character.isLetter(c)) {
+                int j = i + 1;
+                while (j < n && isTermChar(formula.charAt(j))) j++;
+                out.add(formula.substring(i, j));
+                i = j;
+                continue;
+            }
+            if (c == '?' || c == '@' || Character.isDigit(c)) {
+                i++;
+                while (i < n && (isTermChar(formula.charAt(i)) || formula.charAt(i) == '.')) i++;
+                continue;
+            }
+            i++;
+        }
+        return out;
+    }
+
+    /******************************************************************
+     * @return the term a formula defines, i.e. the first argument of a
+     *         {@link #DEFINING_RELATIONS} statement, or null
+     */
+    static String definedTerm(String formula) {
+
+        int i = skipSpace(formula, 0);
+        if (i >= formula.length() || formula.charAt(i) != '(') return null;
+        i = skipSpace(formula, i + 1);
+        int j = readToken(formula, i);
+        if (!DEFINING_RELATIONS.contains(formula.substring(i, j))) return null;
+        i = skipSpace(formula, j);
+        j = readToken(formula, i);
+        if (j == i || !Character.isLetter(formula.charAt(i))) return null;
+        return formula.substring(i, j);
+    }
+
+    /******************************************************************
+     */
+    static boolean isTermChar(char c) {
+
+        return Character.isLetterOrDigit(c) || c == '-' || c == '_';
+    }
+
+    /******************************************************************
+     */
+    private static int skipSpace(String s, int i) {
+
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        return i;
+    }
+
+    /******************************************************************
+     */
+    private static int readToken(String s, int i) {
+
+        while (i < s.length() && isTermChar(s.charAt(i))) i++;
+        return i;
+    }
+}
@@ -21,6 +21,9 @@ package com.articulate.sigma.jedit;
  */
 import com.articulate.sigma.*;
 import com.articulate.sigma.editor.*;
+import com.articulate.sigma.jedit.fastac.ArgumentTypes;
+import com.articulate.sigma.jedit.fastac.CompletionRanker;
+import com.articulate.sigma.jedit.fastac.KBVocabulary;
 import com.articulate.sigma.nlg.LanguageFormatter;
 import com.articulate.sigma.parsing.SuokifApp;
 import com.articulate.sigma.parsing.SuokifVisitor;
@@ -37,7 +40,7 @@ import java.awt.*;
 import java.io.*;
 import java.util.*;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -50,6 +53,7 @@ import org.gjt.sp.jedit.menu.EnhancedMenu;
 import org.gjt.sp.jedit.msg.BufferUpdate;
 import org.gjt.sp.jedit.textarea.Selection;
 import org.gjt.sp.jedit.msg.EditPaneUpdate;
+import org.gjt.sp.jedit.msg.EditorStarted;
 import org.gjt.sp.jedit.msg.ViewUpdate;
 import org.gjt.sp.util.Log;
 import org.gjt.sp.util.ThreadUtilities;
@@ -84,14 +88,14 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
     public static boolean log = true;
     /**  */
     protected final KIF kif;
+    /** set by the KB loading thread, read from the EDT and check threads */
+    protected volatile KB kb;
     /**  */
-    protected KB kb;
-    /**  */
-    protected FormulaPreprocessor fp;
+    protected volatile FormulaPreprocessor fp;
     /**  */
     private final Map<org.gjt.sp.jedit.View, DefaultErrorSource> viewErrorSources = new WeakHashMap<>();
     /**  */
-    protected DefaultErrorSource errsrc; 
+    protected volatile DefaultErrorSource errsrc;
     /**  */
     private final java.util.List<ErrRec> _pendingErrs = new java.util.ArrayList<>();
     /**  */
@@ -101,13 +105,34 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
     /**  */
     private final Set<String> notifiedNotInKB = new HashSet<>();
     /**  */
+    private final KBConstituentMerger merger = new KBConstituentMerger();
+    /** large checks are split over CHECKER_POOL; the checks themselves run on jEdit's background threads */
+    private final IncrementalKifChecker kifChecker = new IncrementalKifChecker(KifFileChecker::check, CHECKER_POOL, getCheckerThreads());
+    /** one current error check per buffer; a newer one supersedes it */
+    private final CheckScheduler checks = new CheckScheduler(
+            r -> ThreadUtilities.runInBackground(create(r, () -> "Checking errors")));
+    /**  */
     private static final int SNIPPET_MAX = 100;
+    /** set from EditBus handlers on the EDT and by attachView() in the background */
+    private volatile org.gjt.sp.jedit.View view;
+    /**  */
+    private volatile long pluginStart;
+    /**  */
+    private volatile boolean isInitialized;
+    /** how far KB initialization has got */
+    private volatile KBStage kbStage = KBStage.NONE;
+    /** true once initKB() has finished, whether or not every stage was reached */
+    private volatile boolean kbInitDone;
+    /** snapshot vocabulary used until the KB is loaded */
+    private volatile Set<String> warmTerms;
     /**  */
-    private org.gjt.sp.jedit.View view;
+    private boolean completionFromKB;
     /**  */
-    private long pluginStart;
+    private static final Map<String, KBStage> REQUIRED_STAGES = new java.util.concurrent.ConcurrentHashMap<>();
+    /** completed with the first View, either at init() or from the EditBus */
+    private final CompletableFuture<org.gjt.sp.jedit.View> viewReady = new CompletableFuture<>();
     /**  */
-    private boolean isInitialized;
+    private static final String PROP_KB_SNAPSHOT = "sumojedit.kb.snapshot";
     /**  */
     private static final String PROP_TPTP4X_PATH = "sumojedit.tptp4x.path";
     /**  */
@@ -159,18 +184,21 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
      */
     private static String safeSnippetFromFile(String filePath, int zeroBasedLine) {
 
-        try {
-            java.util.List<String> lines = java.nio.file.Files.readAllLines(java.nio.file.Paths.get(filePath));
-            if (zeroBasedLine >= 0 && zeroBasedLine < lines.size()) {
-                String line = lines.get(zeroBasedLine);
-                if (line == null) return "";
-                line = line.strip();
-                if (line.length() <= SNIPPET_MAX) return line;
-                return line.substring(0, SNIPPET_MAX);
-            }
-        } 
-        catch (Throwable ignore) {}
-        return "";
+        return snippetFrom(BufferSnapshot.ofFile(filePath), zeroBasedLine);
+    }
+
+    /******************************************************************
+     * Snippet of a 0-based line of a snapshot. Editor text is truncated
+     * with an ellipsis, file text is cut at SNIPPET_MAX.
+     */
+    private static String snippetFrom(BufferSnapshot snap, int zeroBasedLine) {
+
+        if (snap == null || zeroBasedLine < 0 || zeroBasedLine >= snap.lineCount()) return "";
+        String line = snap.lineText(zeroBasedLine);
+        if (snap.fromEditor) return truncateWithEllipsis(line.stripTrailing(), SNIPPET_MAX);
+        line = line.strip();
+        if (line.length() <= SNIPPET_MAX) return line;
+        return line.substring(0, SNIPPET_MAX);
     }
 
     /******************************************************************
@@ -202,7 +230,15 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
     private String appendSnippet(String baseMsg, String filePath, int zeroBasedLine) {
 
         if (baseMsg == null) return "";
-        String snip = snippetFromActiveBufferOrFile(filePath, zeroBasedLine);
+        return withSnippet(baseMsg, snippetFromActiveBufferOrFile(filePath, zeroBasedLine));
+    }
+
+    /******************************************************************
+     * Append an already resolved snippet to a base message.
+     */
+    private String withSnippet(String baseMsg, String snip) {
+
+        if (baseMsg == null) return "";
         String normalized = normalizeBaseMessage(baseMsg, snip);
         if (snip == null || snip.isEmpty()) return normalized;
         if (normalized.contains(snip)) return normalized;
@@ -231,6 +267,25 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
         return msg;
     }
 
+    /******************************************************************
+     * Add a "did you mean" hint to an unknown-term diagnostic, naming the
+     * KB terms within two edits of the offending one. Other messages, and
+     * terms the KB knows, are returned unchanged.
+     */
+    private static String withSpellingHint(String msg) {
+
+        final String tag = "Term not below Entity: ";
+        if (msg == null || !msg.startsWith(tag) || !KBVocabulary.isLoaded()) return msg;
+        int end = msg.indexOf(" — ");
+        if (end < 0) end = msg.length();
+        String term = msg.substring(tag.length(), end).strip();
+        if (term.isEmpty() || term.startsWith("(") || term.indexOf(' ') >= 0) return msg;
+        if (KBVocabulary.current().contains(term)) return msg;
+        java.util.List<String> close = KBVocabulary.didYouMean(term, 3);
+        if (close.isEmpty()) return msg;
+        return msg.substring(0, end) + " (did you mean " + String.join(", ", close) + "?)" + msg.substring(end);
+    }
+
     /******************************************************************
      * Extract the most likely offending constant from "Term not below Entity: ( ... )"
      * by choosing the last non-variable token in the formula.
@@ -266,23 +321,14 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
             if (_flushScheduled) return;
             _flushScheduled = true;
         }
-        ThreadUtilities.runInDispatchThread(() -> {
+        ThreadUtilities.runInBackground(() -> {
             java.util.List<ErrRec> toAdd;
             synchronized (_pendingErrs) {
                 toAdd = new java.util.ArrayList<>(_pendingErrs);
                 _pendingErrs.clear();
                 _flushScheduled = false;
             }
-            errorlist.ErrorSource.unregisterErrorSource(errsrc);
-            try {
-                for (ErrRec e : toAdd) {
-                    String msgWithSnippet = appendSnippet(e.msg, e.file, e.line);
-                    errsrc.addError(e.type, e.file, e.line, e.start, e.end, msgWithSnippet);
-                }
-            } 
-            finally {
-                errorlist.ErrorSource.registerErrorSource(errsrc);
-            }
+            publishErrors(toAdd, errsrc, view, null, null, false, false);
         });
     }
 
@@ -316,6 +362,17 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
         }
     }
 
+    /******************************************************************
+     * @return false if sumojedit.checker.incremental turns off reusing the
+     * previous KIF check of a buffer whose formulas haven't changed
+     */
+    private static boolean isIncrementalChecking() {
+
+        String prop = org.gjt.sp.jedit.jEdit.getProperty("sumojedit.checker.incremental");
+        if (prop == null || prop.isBlank()) prop = System.getProperty("sumojedit.checker.incremental", "true");
+        return !"false".equalsIgnoreCase(prop.trim());
+    }
+
     /******************************************************************
      * Create a non-EDT background Runnable with an overridden toString for
      * label display
@@ -359,91 +416,362 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
     /******************************************************************
      * Starts the KB initialization process for UI use only. Must only be
      * called when jEdit will be an active UI. Not meant for use by the main()
+     *
+     * KB loading starts right away and runs in parallel with jEdit's own
+     * startup. UI wiring happens once a View exists, either because one is
+     * already active or when the EditorStarted / ViewUpdate.CREATED message
+     * arrives, and the plugin is ready once both sides are done.
      */
-    @SuppressWarnings("SleepWhileInLoop")
     public void init() {
 
-        Runnable r = () -> {
-            pluginStart = System.currentTimeMillis();
-            do
-                try {
-                    view = jEdit.getActiveView();
-                    Thread.sleep(50L);
-                } 
-                catch (InterruptedException ex) {System.err.println(ex);}
-            while (view == null);
-            ThreadUtilities.runInDispatchThread(() -> {
-                view.getStatus().setMessage(BuildInfo.getFullVersion() + " loading...");
-            });
-            System.setProperty("sigma.exec.mode", "jedit-single");
-            if (view != null) {
-                jEdit.setProperty("plugin.com.articulate.sigma.jedit.SUMOjEditPlugin.longdescription",
-                    "A syntax aware editor for the Suggested Upper Merged Ontology (SUMO)\n" +
-                    BuildInfo.getFullVersion() + "\n" +
-                    "Knowledge Base loaded with " + (kb != null ? kb.terms.size() : 0) + " terms");
+        pluginStart = System.currentTimeMillis();
+        org.gjt.sp.jedit.View active = jEdit.getActiveView();
+        if (active != null) viewReady.complete(active);
+        java.util.concurrent.Executor bg = ThreadUtilities::runInBackground;
+        CompletableFuture<KBSnapshot> snapshotReady = CompletableFuture.supplyAsync(this::loadSnapshot, bg);
+        CompletableFuture<Void> kbReady = CompletableFuture.runAsync(
+                create(this::initKB, () -> "Initializing " + getClass().getName()), bg);
+        CompletableFuture<Void> uiReady = viewReady.thenAcceptBothAsync(snapshotReady, this::attachView, bg);
+        CompletableFuture.allOf(uiReady, kbReady)
+                .thenRunAsync(create(() -> finishInit(snapshotReady.join()), () -> "Finishing " + getClass().getName()), bg)
+                .exceptionally(t -> {
+                    Log.log(Log.ERROR, this, ":init(): initialization failed: ", t);
+                    return null;
+                });
+    }
+
+    /******************************************************************
+     * Loads the KB one stage at a time. Needs no View, so it runs while
+     * jEdit is still bringing up its UI. Each finished stage is published
+     * through advanceStage() so the actions that only need it unlock
+     * immediately.
+     */
+    private void initKB() {
+
+        System.setProperty("sigma.exec.mode", "jedit-single");
+        KButilities.refreshExecutorService();
+        try {
+            System.out.println("SUMOjEdit.init(): Initializing KB with single-threaded executor");
+            long loadStarted = System.currentTimeMillis();
+            KBmanager.getMgr().initializeOnce();
+            kb = KBmanager.getMgr().getKB(KBmanager.getMgr().getDefaultKbName());
+            merger.recordLoaded(kb, loadStarted);
+            if (kb != null) {
+                installCompletion();
+                advanceStage(KBStage.FORMULA_INDEXES);
             }
-            KButilities.refreshExecutorService();
-            ThreadUtilities.runInDispatchThread(() -> {
-                view.getJMenuBar().getSubElements()[8].menuSelectionChanged(true);
-            });
-            togglePluginMenus(false);
-            ThreadUtilities.runInDispatchThread(() -> {
-                view.getJMenuBar().getSubElements()[8].menuSelectionChanged(false);
-            });
-            try {
-                System.out.println("SUMOjEdit.init(): Initializing KB with single-threaded executor");
-                SUMOtoTFAform.initOnce();
+            fp = new FormulaPreprocessor();
+            advanceStage(KBStage.PREPROCESSOR);
+            SUMOtoTFAform.initOnce();
+            kb = SUMOtoTFAform.kb;
+            fp = SUMOtoTFAform.fp;
+            advanceStage(KBStage.TFA);
+            System.out.println("SUMOjEdit.init(): KB initialization successful");
+        } 
+        catch (Exception e) {
+            Log.log(Log.ERROR, this, ":init(): KB init error after stage " + kbStage + ": ", e);
+            if (SUMOtoTFAform.kb != null) {
                 kb = SUMOtoTFAform.kb;
                 fp = SUMOtoTFAform.fp;
-                System.out.println("SUMOjEdit.init(): KB initialization successful");
-            } 
-            catch (Exception e) {
-                Log.log(Log.ERROR, this, ":init(): KB init error: ", e);
-                if (SUMOtoTFAform.kb != null) {
-                    kb = SUMOtoTFAform.kb;
-                    fp = SUMOtoTFAform.fp;
-                }
             }
-            Log.log(Log.MESSAGE, this, ":kb: " + kb);
-            System.setProperty("sigma.exec.mode", "parallel");
-            KButilities.refreshExecutorService();
-            togglePluginMenus(true);
-            if (view != null) {
-                if (kb != null) {
-                    autoComplete = new AutoCompleteManager(view, kb);
-                    Log.log(Log.MESSAGE, this, ":AutoComplete initialized with KB");
-                } 
-                else {
-                    KB fallbackKB = KBmanager.getMgr().getKB("SUMO");
-                    if (fallbackKB != null) {
-                        kb = fallbackKB;
-                        autoComplete = new AutoCompleteManager(view, kb);
-                        Log.log(Log.WARNING, this, ":AutoComplete initialized with fallback KB");
-                    } 
-                    else Log.log(Log.ERROR, this, ":No KB available for AutoComplete");
-                }
+        }
+        Log.log(Log.MESSAGE, this, ":kb: " + kb);
+        System.setProperty("sigma.exec.mode", "parallel");
+        KButilities.refreshExecutorService();
+        if (kb == null) {
+            kb = KBmanager.getMgr().getKB("SUMO");
+            if (kb != null) Log.log(Log.WARNING, this, ":Using fallback SUMO KB");
+        }
+        if (kb != null && !kbStage.atLeast(KBStage.FORMULA_INDEXES)) {
+            // the KB only turned up through a fallback
+            installCompletion();
+            advanceStage(KBStage.FORMULA_INDEXES);
+        }
+        kbInitDone = true;
+        if (!kbStage.atLeast(KBStage.TFA))
+            Log.log(Log.WARNING, this, ":init(): KB initialization stopped at the " + kbStage.label
+                    + " stage; later actions run with what was loaded");
+        jEdit.setProperty("plugin.com.articulate.sigma.jedit.SUMOjEditPlugin.longdescription",
+            "A syntax aware editor for the Suggested Upper Merged Ontology (SUMO)\n" +
+            BuildInfo.getFullVersion() + "\n" +
+            "Knowledge Base loaded with " + (kb != null ? kb.terms.size() : 0) + " terms");
+    }
+
+    /******************************************************************
+     * Record that initialization reached the given stage and report it
+     * on the status bar. Stages only move forward.
+     * @param stage the stage just completed
+     */
+    private void advanceStage(KBStage stage) {
+
+        synchronized (this) {
+            if (kbStage.atLeast(stage)) return;
+            kbStage = stage;
+        }
+        final String msg = BuildInfo.getFullVersion() + ": " + stage.label + " ready ("
+                + stage.ordinal() + "/" + KBStage.count() + ")";
+        Log.log(Log.MESSAGE, this, ":advanceStage(): " + msg + " after "
+                + (System.currentTimeMillis() - pluginStart) / KButilities.ONE_K + " secs");
+        final org.gjt.sp.jedit.View v = view;
+        if (v != null && stage != KBStage.TFA)
+            ThreadUtilities.runInDispatchThread(() -> v.getStatus().setMessage(msg));
+    }
+
+    /******************************************************************
+     * @param action the name of a method in {@link SUMOjEditActions}
+     * @return the stage the action declares through {@link RequiresStage}
+     */
+    static KBStage requiredStage(String action) {
+
+        return REQUIRED_STAGES.computeIfAbsent(action, a -> {
+            try {
+                RequiresStage rs = SUMOjEditActions.class.getMethod(a).getAnnotation(RequiresStage.class);
+                return (rs == null) ? KBStage.NONE : rs.value();
             }
-            if (view != null && kb == null) {
-                kb = KBmanager.getMgr().getKB("SUMO");
-                if (kb != null) Log.log(Log.WARNING, this, ":Using fallback SUMO KB for autocomplete");
+            catch (NoSuchMethodException e) {
+                return KBStage.NONE;
             }
-            if (view != null && kb != null) {
-                if (autoComplete != null) autoComplete.dispose();
-                autoComplete = new AutoCompleteManager(view, kb);
-                Log.log(Log.MESSAGE, this, ":Autocomplete initialized with " + kb.terms.size() + " terms");
+        });
+    }
+
+    /******************************************************************
+     * Check that initialization has reached the stage an action needs.
+     * If it hasn't, say so on the status bar. Once initialization is
+     * over, a stage that failed no longer holds its actions back: they
+     * run with the KB and preprocessor that did load, as they did before
+     * there were stages.
+     * @param action the name of a method in {@link SUMOjEditActions}
+     * @return true if the action can run now
+     */
+    private boolean stageReady(String action) {
+
+        KBStage need = requiredStage(action);
+        KBStage have = kbStage;
+        if (have.atLeast(need)) return true;
+        if (kbInitDone) {
+            Log.log(Log.MESSAGE, this, ":stageReady(): " + action + " runs without the " + need.label
+                    + " stage, which failed to load");
+            return true;
+        }
+        final String msg = action + " is available once the " + need.label + " stage is ready (now: " + have.label + ")";
+        Log.log(Log.MESSAGE, this, ":stageReady(): " + msg);
+        if (view != null)
+            ThreadUtilities.runInDispatchThread(() -> view.getStatus().setMessageAndClear(msg));
+        return false;
+    }
+
+    /******************************************************************
+     * Read the KB's formulas or terms while no constituent merge is
+     * changing them.
+     * @param read the code that reads the KB
+     * @return what read returned
+     */
+    private <T> T readingKB(Supplier<T> read) {
+
+        java.util.concurrent.locks.Lock l = merger.readLock();
+        l.lock();
+        try {
+            return read.get();
+        }
+        finally {
+            l.unlock();
+        }
+    }
+
+    /******************************************************************
+     * @return the KB's terms, or the snapshot's until the KB is loaded
+     */
+    private Collection<String> knownTerms() {
+
+        if (kb != null) return kb.terms;
+        Set<String> warm = warmTerms;
+        return (warm != null) ? warm : Collections.emptySet();
+    }
+
+    /******************************************************************
+     * Install completion from the best vocabulary available: the KB's
+     * terms once it is loaded, the snapshot's terms until then. The
+     * vocabulary is published for FastAC and SmartCompose even before
+     * a View exists.
+     */
+    private synchronized void installCompletion() {
+
+        final Collection<String> vocabulary = (kb != null) ? kb.terms : warmTerms;
+        if (vocabulary != null) readingKB(() -> KBVocabulary.publish(vocabulary));
+        if (view == null || completionFromKB) return;
+        if (kb != null) {
+            if (autoComplete != null) autoComplete.dispose();
+            autoComplete = new AutoCompleteManager(view, kb, merger.readLock());
+            completionFromKB = true;
+            Log.log(Log.MESSAGE, this, ":Autocomplete initialized with " + kb.terms.size() + " terms");
+            final KB ranked = kb;
+            ThreadUtilities.runInBackground(create(() -> {
+                    CompletionRanker.install(readingKB(() -> rankerFor(ranked)));
+                    ArgumentTypes.install(readingKB(() -> argumentTypesFor(ranked)));
+                    // build the typo and subword indexes off the EDT
+                    KBVocabulary.current().fuzzyIndex();
+                    KBVocabulary.current().subwordIndex();
+                }, () -> "Ranking completions"));
+        }
+        else if (warmTerms != null && autoComplete == null) {
+            autoComplete = new AutoCompleteManager(view, warmTerms);
+        }
+    }
+
+    /******************************************************************
+     * Collect the statistics completions are ranked by: how often each
+     * term is an argument of a KB formula, counted from the KB's
+     * "arg-N-term" formula index, and whether it is a relation, an
+     * instance or a class according to the KB cache.
+     */
+    static CompletionRanker rankerFor(KB kb) {
+
+        Map<String, Integer> frequency = new HashMap<>();
+        Map<String, CompletionRanker.Kind> kinds = new HashMap<>();
+        try {
+            for (Map.Entry<String, ? extends Collection<String>> e : kb.formulas.entrySet()) {
+                String key = e.getKey();
+                if (!key.startsWith("arg-")) continue;
+                int dash = key.indexOf('-', 4);
+                if (dash < 0 || dash + 1 >= key.length()) continue;
+                frequency.merge(key.substring(dash + 1), e.getValue().size(), Integer::sum);
             }
-            else {
-                Log.log(Log.ERROR, this, ":Autocomplete not initialized; view=" + view + ", kb=" + kb);
+            KBcache cache = kb.kbCache;
+            if (cache != null) {
+                for (String term : cache.instanceOf.keySet()) kinds.put(term, CompletionRanker.Kind.INSTANCE);
+                for (String term : kb.terms) {
+                    if (!kinds.containsKey(term) && !term.isEmpty() && Character.isUpperCase(term.charAt(0)))
+                        kinds.put(term, CompletionRanker.Kind.CLASS);
+                }
+                for (String term : cache.relations) kinds.put(term, CompletionRanker.Kind.RELATION);
             }
-            isInitialized = true;
-            errsrc = ensureErrorSource(view); 
-            processLoadedKifOrTptp();
+        }
+        catch (RuntimeException e) {
+            // the KB is being changed under us; rank with what was collected
+            Log.log(Log.WARNING, SUMOjEdit.class, ":rankerFor(): KB changed while collecting statistics: ", e);
+        }
+        return CompletionRanker.of(frequency, kinds);
+    }
+
+    /******************************************************************
+     * Index the KB's domain and domainSubclass signatures and its
+     * instance and subclass hierarchy, so completion in an argument
+     * position can offer only terms of the expected type.
+     */
+    static ArgumentTypes argumentTypesFor(KB kb) {
+
+        KBcache cache = kb.kbCache;
+        if (cache == null) return null;
+        try {
+            return ArgumentTypes.of(cache.signatures, cache.instanceOf, cache.children.get("subclass"));
+        }
+        catch (RuntimeException e) {
+            Log.log(Log.WARNING, SUMOjEdit.class, ":argumentTypesFor(): KB changed while indexing signatures: ", e);
+            return null;
+        }
+    }
+
+    /******************************************************************
+     * Wires the plugin to the first View. If the KB is still loading,
+     * completion is served from the KB snapshot in the meantime. The
+     * plugin menu stays enabled; actions check their own stage.
+     * @param v the View to attach to
+     * @param snapshot the KB snapshot, may be null
+     */
+    private void attachView(org.gjt.sp.jedit.View v, KBSnapshot snapshot) {
+
+        if (view == null) view = v;
+        if (snapshot != null) {
+            warmTerms = new HashSet<>(snapshot.terms);
+            advanceStage(KBStage.TERMS);
+        }
+        installCompletion();
+        if (!kbStage.atLeast(KBStage.FORMULA_INDEXES)) {
+            final String msg = BuildInfo.getFullVersion() + " loading..."
+                    + (snapshot != null ? " (" + snapshot.terms.size() + " terms available)" : "");
             ThreadUtilities.runInDispatchThread(() -> {
-                view.getStatus().setMessageAndClear(BuildInfo.getFullVersion() + " ready");
+                view.getStatus().setMessage(msg);
             });
-        };
-        Runnable rs = create(r, () -> "Initializing " + getClass().getName());
-        startBackgroundThread(rs);
+        }
+    }
+
+    /******************************************************************
+     * Runs once both the KB and the View are available.
+     * @param snapshot the KB snapshot used at startup, may be null
+     */
+    private void finishInit(KBSnapshot snapshot) {
+
+        installCompletion();
+        if (kb == null) Log.log(Log.ERROR, this, ":Autocomplete not initialized; view=" + view + ", kb=" + kb);
+        warmTerms = null;
+        refreshSnapshot(snapshot);
+        isInitialized = true;
+        errsrc = ensureErrorSource(view); 
+        processLoadedKifOrTptp();
+        ThreadUtilities.runInDispatchThread(() -> {
+            view.getStatus().setMessageAndClear(BuildInfo.getFullVersion() + " ready");
+        });
+    }
+
+    /******************************************************************
+     * @return the KB snapshot file in the plugin home, or null if
+     * snapshots are disabled or jEdit has no settings directory
+     */
+    private static File snapshotFile() {
+
+        if (!jEdit.getBooleanProperty(PROP_KB_SNAPSHOT, true)) return null;
+        File home = EditPlugin.getPluginHome(SUMOjEditPlugin.class);
+        return (home == null) ? null : new File(home, KBSnapshot.FILE_NAME);
+    }
+
+    /******************************************************************
+     * Read the on-disk KB snapshot so term completion is available while
+     * the KB itself is still loading. The snapshot's constituents are
+     * checked against the file system in the background; a stale
+     * snapshot is still good enough for completion and is rewritten by
+     * refreshSnapshot() once the KB is up.
+     * @return the snapshot, or null if there is none
+     */
+    private KBSnapshot loadSnapshot() {
+
+        long start = System.currentTimeMillis();
+        KBSnapshot snapshot = KBSnapshot.load(snapshotFile());
+        if (snapshot == null) {
+            Log.log(Log.MESSAGE, this, ":loadSnapshot(): no usable KB snapshot");
+            return null;
+        }
+        CHECKER_POOL.execute(create(() -> {
+            if (!snapshot.isCurrent())
+                Log.log(Log.MESSAGE, this, ":loadSnapshot(): snapshot is stale, will be rebuilt after KB load");
+        }, () -> "Verifying KB snapshot"));
+        Log.log(Log.MESSAGE, this, ":loadSnapshot(): " + snapshot.terms.size() + " terms from snapshot in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return snapshot;
+    }
+
+    /******************************************************************
+     * Rewrite the KB snapshot in the background if it is missing or no
+     * longer matches the loaded KB's constituents.
+     * @param snapshot the snapshot used at startup, may be null
+     */
+    private void refreshSnapshot(KBSnapshot snapshot) {
+
+        final File file = snapshotFile();
+        if (file == null || kb == null) return;
+        final List<String> constituents = readingKB(() -> new ArrayList<>(kb.constituents));
+        if (snapshot != null && snapshot.kbName.equals(kb.name)
+                && snapshot.fingerprint == KBSnapshot.fingerprint(constituents)) return;
+        final List<String> terms = readingKB(() -> new ArrayList<>(kb.terms));
+        final String name = kb.name;
+        CHECKER_POOL.execute(create(() -> {
+            try {
+                KBSnapshot.write(file, name, constituents, terms);
+                Log.log(Log.MESSAGE, this, ":refreshSnapshot(): wrote " + terms.size() + " terms to " + file);
+            }
+            catch (IOException e) {
+                Log.log(Log.WARNING, this, ":refreshSnapshot(): could not write KB snapshot: ", e);
+            }
+        }, () -> "Writing KB snapshot"));
     }
 
     /******************************************************************
@@ -461,7 +789,7 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
                 togglePluginMenus(true);
                 if (isKif) {
                     kif.filename = view.getBuffer().getPath();
-                    if (kb != null && !kb.constituents.contains(kif.filename) && new File(kif.filename).length() > 1L) {
+                    if (kb != null && new File(kif.filename).length() > 1L && merger.needsMerge(kb, kif.filename)) {
                         togglePluginMenus(false);
                         Color clr = view.getStatus().getBackground();
                         ThreadUtilities.runInDispatchThread(() -> {
@@ -518,19 +846,49 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
 
     /******************************************************************
      * Adds a loaded KIF as a constituent to the KB so that all terms
-     * in the current jEdit buffer can be recognized. If constituent previously
-     * loaded, will just return.
+     * in the current jEdit buffer can be recognized. Only the formulas
+     * that differ from what the KB already holds for the file are merged;
+     * a full KB reload is the fallback when incremental merging is disabled
+     * or fails.
      */
     private void tellTheKbAboutLoadedKif() {
 
-        if (!kb.constituents.contains(kif.filename)) {
-            long start = System.currentTimeMillis();
-            kb.constituents.add(kif.filename);
-            kb.reload();
-            kb = KBmanager.getMgr().getKB(KBmanager.getMgr().getDefaultKbName());
-            notifiedNotInKB.remove(kif.filename);
-            Log.log(Log.MESSAGE, this, ":tellTheKbAboutLoadedKif() completed in " + (System.currentTimeMillis() - start) / KButilities.ONE_K + " secs");
+        long start = System.currentTimeMillis();
+        boolean merged = false;
+        boolean termsChanged = true;
+        if (KBConstituentMerger.isEnabled()) {
+            try {
+                KBConstituentMerger.Result res = merger.merge(kb, kif.filename);
+                merged = true;
+                termsChanged = res.added + res.retracted > 0;
+                kifChecker.invalidateExcept(kif.filename);
+                Log.log(Log.MESSAGE, this, ":tellTheKbAboutLoadedKif(): merged " + kif.filename + " (" + res + ")");
+            }
+            catch (Exception e) {
+                Log.log(Log.WARNING, this, ":tellTheKbAboutLoadedKif(): incremental merge failed, reloading KB: ", e);
+            }
+        }
+        if (!merged) {
+            long loadStarted = System.currentTimeMillis();
+            java.util.concurrent.locks.Lock write = merger.writeLock();
+            write.lock();
+            try {
+                if (!kb.constituents.contains(kif.filename)) kb.constituents.add(kif.filename);
+                kb.reload();
+                kb = KBmanager.getMgr().getKB(KBmanager.getMgr().getDefaultKbName());
+            }
+            finally {
+                write.unlock();
+            }
+            merger.forget(kif.filename);
+            merger.recordLoaded(kb, loadStarted);
+            kifChecker.invalidateExcept(null);
         }
+        // kb.terms was changed in place: completion has to see the new terms
+        if (termsChanged) KBVocabulary.termsChanged();
+        readingKB(() -> KBVocabulary.publish(kb.terms));
+        notifiedNotInKB.remove(kif.filename);
+        Log.log(Log.MESSAGE, this, ":tellTheKbAboutLoadedKif() completed in " + (System.currentTimeMillis() - start) / KButilities.ONE_K + " secs");
     }
 
     /******************************************************************
@@ -539,6 +897,10 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
     @Override
     public void handleMessage(EBMessage msg) {
 
+        if (msg instanceof EditorStarted) {
+            org.gjt.sp.jedit.View active = jEdit.getActiveView();
+            if (active != null) viewReady.complete(active);
+        }
         if (msg instanceof BufferUpdate) bufferUpdate((BufferUpdate)msg);
         if (msg instanceof EditPaneUpdate) editPaneUpdate((EditPaneUpdate)msg);
         if (msg instanceof ViewUpdate) viewUpdate((ViewUpdate)msg);
@@ -549,6 +911,10 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
      */
     private void bufferUpdate(BufferUpdate bu) {
 
+        if (bu.getWhat() == BufferUpdate.CLOSED && bu.getBuffer() != null) {
+            checks.cancel(bu.getBuffer().getPath());
+            kifChecker.forget(bu.getBuffer().getPath());
+        }
         if (view == null) return;
         if (bu.getView() == view && bu.getWhat() == BufferUpdate.SAVED) processLoadedKifOrTptp();
     }
@@ -582,6 +948,7 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
     private void viewUpdate(ViewUpdate vu) {
 
         if (vu == null) return;
+        if (vu.getWhat() == ViewUpdate.CREATED && vu.getView() != null) viewReady.complete(vu.getView());
         if (vu.getWhat() == ViewUpdate.ACTIVATED) {
             final org.gjt.sp.jedit.View newView = vu.getView();
             if (newView != null) {
@@ -870,6 +1237,7 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
     @Override
     public void queryExp() {
 
+        if (!stageReady("queryExp")) return;
         String query = view.getTextArea().getSelectedText();
         if (!checkEditorContents(query, "Please fully highlight an atom for query")) return;
         Runnable r = () -> {
@@ -917,10 +1285,11 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
     @Override
     public void browseTerm() {
 
+        if (!stageReady("browseTerm")) return;
         clearWarnAndErr();
         String contents = view.getTextArea().getSelectedText();
         if (!checkEditorContents(contents, "Please fully highlight a term to browse")) return;
-        if (!StringUtil.emptyString(contents) && Formula.atom(contents) && kb.terms.contains(contents)) {
+        if (!StringUtil.emptyString(contents) && Formula.atom(contents) && knownTerms().contains(contents)) {
             String urlString = "http://sigma.ontologyportal.org:8443/sigma/Browse.jsp?kb=SUMO&lang=EnglishLanguage&flang=SUO-KIF&term=" + contents;
             if (Desktop.isDesktopSupported()) {
                 try {
@@ -1069,6 +1438,7 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
     @Override
     public void gotoDefn() {
 
+        if (!stageReady("gotoDefn")) return;
         clearWarnAndErr();
         String contents = view.getTextArea().getSelectedText();
         if (!checkEditorContents(contents, "Please fully highlight a term for definition")) return;
@@ -1148,13 +1518,14 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
 
         List<DefaultErrorSource.DefaultError> warnings = new ArrayList<>();
         List<DefaultErrorSource.DefaultError> errors = new ArrayList<>();
+        BufferSnapshot snap = BufferSnapshot.ofFile(kif.filename);
         int line, offset;
         for (String warn : kif.warningSet) {
             line = getLineNum(warn);
             offset = getOffset(warn);
             if (offset == 0) offset = 1;
             int adjLine = (line == 0 ? line : line - 1);
-            String snip = safeSnippetFromFile(kif.filename, adjLine);
+            String snip = snippetFrom(snap, adjLine);
             String msgWithSnippet = snip.isEmpty() ? warn : (warn + " — " + snip);
             DefaultErrorSource.DefaultError warning = new DefaultErrorSource.DefaultError(errsrc, ErrorSource.WARNING, kif.filename, adjLine, offset, offset+1, msgWithSnippet);
             warnings.add(warning);
@@ -1164,7 +1535,7 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
             offset = getOffset(err);
             if (offset == 0) offset = 1;
             int adjLine = (line == 0 ? line : line - 1);
-            String snip = safeSnippetFromFile(kif.filename, adjLine);
+            String snip = snippetFrom(snap, adjLine);
             String msgWithSnippet = snip.isEmpty() ? err : (err + " — " + snip);
             DefaultErrorSource.DefaultError error = new DefaultErrorSource.DefaultError(errsrc, ErrorSource.ERROR, kif.filename, adjLine, offset, offset+1, msgWithSnippet);
             errors.add(error);
@@ -1223,6 +1594,7 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
     @Override
     public void showStats() {
 
+        if (!stageReady("showStats")) return;
         clearWarnAndErr();
         Log.log(Log.MESSAGE, this, ":showStats(): starting");
         if (StringUtil.emptyString(kif.filename))
@@ -1297,22 +1669,32 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
         Log.log(Log.MESSAGE, this, ":checkErrors(): starting");
         final View targetView = jEdit.getActiveView();
         if (targetView == null || targetView.getBuffer() == null) return;
-        final DefaultErrorSource targetSource = ensureErrorSource(targetView);
         final String filePath = targetView.getBuffer().getPath();
+        // TPTP checking needs no KB
+        if (!isTptpFile(filePath) && !stageReady("checkErrors")) return;
+        final DefaultErrorSource targetSource = ensureErrorSource(targetView);
         final String contents = targetView.getTextArea().getText();
-        clearErrorsForFile(targetSource, filePath);
-        startBackgroundThread(create(() -> {
+        // an edit makes the check's positions stale, so it stops the check
+        CancelOnEdit.watch(targetView.getBuffer(), checks);
+        checks.submit(filePath, job -> {
             List<ErrRec> errors;
             if (isTptpFile(filePath)) errors = normalizeTptpErrorsForJEdit(TPTPFileChecker.check(contents, filePath));
-            else errors = KifFileChecker.check(contents, filePath);
-            addErrorsDirect(errors);
+            else if (isIncrementalChecking()) {
+                IncrementalKifChecker.Result res = readingKB(() -> kifChecker.check(contents, filePath, () -> !job.isCurrent()));
+                Log.log(Log.MESSAGE, this, ":checkErrors(): " + res);
+                if (res.unchanged && targetSource.getFileErrorCount(filePath) == res.diagnostics.size()) return;
+                errors = new ArrayList<>(res.diagnostics);
+            }
+            else errors = readingKB(() -> KifFileChecker.check(contents, filePath));
+            job.throwIfCancelled();
+            publishErrors(errors, targetSource, targetView, BufferSnapshot.of(filePath, contents), job, false, true);
             Log.log(
                     Log.MESSAGE,
                     this,
                     ":checkErrors(): found "
                             + errors.size()
                             + " diagnostics");
-        }, () -> "Checking errors"));
+        });
     }
 
     /******************************************************************
@@ -1347,7 +1729,7 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
      */
     protected void checkErrorsBody(String contents, final String filePath) {
 
-        List<ErrRec> msgs = KifFileChecker.check(contents, filePath);
+        List<ErrRec> msgs = readingKB(() -> KifFileChecker.check(contents, filePath));
         if (filePath != null) {
             boolean hasNotInKBWarning = msgs.stream().anyMatch(
                 e -> e.type == ErrRec.WARNING && e.msg != null
@@ -1362,7 +1744,7 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
                 }
             }
         }
-        addErrorsDirect(msgs);
+        addErrorsDirect(msgs, BufferSnapshot.of(filePath, contents));
     }
 
     /******************************************************************
@@ -1378,125 +1760,94 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
      */ 
     private void addErrorsDirect(List<ErrRec> errors) {
 
-        if (errors == null || errors.isEmpty()) return;
-        errors.sort(Comparator.comparingInt((ErrRec e) -> e.line).thenComparingInt(e -> e.start));
-        final DefaultErrorSource targetSource = errsrc;
-        final View targetView = view;
-        final Buffer targetBuffer = targetView == null ? null : targetView.getBuffer();
-        ThreadUtilities.runInDispatchThread(() -> {
-            for (ErrRec e : errors) {
-                int line = Math.max(0, e.line);
-                int start = Math.max(0, e.start);
-                int end = Math.max(start + 1, e.end);
-                if (targetBuffer != null) {
-                    int maxLine = Math.max(0, targetBuffer.getLineCount() - 1);
-                    line = Math.min(line, maxLine);
-                    int lineLength = targetBuffer.getLineLength(line);
-                    start = Math.min(start, lineLength);
-                    end = Math.min(Math.max(start + 1, end), lineLength);
-                }
-                targetSource.addError(e.type, e.file, line, start, end, appendSnippet(e.msg, e.file, line));
-            }
-            if (targetView != null) targetView.getDockableWindowManager().showDockableWindow("error-list");
-        });
+        addErrorsDirect(errors, null);
+    }
+
+    /******************************************************************
+     * @param checked the text the errors were found in, may be null
+     */
+    private void addErrorsDirect(List<ErrRec> errors, BufferSnapshot checked) {
+
+        publishErrors(errors, errsrc, view, checked, null, false, true);
     }
 
     /******************************************************************
      */
     private void addErrors(List<ErrRec> errors, DefaultErrorSource targetSource, View targetView) {
 
-        if (errors == null || errors.isEmpty()) return;
-        List<ErrRec> sortedErrors = new ArrayList<>(errors);
-        sortedErrors.sort(Comparator
-            .comparingInt((ErrRec error) -> error.line)
-            .thenComparingInt(error -> error.start));
-        final Buffer targetBuffer = targetView == null ? null : targetView.getBuffer();
+        publishErrors(errors, targetSource, targetView, null, null, true, true);
+    }
+
+    /******************************************************************
+     * Publish a batch of diagnostics. Positions are clamped and snippets
+     * resolved in the calling thread, from one snapshot per file: the
+     * view's buffer text if it shows the file, otherwise the file read
+     * once. The finished batch is then added to the error source in a
+     * single EDT task, with the source unregistered meanwhile so that
+     * ErrorList refreshes once instead of once per error.
+     * @param targetView view whose buffer supplies snippets, may be null
+     * @param checked snapshot to use for its file, may be null
+     * @param job if not null, the check the errors came from: they replace
+     *            the checked file's errors, and are dropped if a newer
+     *            check has superseded this one by the time they would be
+     *            added
+     * @param extendToToken widen a one-character range to the whole term
+     * @param showList show the error list in the view afterwards
+     */
+    private void publishErrors(List<ErrRec> errors, DefaultErrorSource targetSource, View targetView,
+                               BufferSnapshot checked, CheckScheduler.Job job, boolean extendToToken, boolean showList) {
+
+        if (errors == null || targetSource == null) return;
+        if (errors.isEmpty() && job == null) return;
+        List<ErrRec> sorted = new ArrayList<>(errors);
+        sorted.sort(Comparator.comparingInt((ErrRec e) -> e.line).thenComparingInt(e -> e.start));
+        Map<String, BufferSnapshot> snapshots = new HashMap<>();
+        if (checked != null && checked.path != null) snapshots.put(checked.path, checked);
+        List<ErrRec> resolved = new ArrayList<>(sorted.size());
+        for (ErrRec e : sorted) {
+            BufferSnapshot snap = (e.file == null) ? null
+                    : snapshots.computeIfAbsent(e.file, f -> snapshotOf(f, targetView));
+            int line = Math.max(0, e.line);
+            int start = Math.max(0, e.start);
+            int end = Math.max(start + 1, e.end);
+            if (snap != null) {
+                line = Math.min(line, snap.lineCount() - 1);
+                int lineLength = snap.lineLength(line);
+                start = Math.min(start, lineLength);
+                if (extendToToken && end <= start + 1 && lineLength > 0) end = snap.tokenEnd(line, start);
+                end = lineLength == 0 ? 0 : Math.min(Math.max(start + 1, end), lineLength);
+            }
+            resolved.add(new ErrRec(e.type, e.file, line, start, end, withSpellingHint(withSnippet(e.msg, snippetFrom(snap, line)))));
+        }
         ThreadUtilities.runInDispatchThread(() -> {
-            for (ErrRec error : sortedErrors) {
-                int line = Math.max(0, error.line);
-                int start = Math.max(0, error.start);
-                int end = Math.max(start + 1, error.end);
-                if (targetBuffer != null && targetBuffer.getLineCount() > 0) {
-                    int lastLine = targetBuffer.getLineCount() - 1;
-                    line = Math.min(line, lastLine);
-                    int lineLength = targetBuffer.getLineLength(line);
-                    start = Math.min(start, lineLength);
-                    if (end <= start + 1 && lineLength > 0) end = tokenEnd(targetBuffer, line, start);
-                    else end = Math.min(end, lineLength);
-                    end = lineLength == 0 ? 0 : Math.min(Math.max(start + 1, end), lineLength);
-                }
-                targetSource.addError(error.type, error.file, line, start, end, appendSnippet(error.msg, error.file, line));
+            if (job != null && !job.isCurrent()) return;
+            errorlist.ErrorSource.unregisterErrorSource(targetSource);
+            try {
+                if (job != null && checked != null && checked.path != null) targetSource.removeFileErrors(checked.path);
+                for (ErrRec e : resolved)
+                    targetSource.addError(e.type, e.file, e.line, e.start, e.end, e.msg);
             }
-            if (targetView != null) targetView.getDockableWindowManager().showDockableWindow("error-list");
+            finally {
+                errorlist.ErrorSource.registerErrorSource(targetSource);
+            }
+            if (showList && targetView != null && !resolved.isEmpty()) targetView.getDockableWindowManager().showDockableWindow("error-list");
         });
     }
 
     /******************************************************************
+     * @return the text of the view's buffer if it shows the given file,
+     *         else the file's contents, or null if neither is available
      */
-    private static int tokenEnd(Buffer buffer, int line, int start) {
-        
-        int length = buffer.getLineLength(line);
-        String text = buffer.getLineText(line);
-        int end = Math.min(start + 1, length);
-        while (end < length) {
-            char c = text.charAt(end);
-            if (!(Character.isLetterOrDigit(c) || c == '_' || c == '-')) break;
-            end++;
-        }
-        return end;
-    }
-
-    /******************************************************************
-     * Find all occurrences of a term in the buffer and report errors for each
-     */
-        private void reportAllOccurrencesInBuffer(final String filePath, String term, String errorMessage, String[] bufferLines, int errorType) {
-            
-            final int n = bufferLines.length;
-            final int chunk = Math.max(50, n / Math.max(2, Runtime.getRuntime().availableProcessors() - 1));
-            final java.util.List<java.util.concurrent.Callable<java.util.List<ErrRec>>> tasks = new java.util.ArrayList<>();
-            for (int start = 0; start < n; start += chunk) {
-                final int s = start;
-                final int e = Math.min(n, start + chunk);
-                tasks.add(() -> {
-                    java.util.List<ErrRec> local = new java.util.ArrayList<>();
-                    for (int lineNum = s; lineNum < e; lineNum++) {
-                        final String line = bufferLines[lineNum];
-                        int searchStart = 0;
-                        while (searchStart < line.length()) {
-                            int pos = findTermInLine(line, term, searchStart);
-                            if (pos == -1) break;
-                            local.add(new ErrRec(
-                                errorType, filePath, lineNum, pos, pos + term.length(), errorMessage
-                            ));
-                            searchStart = pos + term.length();
-                        }
-                    }
-                    return local;
-                });
-            }
-            try {
-                java.util.List<java.util.concurrent.Future<java.util.List<ErrRec>>> futures = CHECKER_POOL.invokeAll(tasks);
-                java.util.List<ErrRec> merged = new java.util.ArrayList<>();
-                for (java.util.concurrent.Future<java.util.List<ErrRec>> f : futures) merged.addAll(f.get());
-                addErrorsBatch(merged);
-            } 
-            catch (InterruptedException | ExecutionException ex) {
-                java.util.List<ErrRec> fallback = new java.util.ArrayList<>();
-                for (int lineNum = 0; lineNum < bufferLines.length; lineNum++) {
-                    final String line = bufferLines[lineNum];
-                    int searchStart = 0;
-                    while (searchStart < line.length()) {
-                        int pos = findTermInLine(line, term, searchStart);
-                        if (pos == -1) break;
-                        fallback.add(new ErrRec(
-                            errorType, filePath, lineNum, pos, pos + term.length(), errorMessage
-                        ));
-                        searchStart = pos + term.length();
-                    }
-                }
-                addErrorsBatch(fallback);
-            }
+    private static BufferSnapshot snapshotOf(String filePath, View targetView) {
+
+        try {
+            Buffer buffer = (targetView == null) ? null : targetView.getBuffer();
+            if (buffer != null && filePath.equals(buffer.getPath()))
+                return BufferSnapshot.of(filePath, buffer.getText(0, buffer.getLength()));
         }
+        catch (Throwable ignore) {}
+        return BufferSnapshot.ofFile(filePath);
+    }
 
     /******************************************************************
      * Find a term in a line with word boundary checking
@@ -1521,79 +1872,26 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
     }
 
     /******************************************************************
-     * Find where a formula appears in the buffer
+     * Find the line where a formula's first non-blank line appears in a
+     * snapshot, falling back to its first 20 characters. A top-level
+     * formula is found in the snapshot's formula index; other text, such
+     * as a sub-formula quoted in a message, by searching the text once.
      */
-    private int findFormulaInBuffer(String formulaStr, String[] bufferLines) {
-        
-        String[] formulaLines = formulaStr.split("\n");
+    private int findFormulaInBuffer(String formulaStr, BufferSnapshot snap) {
+
+        if (formulaStr == null || snap == null) return -1;
         String firstLine = "";
-        for (String line : formulaLines) {
+        for (String line : formulaStr.split("\n")) {
             if (!line.trim().isEmpty()) {
                 firstLine = line.trim();
                 break;
             }
         }
         if (firstLine.isEmpty()) return -1;
-        for (int i = 0; i < bufferLines.length; i++) {
-            if (bufferLines[i].contains(firstLine)) {
-                return i;
-            }
-        }
-        if (firstLine.length() > 20) {
-            String shortMatch = firstLine.substring(0, 20);
-            for (int i = 0; i < bufferLines.length; i++) {
-                if (bufferLines[i].contains(shortMatch)) {
-                    return i;
-                }
-            }
-        }
-        return -1;
-    }
-
-    /******************************************************************
-     * If an error message contains a formula "(...)", try to locate that formula in the buffer
-     * and return the correct 0-based line number. Returns -1 if not resolvable.
-     */
-    private int resolveLineFromMessage(org.gjt.sp.jedit.Buffer buf, String msg) {
-        
-        if (buf == null || msg == null) return -1;
-        int lc = buf.getLineCount();
-        String[] bufferLines = new String[lc];
-        for (int i = 0; i < lc; i++) bufferLines[i] = buf.getLineText(i);
-        String candidate = extractInFormulaAtom(msg);
-        if (candidate != null && !candidate.isEmpty()) {
-            int hit = findFormulaInBuffer(candidate, bufferLines);
-            if (hit >= 0) return hit;
-        }
-        int dash = msg.indexOf(" — ");
-        if (dash >= 0 && dash + 3 < msg.length()) {
-            String rhs = msg.substring(dash + 3).trim();
-            if (rhs.startsWith("(")) candidate = rhs;
-        } 
-        else {
-            candidate = null;
-        }
-        if (candidate == null) {
-            int paren = msg.indexOf('(');
-            if (paren >= 0) candidate = msg.substring(paren).trim();
-        }
-        if (candidate == null || candidate.isEmpty()) return -1;
-        return findFormulaInBuffer(candidate, bufferLines);
-    }
-
-    /******************************************************************
-     */
-    private static String extractInFormulaAtom(String msg) {
-        if (msg == null) return "";
-        int k = msg.indexOf("in formula:");
-        if (k < 0) return "";
-        String tail = msg.substring(k + "in formula:".length()).trim();
-        int p = tail.indexOf('(');
-        if (p < 0) return "";
-        tail = tail.substring(p).trim();
-        int close = tail.indexOf(')');
-        if (close > 0) return tail.substring(0, close + 1).trim();
-        return tail; 
+        int hit = snap.formulaLine(firstLine);
+        if (hit < 0) hit = snap.firstLineContaining(firstLine);
+        if (hit >= 0 || firstLine.length() <= 20) return hit;
+        return snap.firstLineContaining(firstLine.substring(0, 20));
     }
 
     /******************************************************************
@@ -1612,6 +1910,7 @@ public class SUMOjEdit implements EBComponent, SUMOjEditActions {
     @Override
     public void toTPTP() {
 
+        if (!stageReady("toTPTP")) return;
         clearWarnAndErr();
         Log.log(Log.MESSAGE, this, ":toTPTP(): starting");
         if (StringUtil.emptyString(kif.filename)) kif.filename = view.getBuffer().getPath();
@@ -20,20 +20,27 @@ package com.articulate.sigma.jedit;
  * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
  */
 
-/** Defines the actions to take in this plugin */
+/**
+ * Defines the actions to take in this plugin. Actions that need part of
+ * the KB declare the initialization stage they depend on with
+ * {@link RequiresStage}; the rest are available right away.
+ */
 interface SUMOjEditActions {
 
     /**
      * ***************************************************************
      * Show statistics for a given buffer
      */
+    @RequiresStage(KBStage.FORMULA_INDEXES)
     void showStats();
 
     /**
      * ***************************************************************
      * Check for a variety of syntactic and semantic errors and warnings in a
-     * given buffer
+     * given buffer. The stage applies to SUO-KIF buffers; TPTP buffers
+     * need no KB and are checked at any stage.
      */
+    @RequiresStage(KBStage.TFA)
     void checkErrors();
 
     /**
@@ -49,6 +56,7 @@ interface SUMOjEditActions {
      * nothing other than print an WARN to the console. If definition is in
      * another file, load that file.
      */
+    @RequiresStage(KBStage.FORMULA_INDEXES)
     void gotoDefn();
 
     /**
@@ -56,6 +64,7 @@ interface SUMOjEditActions {
      * Open up a browser on the public Sigma for the highlighted term. If it's
      * not a term, or not in the KB, don't open
      */
+    @RequiresStage(KBStage.TERMS)
     void browseTerm();
 
     /**
@@ -63,6 +72,7 @@ interface SUMOjEditActions {
      * Send a highlighted expression as a query to a theorem prover. return
      * results in a new tab
      */
+    @RequiresStage(KBStage.TFA)
     void queryExp();
 
     /**
@@ -100,6 +110,7 @@ interface SUMOjEditActions {
      * Convert a buffer or selection from SUO-KIF to TPTP. Note that this does
      * not do full pre-processing, just a syntax translation
      */
+    @RequiresStage(KBStage.PREPROCESSOR)
     void toTPTP();
 
     /**
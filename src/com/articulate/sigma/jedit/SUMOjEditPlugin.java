@@ -25,7 +25,9 @@ import org.gjt.sp.jedit.EditBus;
 import org.gjt.sp.jedit.EditPlugin;
 import org.gjt.sp.jedit.jEdit;
 
+import com.articulate.sigma.jedit.fastac.CompletionScheduler;
 import com.articulate.sigma.jedit.fastac.FastACBootstrap;
+import com.articulate.sigma.jedit.fastac.KifTermIndex;
 
 /**
  * The SUMOjEdit plugin launcher.
@@ -63,12 +65,22 @@ public class SUMOjEditPlugin extends EditPlugin {
             jEdit.setProperty(PROP_AC_MODE, "both");
         }
 
+        // Keep the .kif term index across sessions in the plugin home, and
+        // publish the last session's terms in the background, so the
+        // completion popup offers them before the first crawl.
+        java.io.File home = getPluginHome();
+        if (home != null) {
+            KifTermIndex.get().setCacheFile(new java.io.File(home, KifTermIndex.CACHE_FILE_NAME));
+            KifTermIndex.get().loadCache();
+        }
+
         // Start the main SUMOjEdit component and allow KBs to load asynchronously.
         sje = new SUMOjEdit();
 
-        // Allow jEdit to start while the KBs are loading
-        ((SUMOjEdit)sje).init();
+        // Register first so the EditorStarted / ViewUpdate.CREATED messages
+        // reach the component, then load the KBs while jEdit starts up
         EditBus.addToBus(sje);
+        ((SUMOjEdit)sje).init();
 
         // Read the autocomplete mode and normalize to lower case.
         String mode = jEdit.getProperty(PROP_AC_MODE, "both").toLowerCase();
@@ -95,6 +107,18 @@ public class SUMOjEditPlugin extends EditPlugin {
             EditBus.removeFromBus(sjech);
             sjech = null;
         }
+
+        // Stop tracking buffer tokens for completion.
+        BufferTokens.disposeAll();
+
+        // Stop cancelling error checks on edits.
+        CancelOnEdit.disposeAll();
+
+        // Stop watching .kif files for the term index.
+        KifTermIndex.get().shutdown();
+
+        // Stop the lookup pool shared by the popup suggestors.
+        CompletionScheduler.shutdownShared();
     }
 
     /** JavaBean accessor for the plugin component. */
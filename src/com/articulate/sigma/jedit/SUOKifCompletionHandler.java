@@ -2,6 +2,11 @@
 package com.articulate.sigma.jedit;
 
 import com.articulate.sigma.Formula;
+import com.articulate.sigma.jedit.fastac.CaretContext;
+import com.articulate.sigma.jedit.fastac.CompletionEngine;
+import com.articulate.sigma.jedit.fastac.CompletionRanker;
+import com.articulate.sigma.jedit.fastac.LatencyMeter;
+import com.articulate.sigma.jedit.fastac.LineTokens;
 
 import org.gjt.sp.jedit.*;
 import org.gjt.sp.jedit.msg.BufferUpdate;
@@ -24,7 +29,12 @@ import java.util.stream.Collectors;
  *
  * - Renders faint gray "ghost" suffix after caret.
  * - Accept with CONTROL ONLY; cancel with ESC (only when ghost mode is enabled).
- * - Candidates: current buffer tokens + SUO-KIF operator groups from Formula.
+ * - Candidates: the shared KB vocabulary (CompletionEngine) + current buffer
+ *   tokens (BufferTokens, kept current from edits) + SUO-KIF operator groups
+ *   from Formula, best ranked by CompletionRanker. Every source is a sorted
+ *   index, so a lookup is a binary search plus a bounded walk.
+ * - Latency: lookup time and key-release-to-ghost-paint time are sampled
+ *   by LatencyMeter (LOOKUP_LATENCY, PAINT_LATENCY); nothing is printed.
  *
  * NOTE (2025-08): Ghost-AC obeys sumojedit.ac.mode from SUMOjEdit.props:
  *   OFF           -> disabled
@@ -37,7 +47,13 @@ import java.util.stream.Collectors;
 public final class SUOKifCompletionHandler implements EBComponent {
 
     // static flag removed; ghost mode is controlled by sumojedit.ac.mode
-    private static final int     MAX_SCAN_CHARS  = 250_000;
+    /** delay before recomputing after a key; 0 only coalesces keys already queued */
+    private static final int     RECOMPUTE_DELAY_MS = 0;
+
+    /** time to find the ghost completion */
+    static final LatencyMeter LOOKUP_LATENCY = new LatencyMeter("GhostLookup");
+    /** time from a key release to the ghost it recomputed being painted */
+    static final LatencyMeter PAINT_LATENCY  = new LatencyMeter("GhostKeyToPaint");
 
     private static final Map<String, List<String>> SUO_KIF_KEYWORD_GROUPS = new LinkedHashMap<>();
     static {
@@ -191,7 +207,7 @@ public final class SUOKifCompletionHandler implements EBComponent {
         InlineRecomputeListener(View view, GhostOverlay overlay) {
             this.view = view;
             this.overlay = overlay;
-            this.timer = new javax.swing.Timer(100, e -> {
+            this.timer = new javax.swing.Timer(RECOMPUTE_DELAY_MS, e -> {
                 overlay.recompute();
                 overlay.repaintNow();
             });
@@ -239,6 +255,7 @@ public final class SUOKifCompletionHandler implements EBComponent {
                 case KeyEvent.VK_PAGE_DOWN:
                     return;
                 default:
+                    overlay.keyReleased();
                     timer.restart();
             }
         }
@@ -305,30 +322,29 @@ public final class SUOKifCompletionHandler implements EBComponent {
     // ===== overlay painter =====
     private static final class GhostOverlay extends TextAreaExtension {
         private final JEditTextArea ta;
-        private final Set<String> candidates = new LinkedHashSet<>();
-        private boolean indexBuilt;
+        /** keywords on top of the shared KB vocabulary; buffer tokens come from {@link BufferTokens} */
+        private final CompletionEngine.Layer candidates = new CompletionEngine.Layer();
         private String ghost = "";
+        /** the full term the ghost completes to */
+        private String ghostTerm;
         private int anchorCaret = -1;
+        /** System.nanoTime() of the first key not yet answered by a recompute, 0 if none */
+        private long keyNanos;
+        /** keyNanos of the recompute whose ghost has not been painted yet, 0 if none */
+        private long ghostKeyNanos;
 
-        GhostOverlay(JEditTextArea ta) { this.ta = ta; }
+        GhostOverlay(JEditTextArea ta) {
+            this.ta = ta;
+            SUO_KIF_KEYWORD_GROUPS.values().forEach(candidates::addAll);
+        }
 
         boolean hasGhost() { return ghost != null && !ghost.isEmpty(); }
 
-        void clear() { ghost = ""; anchorCaret = -1; }
+        void clear() { ghost = ""; ghostTerm = null; anchorCaret = -1; }
 
         void repaintNow() { ta.getPainter().repaint(); }
 
-        private void buildIndex() {
-            if (indexBuilt) return;
-            candidates.clear();
-            collectBufferTokens(ta.getBuffer(), candidates, MAX_SCAN_CHARS);
-            SUO_KIF_KEYWORD_GROUPS.values().forEach(candidates::addAll);
-            indexBuilt = true;
-        }
-
-        void invalidateIndex() {
-            indexBuilt = false;
-        }
+        void keyReleased() { if (keyNanos == 0) keyNanos = System.nanoTime(); }
 
         boolean acceptIfAvailable() {
 
@@ -343,6 +359,7 @@ public final class SUOKifCompletionHandler implements EBComponent {
                 buffer.endCompoundEdit();
             }
             ta.setCaretPosition(caret + ghost.length());
+            CompletionRanker.accepted(ghostTerm);
             clear();
             repaintNow(); // Immediately update display after accepting
             return true;
@@ -350,27 +367,38 @@ public final class SUOKifCompletionHandler implements EBComponent {
 
         void recompute() {
 
+            final long start = System.nanoTime();
+            try {
+                lookup();
+            }
+            finally {
+                LOOKUP_LATENCY.recordSince(start);
+            }
+            // only a key answered by a ghost has a paint to time
+            ghostKeyNanos = hasGhost() ? keyNanos : 0;
+            keyNanos = 0;
+        }
+
+        private void lookup() {
+
             if (!ghostACEnabled()) { clear(); return; }
-            buildIndex();
             final JEditBuffer buf = ta.getBuffer();
             if (buf == null) { clear(); return; }
             final int caret = ta.getCaretPosition();
-            final String prefix = getCurrentPrefix(ta);
+            final CaretContext ctx = CaretContext.at(buf, caret);
+            final String prefix = ctx.prefix;
             if (prefix.isEmpty()) { clear(); return; }
-            buildIndex();
-            String best = null; int bestExtra = Integer.MAX_VALUE;
-            for (String cand : candidates) {
-                if (cand == null || cand.length() <= prefix.length()) continue;
-                if (cand.regionMatches(true, 0, prefix, 0, prefix.length())) {
-                    int extra = cand.length() - prefix.length();
-                    if (extra < bestExtra || (extra == bestExtra && (best == null || cand.compareTo(best) < 0))) {
-                        best = cand; bestExtra = extra;
-                        if (bestExtra == 1) break;
-                    }
-                }
-            }
+            final LineTokens tokens = BufferTokens.of(buf);
+            // the whole prefix range is streamed through the ranker, which keeps only the best
+            CompletionRanker.Selector ranked = CompletionRanker.shared().selector(prefix, 1, ctx.slot(), tokens::count);
+            offerLonger(ranked, prefix, CompletionEngine.shared().withPrefix(prefix, false));
+            offerLonger(ranked, prefix, candidates.complete(prefix, Integer.MAX_VALUE));
+            offerLonger(ranked, prefix, tokens.complete(prefix, Integer.MAX_VALUE, false));
+            List<String> top = ranked.result();
+            String best = top.isEmpty() ? null : top.get(0);
             if (best != null) {
                 ghost = best.substring(prefix.length());
+                ghostTerm = best;
                 anchorCaret = caret;
             } 
             else {
@@ -378,23 +406,12 @@ public final class SUOKifCompletionHandler implements EBComponent {
             }
         }
 
-        private static void collectBufferTokens(JEditBuffer buf, Set<String> out, int maxChars) {
-            try {
-                int len = Math.min(buf.getLength(), Math.max(64_000, maxChars));
-                if (len <= 0) return;
-                String text = buf.getText(0, len);
-                int n = text.length();
-                StringBuilder sb = new StringBuilder();
-                for (int i = 0; i < n; i++) {
-                    char c = text.charAt(i);
-                    if (Character.isLetterOrDigit(c) || c == '_' || c == '-') {
-                        sb.append(c);
-                    } else {
-                        if (sb.length() > 0) { out.add(sb.toString()); sb.setLength(0); }
-                    }
-                }
-                if (sb.length() > 0) out.add(sb.toString());
-            } catch (Throwable ignore) {}
+        /** Offer the candidates that are longer than prefix. */
+        private void offerLonger(CompletionRanker.Selector ranked, String prefix, Iterable<String> cands) {
+
+            for (String cand : cands) {
+                if (cand.length() > prefix.length()) ranked.offer(cand);
+            }
         }
 
         @Override
@@ -426,24 +443,10 @@ public final class SUOKifCompletionHandler implements EBComponent {
             
             g.drawString(displayText, p.x, baseline);
             g.setColor(old);
+            if (ghostKeyNanos != 0) {
+                PAINT_LATENCY.recordSince(ghostKeyNanos);
+                ghostKeyNanos = 0;
+            }
         }
     }
-
-    // ===== prefix extraction =====
-    private static String getCurrentPrefix(JEditTextArea textArea) {
-        final JEditBuffer buf = textArea.getBuffer();
-        if (buf == null) return "";
-        int caret = textArea.getCaretPosition();
-        int start = caret;
-        while (start > 0) {
-            String ch = buf.getText(start - 1, 1);
-            if (ch == null || ch.isEmpty()) break;
-            char c = ch.charAt(0);
-            if (!(Character.isLetterOrDigit(c) || c == '_' || c == '-')) break;
-            start--;
-        }
-        int len = caret - start;
-        if (len <= 0) return "";
-        return buf.getText(start, len);
-    }
 }
\ No newline at end of file
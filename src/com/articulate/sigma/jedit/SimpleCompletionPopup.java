@@ -1,9 +1,13 @@
 package com.articulate.sigma.jedit;
 
+import com.articulate.sigma.jedit.fastac.CaretContext;
+import com.articulate.sigma.jedit.fastac.CompletionRanker;
+import com.articulate.sigma.jedit.fastac.LineTokens;
 import org.gjt.sp.util.ThreadUtilities;
 
 /******************************************************************
- * Minimal, reliable completion popup that reads tokens from the current buffer. 
+ * Minimal, reliable completion popup that offers tokens of the current
+ * buffer, as kept by {@link BufferTokens}.
  */
 public final class SimpleCompletionPopup {
 
@@ -17,20 +21,18 @@ public final class SimpleCompletionPopup {
             final int caret = ta.getCaretPosition();
             final java.awt.Point p = ta.offsetToXY(caret);
             if (p == null) return;
-            final String prefix = currentPrefix(ta);
+            final CaretContext ctx = CaretContext.at(ta.getBuffer(), caret);
+            final String prefix = ctx.prefix;
             if (prefix.isEmpty()) return;
-            final java.util.LinkedHashSet<String> cands = new java.util.LinkedHashSet<>();
-            collectTokens(ta.getBuffer(), cands, 128_000);
+            final LineTokens tokens = BufferTokens.of(ta.getBuffer());
             final java.util.ArrayList<String> list = new java.util.ArrayList<>();
-            final String preLower = prefix.toLowerCase();
-            for (String s : cands) {
-                if (s == null || s.length() <= prefix.length()) continue;
-                if (s.toLowerCase().startsWith(preLower)) list.add(s);
-                if (list.size() >= 200) break;
+            for (String s : tokens.complete(prefix, 201, false)) {
+                if (s.length() > prefix.length() && list.size() < 200) list.add(s);
             }
             if (list.isEmpty()) return;
-            java.util.Collections.sort(list, String.CASE_INSENSITIVE_ORDER);
-            final javax.swing.JList<String> jlist = new javax.swing.JList<>(list.toArray(new String[0]));
+            final java.util.List<String> ranked = CompletionRanker.shared().top(list, prefix, list.size(),
+                    ctx.slot(), tokens::count);
+            final javax.swing.JList<String> jlist = new javax.swing.JList<>(ranked.toArray(new String[0]));
             jlist.setVisibleRowCount(Math.min(12, list.size()));
             jlist.setSelectionMode(javax.swing.ListSelectionModel.SINGLE_SELECTION);
             jlist.setSelectedIndex(0);
@@ -106,6 +108,7 @@ public final class SimpleCompletionPopup {
                 buf.endCompoundEdit();
             }
             ta.setCaretPosition(caret + suffix.length());
+            CompletionRanker.accepted(chosen);
         } 
         catch (Throwable ignore) {}
     }
@@ -126,37 +129,6 @@ public final class SimpleCompletionPopup {
      */
     public static String currentPrefix(final org.gjt.sp.jedit.textarea.JEditTextArea ta) {
 
-        final org.gjt.sp.jedit.buffer.JEditBuffer buf = ta.getBuffer();
-        if (buf == null) return "";
-        int caret = ta.getCaretPosition();
-        int start = caret;
-        while (start > 0) {
-            String ch = buf.getText(start - 1, 1);
-            if (ch == null || ch.isEmpty()) break;
-            char c = ch.charAt(0);
-            if (!(Character.isLetterOrDigit(c) || c == '_' || c == '-')) break;
-            start--;
-        }
-        int len = caret - start;
-        return (len <= 0) ? "" : buf.getText(start, len);
-    }
-
-    /******************************************************************
-     */
-    public static void collectTokens(final org.gjt.sp.jedit.buffer.JEditBuffer buf, final java.util.Set<String> out, final int maxChars) {
-
-        try {
-            int len = Math.min(buf.getLength(), Math.max(64_000, maxChars));
-            if (len <= 0) return;
-            String text = buf.getText(0, len);
-            int n = text.length();
-            StringBuilder sb = new StringBuilder();
-            for (int i = 0; i < n; i++) {
-                char c = text.charAt(i);
-                if (Character.isLetterOrDigit(c) || c == '_' || c == '-') sb.append(c);
-                else if (sb.length() > 0) { out.add(sb.toString()); sb.setLength(0); }
-            }
-            if (sb.length() > 0) out.add(sb.toString());
-        } catch (Throwable ignore) {}
+        return CaretContext.prefix(ta.getBuffer(), ta.getCaretPosition());
     }
-}
\ No newline at end of file
+}
@@ -1,21 +1,32 @@
 package com.articulate.sigma.jedit;
 
+import com.articulate.sigma.jedit.fastac.CompletionEngine;
+
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * A lightweight prefix index (trie-like) with two layers:
- *  - kbLayer: stable symbols from the KB
- *  - bufLayer: volatile tokens from the current buffer
+ *  - kbLayer: stable symbols from the KB, normally the shared
+ *    {@link CompletionEngine} plus any tokens added with addKB
+ *  - bufLayer: volatile tokens from the current buffer that the KB
+ *    doesn't already have
  */
 class SuggestionIndex {
 
     private static final int MAX_BUCKET = 256; // light cap per prefix bucket
 
+    private CompletionEngine kb = CompletionEngine.build(null);
     private final Map<String, Set<String>> kbLayer = new HashMap<>();
     private final Map<String, Set<String>> bufLayer = new HashMap<>();
 
+    /** Read KB symbols from a shared engine instead of copying them. */
+    void useKB(CompletionEngine engine) {
+        if (engine != null) kb = engine;
+    }
+
     void add(String token) {
-        if (token == null || token.isBlank()) return;
+        if (token == null || token.isBlank() || kb.contains(token)) return;
         // Heuristic: add short prefixes to buckets for quick startsWith queries
         String lower = token.toLowerCase(Locale.ROOT);
         String key = lower.length() >= 2 ? lower.substring(0, 2) : lower;
@@ -30,6 +41,51 @@ class SuggestionIndex {
         kbLayer.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(token);
     }
 
+    /** KB symbols matching prefix by an inner CamelCase word or by initials, not from the start. */
+    List<String> subwords(String prefix, int limit) {
+        return kb.subwords(prefix, limit);
+    }
+
+    /** KB symbols within edit distance 2 of word, nearest first; the fallback when nothing starts with it. */
+    List<String> similar(String word, int limit) {
+        return kb.similar(word, limit);
+    }
+
+    /**
+     * Hand the first limit KB symbols and the first limit buffer tokens
+     * that start with prefix to out, without collecting them; the KB
+     * symbols come first, in sorted order. A token may be handed over
+     * more than once.
+     */
+    void forEachStartingWith(String prefix, boolean caseSensitive, int limit, Consumer<String> out) {
+        if (prefix == null || limit <= 0) return;
+        int n = 0;
+        for (String s : kb.withPrefix(prefix, caseSensitive)) {
+            if (n++ == limit) break;
+            out.accept(s);
+        }
+        String lower = prefix.toLowerCase(Locale.ROOT);
+        List<Set<String>> buckets = new ArrayList<>();
+        if (lower.length() >= 2) {
+            String key = lower.substring(0, 2);
+            buckets.add(kbLayer.getOrDefault(key, Collections.emptySet()));
+            buckets.add(bufLayer.getOrDefault(key, Collections.emptySet()));
+        }
+        else {
+            buckets.addAll(kbLayer.values());
+            buckets.addAll(bufLayer.values());
+        }
+        n = 0;
+        for (Set<String> bucket : buckets) {
+            for (String s : bucket) {
+                if (caseSensitive ? s.startsWith(prefix) : s.toLowerCase(Locale.ROOT).startsWith(lower)) {
+                    if (n++ == limit) return;
+                    out.accept(s);
+                }
+            }
+        }
+    }
+
     /** Clear only buffer-derived tokens. */
     void clearBufferLayer() { bufLayer.clear(); }
 
@@ -40,7 +96,8 @@ class SuggestionIndex {
         }
 
         String lower = prefix.toLowerCase(Locale.ROOT);
-        LinkedHashSet<String> results = new LinkedHashSet<>();
+        LinkedHashSet<String> results = new LinkedHashSet<>(kb.complete(prefix, limit, caseSensitive));
+        if (results.size() >= limit) return new ArrayList<>(results);
 
         // For prefixes of length >= 2 we can use the bucket key.
         if (lower.length() >= 2) {
@@ -0,0 +1,221 @@
+package com.articulate.sigma.jedit.fastac;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Which terms fit an argument of a relation, from the KB's domain and
+ * domainSubclass signatures.
+ *
+ * - argumentAt() (and {@link CaretContext}) find the relation and argument
+ *   number at an offset by parsing the enclosing S-expression.
+ * - complete() offers only the terms whose type fits that argument:
+ *   instances of the domain class (or of its subclasses) for domain, the
+ *   class and its subclasses for domainSubclass. Arguments typed Class,
+ *   SetOrClass and the like also take every class.
+ * - Each type's members are collected once into a {@link TermDictionary}
+ *   and kept, so a lookup costs a binary search in that type's members
+ *   however large the KB is.
+ *
+ * Arguments typed Entity, relations without a signature and types with no
+ * known members are not restricted; complete() returns null for them and
+ * the caller falls back to ordinary completion.
+ *
+ * Instances are immutable apart from the member cache, and replaced as a
+ * whole when the KB is reloaded.
+ */
+public final class ArgumentTypes {
+
+    /** The relation and argument number at an offset; argument 1 is the first after the relation. */
+    public static final class Argument {
+        public final String relation;
+        public final int index;
+
+        Argument(String relation, int index) {
+            this.relation = relation;
+            this.index = index;
+        }
+
+        @Override
+        public String toString() {
+            return relation + " arg " + index;
+        }
+    }
+
+    private static final String TOP = "Entity";
+    private static final String CLASS = "Class";
+
+    /** cached in place of a dictionary when a type is not restricted */
+    private static final TermDictionary ANY = TermDictionary.of(Collections.emptyList());
+
+    private static volatile ArgumentTypes shared = new ArgumentTypes(Map.of(), Map.of(), Map.of());
+
+    /** relation -> [range, type of arg 1, type of arg 2, ...]; domainSubclass types end in '+' */
+    private final Map<String, List<String>> signatures;
+    /** class -> terms declared instances of it */
+    private final Map<String, Set<String>> instances;
+    /** class -> its subclasses */
+    private final Map<String, Set<String>> subclasses;
+    /** "T" or "T+" -> the terms that fit it */
+    private final Map<String, TermDictionary> members = new ConcurrentHashMap<>();
+    private volatile TermDictionary allClasses;
+
+    private ArgumentTypes(Map<String, List<String>> signatures, Map<String, Set<String>> instances,
+                          Map<String, Set<String>> subclasses) {
+        this.signatures = signatures;
+        this.instances = instances;
+        this.subclasses = subclasses;
+    }
+
+    /**
+     * @param signatures relation -> [range, arg 1 type, arg 2 type, ...], as
+     *                   kept by the KB cache; domainSubclass types end in '+'
+     * @param instanceOf instance -> the classes it is an instance of
+     * @param subclassesOf class -> its subclasses, direct or all of them
+     */
+    public static ArgumentTypes of(Map<String, ? extends List<String>> signatures,
+                                   Map<String, ? extends Collection<String>> instanceOf,
+                                   Map<String, ? extends Collection<String>> subclassesOf) {
+        Map<String, List<String>> sigs = new HashMap<>();
+        if (signatures != null) {
+            for (Map.Entry<String, ? extends List<String>> e : signatures.entrySet()) {
+                if (e.getKey() != null && e.getValue() != null) sigs.put(e.getKey(), new ArrayList<>(e.getValue()));
+            }
+        }
+        Map<String, Set<String>> inst = new HashMap<>();
+        if (instanceOf != null) {
+            for (Map.Entry<String, ? extends Collection<String>> e : instanceOf.entrySet()) {
+                if (e.getKey() == null || e.getValue() == null) continue;
+                for (String c : e.getValue()) {
+                    if (c != null) inst.computeIfAbsent(c, k -> new HashSet<>()).add(e.getKey());
+                }
+            }
+        }
+        Map<String, Set<String>> subs = new HashMap<>();
+        if (subclassesOf != null) {
+            for (Map.Entry<String, ? extends Collection<String>> e : subclassesOf.entrySet()) {
+                if (e.getKey() == null || e.getValue() == null) continue;
+                Set<String> s = subs.computeIfAbsent(e.getKey(), k -> new HashSet<>());
+                for (String c : e.getValue()) {
+                    if (c != null && !c.equals(e.getKey())) s.add(c);
+                }
+            }
+        }
+        return new ArgumentTypes(sigs, inst, subs);
+    }
+
+    /** The signatures all completion UIs use. Never null. */
+    public static ArgumentTypes shared() {
+        return shared;
+    }
+
+    public static void install(ArgumentTypes types) {
+        if (types == null) return;
+        shared = types;
+        System.out.println("[ArgumentTypes] " + types.signatures.size() + " signatures, "
+                + types.instances.size() + " classes with instances");
+    }
+
+    public boolean isEmpty() {
+        return signatures.isEmpty();
+    }
+
+    /** The declared type of argument 'index' of relation, or null; domainSubclass types end in '+'. */
+    public String typeOf(String relation, int index) {
+        List<String> sig = (relation == null) ? null : signatures.get(relation);
+        if (sig == null || index < 1 || index >= sig.size()) return null;
+        String t = sig.get(index);
+        return (t == null || t.isEmpty()) ? null : t;
+    }
+
+    /**
+     * The terms that fit argument 'index' of relation, or null if the
+     * argument is not restricted.
+     */
+    public TermDictionary members(String relation, int index) {
+        String type = typeOf(relation, index);
+        if (type == null) return null;
+        TermDictionary d = members.computeIfAbsent(type, this::collect);
+        return (d == ANY) ? null : d;
+    }
+
+    /**
+     * Up to 'limit' terms that start with prefix and fit argument 'index'
+     * of relation, in dictionary order; null if the argument is not
+     * restricted.
+     */
+    public List<String> complete(String relation, int index, String prefix, int limit, boolean caseSensitive) {
+        TermDictionary d = members(relation, index);
+        if (d == null) return null;
+        List<String> out = new ArrayList<>(Math.min(limit, 64));
+        d.complete(prefix, limit, caseSensitive, out);
+        return out;
+    }
+
+    /**
+     * Every term that starts with prefix and fits argument 'index' of
+     * relation, decoded as it is iterated; null if the argument is not
+     * restricted.
+     */
+    public Iterable<String> withPrefix(String relation, int index, String prefix, boolean caseSensitive) {
+        TermDictionary d = members(relation, index);
+        return (d == null) ? null : d.withPrefix(prefix, caseSensitive);
+    }
+
+    private TermDictionary collect(String type) {
+        boolean subclass = type.endsWith("+");
+        String cls = subclass ? type.substring(0, type.length() - 1) : type;
+        if (cls.isEmpty() || (!subclass && cls.equals(TOP))) return ANY;
+        Set<String> below = below(cls);
+        if (subclass) return TermDictionary.of(below);
+        List<String> terms = new ArrayList<>();
+        for (String c : below) {
+            Set<String> in = instances.get(c);
+            if (in != null) terms.addAll(in);
+        }
+        // classes are instances of Class, but the KB states that through subclass, not instance
+        if (below.contains(CLASS)) terms.addAll(allClasses().toList());
+        return terms.isEmpty() ? ANY : TermDictionary.of(terms);
+    }
+
+    /** cls and all its subclasses. */
+    private Set<String> below(String cls) {
+        Set<String> seen = new HashSet<>();
+        Deque<String> todo = new ArrayDeque<>();
+        seen.add(cls);
+        todo.push(cls);
+        while (!todo.isEmpty()) {
+            Set<String> subs = subclasses.get(todo.pop());
+            if (subs == null) continue;
+            for (String s : subs) {
+                if (seen.add(s)) todo.push(s);
+            }
+        }
+        return seen;
+    }
+
+    private TermDictionary allClasses() {
+        TermDictionary d = allClasses;
+        if (d == null) {
+            Set<String> all = new HashSet<>(subclasses.keySet());
+            for (Set<String> s : subclasses.values()) all.addAll(s);
+            allClasses = d = TermDictionary.of(all);
+        }
+        return d;
+    }
+
+    /**
+     * The argument a term starting at 'offset' would be, parsing the
+     * S-expressions in text from its start. Returns null at the head of a
+     * list, outside any list, inside a string or comment, or when the
+     * head of the enclosing list is not a constant.
+     */
+    public static Argument argumentAt(CharSequence text, int offset) {
+        if (text == null) return null;
+        int[] list = CaretContext.enclosing(text, 0, Math.min(offset, text.length()));
+        if (list == null || list[2] == 0 || list[0] < 0) return null;
+        String head = text.subSequence(list[0], list[1]).toString();
+        if (head.startsWith("?") || head.startsWith("@")) return null;
+        return new Argument(head, list[2]);
+    }
+}
@@ -0,0 +1,207 @@
+package com.articulate.sigma.jedit.fastac;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+import org.gjt.sp.jedit.buffer.JEditBuffer;
+
+/**
+ * What surrounds the caret, for the completion and ghost-text engines:
+ * - the word being typed (letters, digits, '_' and '-') and where it starts
+ * - the head of the list the word is in, and which argument of it the word is
+ *
+ * The text is read through a {@link Segment}, which shares the buffer's own
+ * char array rather than copying it, and is walked in one pass; the prefix
+ * and head strings are the only other allocations. The enclosing formula is
+ * found by looking back, at most WINDOW chars, for a '(' in column 0, the
+ * way KIF files are laid out, and parsed forward from there so strings and
+ * comments are skipped correctly.
+ */
+public final class CaretContext {
+
+    /** how far back to look for the start of the enclosing formula */
+    static final int WINDOW = 16_384;
+
+    /** the word before the caret, "" if none */
+    public final String prefix;
+    /** document offset where the prefix starts */
+    public final int prefixStart;
+    /** head of the enclosing list, or null if there is none or it is not a constant */
+    public final String head;
+    /** 0 when the word is the head of its list, n for the n-th argument, -1 outside a list with a constant head */
+    public final int argument;
+
+    private CaretContext(String prefix, int prefixStart, String head, int argument) {
+        this.prefix = prefix;
+        this.prefixStart = prefixStart;
+        this.head = head;
+        this.argument = argument;
+    }
+
+    /** Where the word sits, for ranking. */
+    public CompletionRanker.Slot slot() {
+        if (argument == 0) return CompletionRanker.Slot.HEAD;
+        return (argument > 0) ? CompletionRanker.Slot.ARGUMENT : CompletionRanker.Slot.ANY;
+    }
+
+    public static boolean isWordChar(char c) {
+        return LineTokens.isTokenChar(c);
+    }
+
+    /** The context at caret in a jEdit buffer; an empty context if buffer is null. */
+    public static CaretContext at(JEditBuffer buffer, int caret) {
+        if (buffer == null) return new CaretContext("", caret, null, -1);
+        caret = Math.max(0, Math.min(caret, buffer.getLength()));
+        int start = Math.max(0, caret - WINDOW);
+        Segment seg = new Segment();
+        buffer.getText(start, caret - start, seg);
+        return read(seg, start, true);
+    }
+
+    /** The context at caret in a Swing document; an empty context if doc is null. */
+    public static CaretContext at(Document doc, int caret) {
+        if (doc == null) return new CaretContext("", caret, null, -1);
+        caret = Math.max(0, Math.min(caret, doc.getLength()));
+        int start = Math.max(0, caret - WINDOW);
+        Segment seg = new Segment();
+        try {
+            doc.getText(start, caret - start, seg);
+        }
+        catch (BadLocationException e) {
+            return new CaretContext("", caret, null, -1);
+        }
+        return read(seg, start, true);
+    }
+
+    /** The context at offset caret of text. */
+    public static CaretContext at(CharSequence text, int caret) {
+        if (text == null) return new CaretContext("", 0, null, -1);
+        caret = Math.max(0, Math.min(caret, text.length()));
+        return read(text.subSequence(0, caret), 0, true);
+    }
+
+    /** Just the word before the caret in a jEdit buffer, without parsing the formula. */
+    public static String prefix(JEditBuffer buffer, int caret) {
+        if (buffer == null) return "";
+        caret = Math.max(0, Math.min(caret, buffer.getLength()));
+        int start = Math.max(0, caret - WINDOW);
+        Segment seg = new Segment();
+        buffer.getText(start, caret - start, seg);
+        return read(seg, start, false).prefix;
+    }
+
+    /** Just the word before the caret in a Swing document, without parsing the formula. */
+    public static String prefix(Document doc, int caret) {
+        if (doc == null) return "";
+        caret = Math.max(0, Math.min(caret, doc.getLength()));
+        int start = Math.max(0, caret - WINDOW);
+        Segment seg = new Segment();
+        try {
+            doc.getText(start, caret - start, seg);
+        }
+        catch (BadLocationException e) {
+            return "";
+        }
+        return read(seg, start, false).prefix;
+    }
+
+    /**
+     * @param text the document text from offset base up to the caret
+     * @param withList whether to find the enclosing list as well
+     */
+    private static CaretContext read(CharSequence text, int base, boolean withList) {
+        int end = text.length();
+        int ws = end;
+        while (ws > 0 && isWordChar(text.charAt(ws - 1))) ws--;
+        String prefix = text.subSequence(ws, end).toString();
+        if (!withList) return new CaretContext(prefix, base + ws, null, -1);
+        int from = formulaStart(text, ws, base == 0);
+        int[] list = (from < 0) ? null : enclosing(text, from, ws);
+        if (list == null) return new CaretContext(prefix, base + ws, null, -1);
+        if (list[2] == 0) return new CaretContext(prefix, base + ws, null, 0);
+        if (list[0] < 0) return new CaretContext(prefix, base + ws, null, -1);
+        String head = text.subSequence(list[0], list[1]).toString();
+        if (head.startsWith("?") || head.startsWith("@")) return new CaretContext(prefix, base + ws, null, -1);
+        return new CaretContext(prefix, base + ws, head, list[2]);
+    }
+
+    /**
+     * Offset of the last '(' in column 0 before 'to'; 0 if there is none
+     * and text starts the document, -1 otherwise.
+     */
+    private static int formulaStart(CharSequence text, int to, boolean atDocumentStart) {
+        for (int i = to - 1; i > 0; i--) {
+            if (text.charAt(i) == '(' && text.charAt(i - 1) == '\n') return i;
+        }
+        return atDocumentStart ? 0 : -1;
+    }
+
+    /**
+     * Parse text[from, to) and describe the innermost list still open at
+     * 'to', for a term starting there.
+     * @return {head start, head end, elements so far}, with head start -1
+     *         if the head is not a token; null outside any list, inside a
+     *         string or comment, or in the middle of a token
+     */
+    static int[] enclosing(CharSequence text, int from, int to) {
+        Deque<int[]> frames = new ArrayDeque<>();   // {head start, head end, elements so far}
+        int tokenStart = -1;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (tokenStart >= 0 && (Character.isWhitespace(c) || c == '(' || c == ')' || c == '"' || c == ';')) {
+                endToken(frames, tokenStart, i);
+                tokenStart = -1;
+            }
+            if (c == '"') {
+                startElement(frames);
+                int close = closingQuote(text, i + 1, to);
+                if (close < 0) return null;
+                i = close;
+            }
+            else if (c == ';') {
+                while (i < to && text.charAt(i) != '\n') i++;
+                if (i >= to) return null;
+            }
+            else if (c == '(') {
+                startElement(frames);
+                frames.push(new int[] {-1, -1, 0});
+            }
+            else if (c == ')') {
+                if (!frames.isEmpty()) frames.pop();
+            }
+            else if (!Character.isWhitespace(c) && tokenStart < 0) {
+                startElement(frames);
+                tokenStart = i;
+            }
+        }
+        if (tokenStart >= 0 || frames.isEmpty()) return null;
+        return frames.peek();
+    }
+
+    private static void startElement(Deque<int[]> frames) {
+        if (!frames.isEmpty()) frames.peek()[2]++;
+    }
+
+    private static void endToken(Deque<int[]> frames, int start, int end) {
+        if (frames.isEmpty()) return;
+        int[] f = frames.peek();
+        if (f[2] == 1 && f[0] < 0) {
+            f[0] = start;
+            f[1] = end;
+        }
+    }
+
+    /** Index of the quote closing a string whose text starts at 'from', or -1. */
+    private static int closingQuote(CharSequence text, int from, int end) {
+        for (int i = from; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '\\') i++;
+            else if (c == '"') return i;
+        }
+        return -1;
+    }
+}
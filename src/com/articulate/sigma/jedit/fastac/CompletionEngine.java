@@ -0,0 +1,270 @@
+package com.articulate.sigma.jedit.fastac;
+
+import java.util.*;
+
+/**
+ * One process-wide, immutable completion vocabulary.
+ *
+ * - Built once from the KB terms (plus {@link SumoWords}) and shared by every
+ *   view and every completion UI: the dropdown, FastAC, SmartCompose and the
+ *   ghost overlay.
+ * - Terms are kept in a front-coded {@link TermDictionary} sorted
+ *   case-insensitively, so all terms with a given prefix form one contiguous
+ *   range found by binary search.
+ * - Per-buffer tokens go in a small {@link Layer} on top, holding only tokens
+ *   the engine doesn't already know.
+ * - A {@link FuzzyIndex} over the same terms answers typo-tolerant lookups,
+ *   and a {@link SubwordIndex} matches inner CamelCase words and initials;
+ *   both are built on first use.
+ *
+ * Replacing the vocabulary (e.g. when the KB is reloaded) installs a new
+ * engine; readers that already hold the old one are unaffected.
+ */
+public final class CompletionEngine {
+
+    /** case-insensitive first, then case-sensitive so equal-ignoring-case terms are distinct */
+    static final Comparator<String> ORDER =
+            String.CASE_INSENSITIVE_ORDER.thenComparing(Comparator.naturalOrder());
+
+    private static volatile CompletionEngine shared = build(SumoWords.all());
+
+    /** the collection and vocabulary version the shared engine was built from, to avoid rebuilding for the same KB */
+    private static Collection<String> sharedSource;
+    private static long sharedVersion = -1;
+
+    private final TermDictionary terms;
+    private volatile FuzzyIndex fuzzy;
+    private volatile SubwordIndex subwords;
+
+    private CompletionEngine(TermDictionary terms) {
+        this.terms = terms;
+    }
+
+    /** Build an engine from any words; null, empty and duplicate words are dropped. */
+    public static CompletionEngine build(Collection<String> words) {
+        return new CompletionEngine(TermDictionary.of(words));
+    }
+
+    /** The engine all completion UIs read from. Never null. */
+    public static CompletionEngine shared() {
+        return shared;
+    }
+
+    /** Make an engine the shared one and report its size. */
+    public static synchronized void install(CompletionEngine engine) {
+        if (engine == null) return;
+        shared = engine;
+        sharedSource = null;
+        sharedVersion = -1;
+        System.out.println("[CompletionEngine] " + engine);
+    }
+
+    /**
+     * Return the shared engine for a KB vocabulary, building and installing
+     * it only if the shared engine was not already built from the same
+     * collection at the same {@link KBVocabulary#version()}. A collection
+     * changed in place gets a new version, so it is rebuilt even when its
+     * size stayed the same. {@link SumoWords} are always included.
+     */
+    public static synchronized CompletionEngine forTerms(Collection<String> kbTerms, long version) {
+        if (kbTerms == null) return shared;
+        if (kbTerms == sharedSource && version == sharedVersion) return shared;
+        List<String> all = new ArrayList<>(kbTerms.size() + 64);
+        all.addAll(kbTerms);
+        all.addAll(SumoWords.all());
+        install(build(all));
+        sharedSource = kbTerms;
+        sharedVersion = version;
+        return shared;
+    }
+
+    public int size() {
+        return terms.size();
+    }
+
+    public boolean isEmpty() {
+        return terms.size() == 0;
+    }
+
+    public boolean contains(String term) {
+        return terms.indexOf(term) >= 0;
+    }
+
+    /** True if every non-empty word is a term of this engine. */
+    public boolean containsAll(Collection<String> words) {
+        if (words == null) return true;
+        for (String w : words) {
+            if (w != null && !w.isEmpty() && !contains(w)) return false;
+        }
+        return true;
+    }
+
+    /** Rough heap footprint of the encoded terms, in bytes. */
+    public long estimatedBytes() {
+        return terms.estimatedBytes();
+    }
+
+    /** Up to 'limit' terms starting with prefix (case-insensitive), in sorted order. */
+    public List<String> complete(String prefix, int limit) {
+        return complete(prefix, limit, false);
+    }
+
+    /** Up to 'limit' terms starting with prefix, in sorted order. */
+    public List<String> complete(String prefix, int limit, boolean caseSensitive) {
+        if (prefix == null || limit <= 0) return Collections.emptyList();
+        List<String> out = new ArrayList<>(Math.min(limit, 32));
+        terms.complete(prefix, limit, caseSensitive, out);
+        return out;
+    }
+
+    /**
+     * Every term starting with prefix, in sorted order, decoded as it is
+     * iterated; for ranking a whole range without collecting it.
+     */
+    public Iterable<String> withPrefix(String prefix, boolean caseSensitive) {
+        return terms.withPrefix(prefix, caseSensitive);
+    }
+
+    /** Number of terms starting with prefix (case-insensitive). */
+    public int countWithPrefix(String prefix) {
+        if (prefix == null) return 0;
+        return terms.rangeEnd(prefix) - terms.rangeStart(prefix);
+    }
+
+    /**
+     * The shortest term that is longer than prefix and starts with it
+     * (case-insensitive); ties go to the smaller term. Null if there is none.
+     */
+    public String shortestExtension(String prefix) {
+        return terms.shortestExtension(prefix);
+    }
+
+    /** The typo-tolerant index over this engine's terms, built on first use. */
+    public FuzzyIndex fuzzyIndex() {
+        FuzzyIndex f = fuzzy;
+        if (f == null) {
+            synchronized (this) {
+                f = fuzzy;
+                if (f == null) fuzzy = f = FuzzyIndex.of(terms);
+            }
+        }
+        return f;
+    }
+
+    /** Up to 'limit' terms within edit distance 2 of word, ignoring case, nearest first. */
+    public List<String> similar(String word, int limit) {
+        return fuzzyIndex().within(word, FuzzyIndex.MAX_DISTANCE, limit);
+    }
+
+    /** The index of inner words and initials of this engine's terms, built on first use. */
+    public SubwordIndex subwordIndex() {
+        SubwordIndex s = subwords;
+        if (s == null) {
+            synchronized (this) {
+                s = subwords;
+                if (s == null) subwords = s = SubwordIndex.of(terms);
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Up to 'limit' terms that do not start with query but match it by an
+     * inner word or by initials ("Assess", "SAA", "OrgProc").
+     */
+    public List<String> subwords(String query, int limit) {
+        return subwordIndex().complete(query, limit);
+    }
+
+    /** Every term, in sorted order; the list is read-only. */
+    public List<String> terms() {
+        return Collections.unmodifiableList(terms.toList());
+    }
+
+    /** Pick the better ghost completion of cand and best for prefix. */
+    static String shorter(String prefix, String cand, String best) {
+        if (cand == null || cand.length() <= prefix.length()) return best;
+        if (best == null || cand.length() < best.length()
+                || (cand.length() == best.length() && cand.compareTo(best) < 0)) return cand;
+        return best;
+    }
+
+    @Override
+    public String toString() {
+        return terms.size() + " terms, ~" + (terms.estimatedBytes() / 1024) + " KiB";
+    }
+
+    /**
+     * Per-buffer tokens overlaid on an engine. Only tokens the engine does
+     * not know are stored, so a layer over a KIF file stays small. Not
+     * thread-safe; each layer belongs to one text area.
+     */
+    public static final class Layer {
+
+        private final TreeSet<String> tokens = new TreeSet<>(ORDER);
+
+        /** Add a token unless it is empty or already a term of the shared engine. */
+        public void add(String token) {
+            if (token == null || token.isEmpty() || shared().contains(token)) return;
+            tokens.add(token);
+        }
+
+        public void addAll(Collection<String> words) {
+            if (words == null) return;
+            for (String w : words) add(w);
+        }
+
+        public void clear() {
+            tokens.clear();
+        }
+
+        public int size() {
+            return tokens.size();
+        }
+
+        /** Up to 'limit' tokens starting with prefix (case-insensitive), in sorted order. */
+        public List<String> complete(String prefix, int limit) {
+            if (prefix == null || limit <= 0) return Collections.emptyList();
+            List<String> out = new ArrayList<>();
+            for (String t : from(prefix)) {
+                if (!t.regionMatches(true, 0, prefix, 0, prefix.length()) || out.size() >= limit) break;
+                out.add(t);
+            }
+            return out;
+        }
+
+        /**
+         * Up to 'limit' terms of the shared engine, then up to 'limit'
+         * tokens of this layer, that start with prefix (case-insensitive).
+         */
+        public List<String> withShared(String prefix, int limit) {
+            List<String> out = new ArrayList<>(shared().complete(prefix, limit));
+            out.addAll(complete(prefix, limit));
+            return out;
+        }
+
+        /**
+         * Like {@link CompletionEngine#shortestExtension} over the shared
+         * engine and this layer together.
+         */
+        public String shortestExtension(String prefix) {
+            if (prefix == null || prefix.isEmpty()) return null;
+            String best = shared().shortestExtension(prefix);
+            for (String t : from(prefix)) {
+                if (!t.regionMatches(true, 0, prefix, 0, prefix.length())) break;
+                best = shorter(prefix, t, best);
+            }
+            return best;
+        }
+
+        /** The tokens from the first one equal to prefix ignoring case. */
+        private NavigableSet<String> from(String prefix) {
+            String start = prefix;
+            for (String t : tokens.headSet(prefix, false).descendingSet()) {
+                if (String.CASE_INSENSITIVE_ORDER.compare(t, prefix) != 0) break;
+                start = t;
+            }
+            return tokens.tailSet(start, true);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.articulate.sigma.jedit.fastac;
+
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * Orders completion candidates by relevance rather than alphabetically.
+ *
+ * A candidate's score adds up:
+ * - how often the term occurs as an argument in the KB's formulas (log scale)
+ * - whether its kind (relation, class, instance) fits the caret position:
+ *   relations right after '(', other terms in argument positions
+ * - how often it occurs in the current buffer (log scale)
+ * - how recently the user accepted it as a completion
+ * - whether it starts with the prefix at all, rather than matching it by an
+ *   inner word or initials
+ * - whether it matches the typed case exactly
+ *
+ * Equal scores go to the shorter term, then case-insensitive order, which is
+ * the "shortest first" order the UIs used before. The best K are kept
+ * in a bounded heap (a {@link Selector}), so callers stream candidates
+ * straight into it: the match set is never collected or sorted. A caller
+ * on the EDT pulls at most {@link #pool(int)} candidates from each source,
+ * so a keystroke costs the same for a one-letter prefix as for a long one.
+ *
+ * The KB statistics are immutable and replaced as a whole; recency is kept
+ * for the whole session and survives a KB reload.
+ */
+public final class CompletionRanker {
+
+    public enum Kind { RELATION, CLASS, INSTANCE, OTHER }
+
+    /** Where the term being completed sits in its S-expression. */
+    public enum Slot { HEAD, ARGUMENT, ANY }
+
+    private static final double W_FREQUENCY = 0.5;   // per doubling of KB occurrences
+    private static final double W_BUFFER    = 1.0;   // per doubling of buffer occurrences
+    private static final double W_KIND      = 2.0;   // kind fits the slot
+    private static final double W_RECENT    = 4.0;   // most recent acceptance; halves, thirds, ... after
+    private static final double W_PREFIX    = 3.0;   // candidate starts with the prefix, ignoring case
+    private static final double W_CASE      = 0.5;   // candidate starts with the prefix as typed
+
+    /** terms remembered as recently accepted */
+    private static final int RECENT_MAX = 256;
+    /** candidates pulled from a source per result shown, and the fewest pulled */
+    private static final int POOL_PER_RESULT = 8;
+    private static final int POOL_MIN = 64;
+
+    private static volatile CompletionRanker shared = new CompletionRanker(Map.of(), Map.of());
+
+    /** term -> acceptance tick, least recent first */
+    private static final LinkedHashMap<String, Long> recent = new LinkedHashMap<>(64, 0.75f, true);
+    private static long tick;
+
+    private final Map<String, Integer> frequency;
+    private final Map<String, Kind> kinds;
+
+    private CompletionRanker(Map<String, Integer> frequency, Map<String, Kind> kinds) {
+        this.frequency = frequency;
+        this.kinds = kinds;
+    }
+
+    /**
+     * @param frequency occurrences of each term in the KB's formulas
+     * @param kinds the kind of each term; terms not in the map are guessed
+     *              from SUMO naming conventions (lowerCamel and ...Fn are
+     *              relations, other UpperCamel terms classes)
+     */
+    public static CompletionRanker of(Map<String, Integer> frequency, Map<String, Kind> kinds) {
+        return new CompletionRanker(
+                frequency == null ? Map.of() : frequency,
+                kinds == null ? Map.of() : kinds);
+    }
+
+    /**
+     * How many candidates to pull from each source to fill k results. The
+     * ranking is then over the first candidates of a source, e.g. the first
+     * of a sorted prefix range, rather than over all of them.
+     */
+    public static int pool(int k) {
+        return Math.max(POOL_MIN, Math.max(0, k) * POOL_PER_RESULT);
+    }
+
+    /** The ranker all completion UIs use. Never null. */
+    public static CompletionRanker shared() {
+        return shared;
+    }
+
+    public static void install(CompletionRanker ranker) {
+        if (ranker == null) return;
+        shared = ranker;
+        System.out.println("[CompletionRanker] " + ranker.frequency.size() + " term frequencies, "
+                + ranker.kinds.size() + " term kinds");
+    }
+
+    /** Record that the user inserted a completion. */
+    public static void accepted(String term) {
+        if (term == null || term.isEmpty()) return;
+        synchronized (recent) {
+            recent.put(term, ++tick);
+            if (recent.size() > RECENT_MAX) {
+                Iterator<String> it = recent.keySet().iterator();
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    /** Forget all acceptances. */
+    public static void clearRecent() {
+        synchronized (recent) {
+            recent.clear();
+        }
+    }
+
+    /**
+     * The slot of a term starting at offset start: HEAD right after '(',
+     * ARGUMENT after anything else, ANY at the start of the text.
+     */
+    public static Slot slotAt(CharSequence text, int start) {
+        if (text == null) return Slot.ANY;
+        for (int i = Math.min(start, text.length()) - 1; i >= 0; i--) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) continue;
+            return (c == '(') ? Slot.HEAD : Slot.ARGUMENT;
+        }
+        return Slot.ANY;
+    }
+
+    public Kind kind(String term) {
+        Kind k = kinds.get(term);
+        if (k != null) return k;
+        if (term.isEmpty()) return Kind.OTHER;
+        char c = term.charAt(0);
+        if (Character.isLowerCase(c)) return Kind.RELATION;
+        if (Character.isUpperCase(c)) return term.endsWith("Fn") ? Kind.RELATION : Kind.CLASS;
+        return Kind.OTHER;
+    }
+
+    /**
+     * @param bufferCount occurrences of a term in the current buffer, may be null
+     */
+    public double score(String term, String prefix, Slot slot, ToIntFunction<String> bufferCount) {
+        synchronized (recent) {
+            return score(term, prefix, slot, bufferCount, recent, tick);
+        }
+    }
+
+    private double score(String term, String prefix, Slot slot, ToIntFunction<String> bufferCount,
+                         Map<String, Long> accepted, long now) {
+        double s = 0;
+        Integer f = frequency.get(term);
+        if (f != null && f > 0) s += W_FREQUENCY * log2(1 + f);
+        if (bufferCount != null) {
+            int b = bufferCount.applyAsInt(term);
+            if (b > 0) s += W_BUFFER * log2(1 + b);
+        }
+        if (slot != Slot.ANY) {
+            Kind k = kind(term);
+            if (slot == Slot.HEAD ? k == Kind.RELATION : (k != Kind.RELATION && k != Kind.OTHER)) s += W_KIND;
+        }
+        Long when = accepted.get(term);
+        if (when != null) s += W_RECENT / (1 + now - when);
+        if (prefix != null && term.regionMatches(true, 0, prefix, 0, prefix.length())) s += W_PREFIX;
+        if (prefix != null && term.startsWith(prefix)) s += W_CASE;
+        return s;
+    }
+
+    /**
+     * The best k candidates, best first.
+     * @param bufferCount occurrences of a term in the current buffer, may be null
+     */
+    public List<String> top(Iterable<String> candidates, String prefix, int k,
+                            Slot slot, ToIntFunction<String> bufferCount) {
+        if (candidates == null || k <= 0) return Collections.emptyList();
+        Selector best = selector(prefix, k, slot, bufferCount);
+        best.offerAll(candidates);
+        return best.result();
+    }
+
+    /**
+     * A selector for the best k of the candidates offered to it, for
+     * callers that feed it from several sources.
+     * @param bufferCount occurrences of a term in the current buffer, may be null
+     */
+    public Selector selector(String prefix, int k, Slot slot, ToIntFunction<String> bufferCount) {
+        Map<String, Long> accepted;
+        long now;
+        synchronized (recent) {
+            accepted = recent.isEmpty() ? Map.of() : new HashMap<>(recent);
+            now = tick;
+        }
+        return new Selector(prefix, Math.max(0, k), slot, bufferCount, accepted, now);
+    }
+
+    /** The best candidate, or null if there is none. */
+    public String best(Iterable<String> candidates, String prefix, Slot slot, ToIntFunction<String> bufferCount) {
+        List<String> top = top(candidates, prefix, 1, slot, bufferCount);
+        return top.isEmpty() ? null : top.get(0);
+    }
+
+    private static double log2(double x) {
+        return Math.log(x) / Math.log(2);
+    }
+
+    /**
+     * Keeps the best k of the candidates offered to it. Memory is bounded
+     * by k however many are offered, and a candidate offered twice counts
+     * once. Not thread safe.
+     */
+    public final class Selector {
+
+        private final String prefix;
+        private final int k;
+        private final Slot slot;
+        private final ToIntFunction<String> bufferCount;
+        private final Map<String, Long> accepted;
+        private final long now;
+        /** worst of the kept candidates at the head */
+        private final PriorityQueue<Scored> heap;
+        /** the terms in heap */
+        private final Set<String> kept = new HashSet<>();
+
+        private Selector(String prefix, int k, Slot slot, ToIntFunction<String> bufferCount,
+                         Map<String, Long> accepted, long now) {
+            this.prefix = prefix;
+            this.k = k;
+            this.slot = slot;
+            this.bufferCount = bufferCount;
+            this.accepted = accepted;
+            this.now = now;
+            this.heap = new PriorityQueue<>(Math.min(k, 64) + 1, Comparator.reverseOrder());
+        }
+
+        /**
+         * Consider a candidate. One that drops out of the kept set never
+         * comes back, since the worst kept candidate only gets better.
+         */
+        public void offer(String term) {
+            if (term == null || k == 0 || kept.contains(term)) return;
+            double s = score(term, prefix, slot, bufferCount, accepted, now);
+            if (heap.size() < k) {
+                heap.add(new Scored(term, s));
+                kept.add(term);
+            }
+            else if (Scored.compare(term, s, heap.peek()) < 0) {
+                kept.remove(heap.poll().term);
+                heap.add(new Scored(term, s));
+                kept.add(term);
+            }
+        }
+
+        public void offerAll(Iterable<String> candidates) {
+            if (candidates == null) return;
+            for (String term : candidates) offer(term);
+        }
+
+        /** Number of candidates kept so far. */
+        public int size() {
+            return heap.size();
+        }
+
+        /** The kept candidates, best first. */
+        public List<String> result() {
+            Scored[] all = heap.toArray(new Scored[0]);
+            Arrays.sort(all);
+            String[] out = new String[all.length];
+            for (int i = 0; i < all.length; i++) out[i] = all[i].term;
+            return Arrays.asList(out);
+        }
+    }
+
+    /** A candidate and its score; better candidates compare lower. */
+    private static final class Scored implements Comparable<Scored> {
+        final String term;
+        final double score;
+
+        Scored(String term, double score) {
+            this.term = term;
+            this.score = score;
+        }
+
+        static int compare(String term, double score, Scored other) {
+            int c = Double.compare(other.score, score);
+            if (c != 0) return c;
+            c = Integer.compare(term.length(), other.term.length());
+            if (c != 0) return c;
+            c = String.CASE_INSENSITIVE_ORDER.compare(term, other.term);
+            return (c != 0) ? c : term.compareTo(other.term);
+        }
+
+        @Override
+        public int compareTo(Scored o) {
+            return compare(term, score, o);
+        }
+    }
+}
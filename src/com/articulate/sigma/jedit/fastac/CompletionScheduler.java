@@ -0,0 +1,189 @@
+package com.articulate.sigma.jedit.fastac;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs completion lookups for every editor on one small shared pool, so
+ * attaching a suggestor to each text component costs no thread of its own.
+ *
+ * - Latest request wins, per editor: a request that has not started yet is
+ *   replaced by the next one for the same editor, so the queue holds at
+ *   most one lookup per editor however fast the user types.
+ * - A newer request cancels the running one for the same editor.
+ *   Cancellation is cooperative: a lookup polls {@link Job#isCurrent()}
+ *   (or calls {@link Job#throwIfCancelled()}) between stages and must not
+ *   publish anything once it is no longer current.
+ * - queueDepth(), coalesced() and the wait and run LatencyMeters report
+ *   how the pool keeps up.
+ *
+ * Thread safe.
+ */
+public final class CompletionScheduler {
+
+    /** One requested lookup. */
+    public static final class Job {
+
+        /** the editor the lookup is for */
+        public final Object key;
+        /** increases with every request made to the scheduler */
+        public final long generation;
+        final long submittedNanos = System.nanoTime();
+        private volatile boolean cancelled;
+
+        Job(Object key, long generation) {
+            this.key = key;
+            this.generation = generation;
+        }
+
+        /** False once a newer request for the same editor came in, or it was cancelled. */
+        public boolean isCurrent() {
+            return !cancelled;
+        }
+
+        /** @throws CancellationException if the job is no longer current */
+        public void throwIfCancelled() {
+            if (cancelled) throw new CancellationException("lookup #" + generation + " superseded");
+        }
+    }
+
+    /** pool threads; lookups are short, so a couple serve every editor */
+    private static final int THREADS = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+
+    private static CompletionScheduler shared;
+
+    private final Executor executor;
+    private long generation;
+    private long coalesced;
+    /** the latest job per editor, until it finishes */
+    private final Map<Object, Job> latest = new HashMap<>();
+    /** the work waiting to run, at most one per editor */
+    private final Map<Object, Consumer<Job>> waiting = new HashMap<>();
+
+    private final LatencyMeter waitLatency = new LatencyMeter("CompletionQueueWait");
+    private final LatencyMeter runLatency = new LatencyMeter("CompletionLookup");
+
+    /** @param executor runs the lookups */
+    public CompletionScheduler(Executor executor) {
+        this.executor = executor;
+    }
+
+    /** The scheduler all suggestors share; its threads exit when idle. */
+    public static synchronized CompletionScheduler shared() {
+        if (shared == null) {
+            AtomicInteger n = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), r -> {
+                        Thread t = new Thread(r, "CompletionScheduler-" + n.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            shared = new CompletionScheduler(pool);
+        }
+        return shared;
+    }
+
+    /** Stop the shared pool, e.g. when the plugin stops; shared() starts a new one. */
+    public static synchronized void shutdownShared() {
+        if (shared == null) return;
+        shared.cancelAll();
+        if (shared.executor instanceof ThreadPoolExecutor) ((ThreadPoolExecutor) shared.executor).shutdownNow();
+        shared = null;
+    }
+
+    /**
+     * Request a lookup for an editor, replacing its waiting request and
+     * cancelling its running one.
+     * @param key identifies the editor
+     * @param work the lookup; a CancellationException it throws is treated
+     *             as a normal end of a superseded job
+     * @return the new job
+     */
+    public Job submit(Object key, Consumer<Job> work) {
+        final Job job;
+        boolean dispatch;
+        synchronized (this) {
+            job = new Job(key, ++generation);
+            Job previous = latest.put(key, job);
+            if (previous != null) previous.cancelled = true;
+            dispatch = waiting.put(key, work) == null;
+            if (!dispatch) coalesced++;
+        }
+        if (dispatch) executor.execute(() -> runLatest(key));
+        return job;
+    }
+
+    /** Run whatever is waiting for key now, as the latest job for it. */
+    private void runLatest(Object key) {
+        final Job job;
+        final Consumer<Job> work;
+        synchronized (this) {
+            work = waiting.remove(key);
+            job = latest.get(key);
+        }
+        if (work == null || job == null) return;
+        try {
+            if (job.isCurrent()) {
+                waitLatency.recordSince(job.submittedNanos);
+                long start = System.nanoTime();
+                work.accept(job);
+                if (job.isCurrent()) runLatency.recordSince(start);
+            }
+        }
+        catch (CancellationException ignore) {}
+        catch (RuntimeException e) {
+            System.out.println("[FastAC] Completion lookup failed: " + e);
+        }
+        finally {
+            synchronized (this) {
+                latest.remove(key, job);
+            }
+        }
+    }
+
+    /** Cancel the waiting and running lookups for an editor, e.g. when it goes away. */
+    public synchronized void cancel(Object key) {
+        waiting.remove(key);
+        Job job = latest.remove(key);
+        if (job != null) job.cancelled = true;
+    }
+
+    private synchronized void cancelAll() {
+        for (Job job : latest.values()) job.cancelled = true;
+        latest.clear();
+        waiting.clear();
+    }
+
+    /** Lookups requested but not started yet. */
+    public synchronized int queueDepth() {
+        return waiting.size();
+    }
+
+    /** Lookups requested but not finished yet. */
+    public synchronized int pending() {
+        return latest.size();
+    }
+
+    /** Requests replaced by a newer one before they started. */
+    public synchronized long coalesced() {
+        return coalesced;
+    }
+
+    /** Time from a request to the start of its lookup. */
+    public LatencyMeter waitLatency() {
+        return waitLatency;
+    }
+
+    /** Time a lookup takes to run, for lookups that were not superseded. */
+    public LatencyMeter runLatency() {
+        return runLatency;
+    }
+}
@@ -16,6 +16,11 @@ public final class FastACAutoAttach {
 
     private FastACAutoAttach() {}
 
+    /** Attaches to all text editors, suggesting from the shared {@link KBVocabulary}. */
+    public static void attachEverywhere() {
+        attachEverywhere(List.of());
+    }
+
     /** Scans all frames/windows and attaches the popup suggestor to text editors.
      *  With ENABLE_POPUP=false, this method is a no-op. */
     public static void attachEverywhere(List<String> words) {
@@ -26,9 +26,8 @@ public final class FastACBootstrap {
         // Defer until the UI is up to ensure windows/components exist
         SwingUtilities.invokeLater(() -> {
             System.out.println("[FastAC] Bootstrapping autocomplete…");
-            // Note: keep your existing attach call as-is.
-            // If your class is actually FastACAutoattach (lower 'a'), use that name here.
-            FastACAutoAttach.attachEverywhere(SumoWords.all());
+            // Suggest from the KB vocabulary; the suggestors follow it when the KB finishes loading.
+            FastACAutoAttach.attachEverywhere();
         });
     }
 }
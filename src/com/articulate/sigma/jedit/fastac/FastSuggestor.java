@@ -6,9 +6,6 @@ import javax.swing.text.*;
 import java.awt.*;
 import java.util.*;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.gjt.sp.jedit.jEdit;
 
@@ -24,31 +21,29 @@ public class FastSuggestor {
     private final JTextComponent editor;
     private final PrefixIndex index;
     private final JPopupMenu popup;
+    // One list and scroller for the popup's lifetime; refreshes only swap the model's results
+    private final SuggestionListModel model = new SuggestionListModel();
+    private final JList<String> list = new JList<>(model);
 
     // IMPORTANT: use Swing Timer explicitly to avoid ambiguity with java.util.Timer
     private final javax.swing.Timer debounceTimer;
 
-    // Background pool for heavy lookups (never block EDT)
-    private final ExecutorService pool = Executors.newSingleThreadExecutor(r -> {
-        Thread t = new Thread(r, "FastSuggestor-lookup");
-        t.setDaemon(true);
-        return t;
-    });
-
     // State we keep between keystrokes
     private String lastPrefix = "";
     private List<String> lastResults = Collections.emptyList();
     
-    // FIXED: Add flag to prevent concurrent lookups
-    private final AtomicBoolean lookupInProgress = new AtomicBoolean(false);
-    
-    // FIXED: Cache to avoid redundant lookups
+    // FIXED: Cache to avoid redundant lookups. Access order makes even get() a
+    // write, and workers fill it while the EDT reads it: only touch it through
+    // cached, cache and clearCache, which lock it
     private final Map<String, List<String>> recentLookupCache = new LinkedHashMap<String, List<String>>(16, 0.75f, true) {
         @Override
         protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
             return size() > 50; // Keep last 50 lookups cached
         }
     };
+    // KB vocabulary the cached lookups were made against; compared by identity,
+    // since the version changes before a rebuilt vocabulary is installed
+    private CompletionEngine vocabulary = KBVocabulary.current();
 
     private static boolean popupEnabled() {
         String mode = jEdit.getProperty("sumo.autocomplete.mode", "both");
@@ -66,6 +61,20 @@ public class FastSuggestor {
         this.index = index;
         this.popup = new JPopupMenu();
 
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.addMouseListener(new java.awt.event.MouseAdapter() {
+            @Override public void mouseClicked(java.awt.event.MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    String sel = list.getSelectedValue();
+                    if (sel != null) insertCompletion(sel);
+                    popup.setVisible(false);
+                }
+            }
+        });
+        JScrollPane scroller = new JScrollPane(list);
+        scroller.setBorder(BorderFactory.createEmptyBorder());
+        popup.add(scroller);
+
         // Create once; we'll change delay dynamically
         debounceTimer = new javax.swing.Timer(INSERT_DEBOUNCE_MS, e -> refreshFullAsync());
         debounceTimer.setRepeats(false);
@@ -80,6 +89,14 @@ public class FastSuggestor {
 
     private void onChange(DocumentEvent e) {
         if (!popupEnabled()) return; // disabled: never compute/show
+
+        // A new KB vocabulary was published: lookups cached against the old one are stale
+        CompletionEngine current = KBVocabulary.current();
+        if (current != vocabulary) {
+            vocabulary = current;
+            clearCache();
+            lastResults = Collections.emptyList();
+        }
         
         // FIXED: Get prefix immediately on EDT to avoid any delay
         String prefix = currentWordPrefix();
@@ -97,7 +114,7 @@ public class FastSuggestor {
             debounceTimer.restart();
         } else {
             // Insert / extend prefix: check cache first
-            List<String> cached = recentLookupCache.get(prefix);
+            List<String> cached = cached(prefix);
             if (cached != null) {
                 showSuggestionsImmediate(cached);
                 lastResults = cached;
@@ -117,7 +134,7 @@ public class FastSuggestor {
         if (prefix.isEmpty()) return Collections.emptyList();
         
         // First check cache
-        List<String> cached = recentLookupCache.get(prefix);
+        List<String> cached = cached(prefix);
         if (cached != null) return cached;
         
         // Filter from last results (this is very fast)
@@ -132,7 +149,7 @@ public class FastSuggestor {
         
         // Cache the filtered results
         if (!filtered.isEmpty()) {
-            recentLookupCache.put(prefix, filtered);
+            cache(prefix, filtered);
         }
         
         return filtered;
@@ -178,13 +195,8 @@ public class FastSuggestor {
             return;
         }
         
-        // FIXED: Skip if already doing a lookup
-        if (!lookupInProgress.compareAndSet(false, true)) {
-            return;
-        }
-        
         // Check cache first
-        List<String> cached = recentLookupCache.get(prefixSnapshot);
+        List<String> cached = cached(prefixSnapshot);
         if (cached != null) {
             SwingUtilities.invokeLater(() -> {
                 if (prefixSnapshot.equals(lastPrefix)) {
@@ -192,128 +204,82 @@ public class FastSuggestor {
                     showSuggestionsImmediate(cached);
                 }
             });
-            lookupInProgress.set(false);
             return;
         }
         
-        pool.submit(() -> {
-            try {
-                List<String> full = index.lookup(prefixSnapshot, FULL_LIMIT);
-                
-                // Cache the results
-                if (!full.isEmpty()) {
-                    synchronized (recentLookupCache) {
-                        recentLookupCache.put(prefixSnapshot, full);
-                    }
-                }
-                
-                // Hand off to EDT
-                SwingUtilities.invokeLater(() -> {
-                    // Only apply if user hasn't typed more since we started
-                    if (prefixSnapshot.equals(lastPrefix)) {
-                        lastResults = full;
-                        showSuggestionsImmediate(full);
-                    }
-                });
-            } finally {
-                lookupInProgress.set(false);
-            }
-        });
-    }
-
-    /** Extract the current "word" prefix at the caret (letters, digits, underscores). */
-    private String currentWordPrefix() {
-        try {
-            int caret = editor.getCaretPosition();
-            Document doc = editor.getDocument();
-            int start = caret;
+        // Heavy lookups run on the pool shared by all editors (never block EDT);
+        // a newer request for this editor replaces or cancels this one
+        CompletionScheduler.shared().submit(editor, job -> {
+            // every match is streamed through the ranker, which keeps only the best FULL_LIMIT
+            CompletionRanker.Selector best = CompletionRanker.shared().selector(prefixSnapshot,
+                    FULL_LIMIT, CompletionRanker.Slot.ANY, null);
+            best.offerAll(index.matches(prefixSnapshot));
+            job.throwIfCancelled();
+            best.offerAll(index.subwords(prefixSnapshot, Integer.MAX_VALUE));
+            List<String> ranked = best.result();
+            job.throwIfCancelled();
+            // Nothing starts with it: probably a typo, offer the nearest terms.
+            // Frozen here, off the EDT, so the popup model can show it as is
+            final List<String> full = List.copyOf(ranked.isEmpty() ? index.fuzzy(prefixSnapshot, FULL_LIMIT) : ranked);
             
-            // FIXED: Use getText with length to avoid creating substrings
-            while (start > 0) {
-                String ch = doc.getText(start - 1, 1);
-                if (!isWordChar(ch)) break;
-                start--;
+            // Cache the results
+            if (!full.isEmpty()) {
+                cache(prefixSnapshot, full);
             }
             
-            int len = caret - start;
-            if (len <= 0) return "";
-            return doc.getText(start, len);
-        } catch (BadLocationException ex) {
-            return "";
-        }
+            // Hand off to EDT
+            SwingUtilities.invokeLater(() -> {
+                // Only apply if user hasn't typed more since we started
+                if (prefixSnapshot.equals(lastPrefix)) {
+                    lastResults = full;
+                    showSuggestionsImmediate(full);
+                }
+            });
+        });
     }
 
-    private boolean isWordChar(String s) {
-        if (s == null || s.isEmpty()) return false;
-        char c = s.charAt(0);
-        return Character.isLetterOrDigit(c) || c == '_' || c == '-';
+    /** Extract the current "word" prefix at the caret (letters, digits, underscores, hyphens). */
+    private String currentWordPrefix() {
+        // Reads the document through a Segment; no String per character
+        return CaretContext.prefix(editor.getDocument(), editor.getCaretPosition());
     }
 
-    /** FIXED: Immediate show without any delay - used for delete operations */
+    /**
+     * Show items in the popup, opening it at the caret if it is hidden.
+     * The list and scroller are reused: the model swaps in items and reports
+     * only the rows that changed, and the list is sized from one prototype
+     * cell, so the work here does not grow with the number of results.
+     */
     private void showSuggestionsImmediate(List<String> items) {
         if (!popupEnabled()) return;
-        
-        // FIXED: Only update if different from what's showing
-        if (items.isEmpty()) {
+
+        if (items == null || items.isEmpty()) {
             if (popup.isVisible()) {
                 popup.setVisible(false);
             }
             return;
         }
-        
-        // Reuse existing popup if possible
-        if (popup.isVisible() && popup.getComponentCount() > 0) {
-            Component comp = popup.getComponent(0);
-            if (comp instanceof JScrollPane) {
-                JScrollPane sp = (JScrollPane) comp;
-                if (sp.getViewport().getView() instanceof JList) {
-                    @SuppressWarnings("unchecked")
-                    JList<String> existingList = (JList<String>) sp.getViewport().getView();
-                    // Just update the model instead of recreating everything
-                    DefaultListModel<String> model = new DefaultListModel<>();
-                    for (String item : items) {
-                        model.addElement(item);
-                    }
-                    existingList.setModel(model);
-                    if (!items.isEmpty()) {
-                        existingList.setSelectedIndex(0);
-                    }
-                    return;
-                }
-            }
-        }
-        
-        // Fall back to full recreation only if necessary
-        showSuggestions(items);
-    }
 
-    /** Render the popup. Keep this light — actual data is prepared elsewhere. */
-    private void showSuggestions(List<String> items) {
-        if (!popupEnabled()) return;
-        popup.setVisible(false);
-        popup.removeAll();
-
-        if (items == null || items.isEmpty()) return;
+        boolean showing = popup.isVisible();
+        model.setItems(items, !showing);
 
-        JList<String> list = new JList<>(new Vector<>(items));
-        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
-        list.setVisibleRowCount(Math.min(12, items.size()));
+        boolean resized = false;
+        if (!model.widest().equals(list.getPrototypeCellValue())) {
+            list.setPrototypeCellValue(model.widest());
+            resized = true;
+        }
+        int rows = Math.min(12, items.size());
+        if (list.getVisibleRowCount() != rows) {
+            list.setVisibleRowCount(rows);
+            resized = true;
+        }
         list.setSelectedIndex(0);
-        
-        list.addMouseListener(new java.awt.event.MouseAdapter() {
-            @Override public void mouseClicked(java.awt.event.MouseEvent e) {
-                if (e.getClickCount() == 2) {
-                    String sel = list.getSelectedValue();
-                    if (sel != null) insertCompletion(sel);
-                    popup.setVisible(false);
-                }
-            }
-        });
-
-        JScrollPane scroller = new JScrollPane(list);
-        scroller.setBorder(BorderFactory.createEmptyBorder());
-        popup.add(scroller);
+        list.ensureIndexIsVisible(0);
 
+        if (showing) {
+            if (resized) popup.pack();
+            return;
+        }
         try {
             Rectangle r = editor.modelToView(editor.getCaretPosition());
             if (r != null) {
@@ -328,28 +294,45 @@ public class FastSuggestor {
             int caret = editor.getCaretPosition();
             Document doc = editor.getDocument();
             // Remove current word
-            int start = caret;
-            while (start > 0) {
-                String ch = doc.getText(start - 1, 1);
-                if (!isWordChar(ch)) break;
-                start--;
-            }
+            int start = caret - CaretContext.prefix(doc, caret).length();
             doc.remove(start, caret - start);
             // Insert completion
             doc.insertString(start, completion, null);
+            CompletionRanker.accepted(completion);
         } catch (BadLocationException ignored) { }
     }
 
     /** Call when disposing the plugin. */
     public void shutdown() {
         debounceTimer.stop();
-        pool.shutdownNow();
+        CompletionScheduler.shared().cancel(editor);
         popup.setVisible(false);
-        popup.removeAll();
-        recentLookupCache.clear();
+        model.setItems(Collections.emptyList(), true);
+        clearCache();
     }
 
-    // Create a FastSuggestor by building an index from words and wiring it to this editor.
+    /** Cached results for prefix, or null; safe from the EDT and the workers. */
+    private List<String> cached(String prefix) {
+        synchronized (recentLookupCache) {
+            return recentLookupCache.get(prefix);
+        }
+    }
+
+    /** Remember results for prefix. */
+    private void cache(String prefix, List<String> results) {
+        synchronized (recentLookupCache) {
+            recentLookupCache.put(prefix, results);
+        }
+    }
+
+    /** Forget every cached lookup. */
+    private void clearCache() {
+        synchronized (recentLookupCache) {
+            recentLookupCache.clear();
+        }
+    }
+
+    // Create a FastSuggestor over the shared completion engine and wire it to this editor.
     public static FastSuggestor attach(javax.swing.text.JTextComponent editor,
                                        java.util.List<String> words) {
         if (!popupEnabled()) {
@@ -357,8 +340,14 @@ public class FastSuggestor {
             return null;
         }
 
-        PrefixIndex idx = new PrefixIndex();
-        idx.build(words);
+        // Share the KB vocabulary; only build a private index for words it lacks.
+        PrefixIndex idx;
+        if (KBVocabulary.current().containsAll(words)) {
+            idx = PrefixIndex.shared();
+        } else {
+            idx = new PrefixIndex();
+            idx.build(words);
+        }
 
         FastSuggestor fs = new FastSuggestor(editor, idx);
 
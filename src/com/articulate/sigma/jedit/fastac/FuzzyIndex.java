@@ -0,0 +1,178 @@
+package com.articulate.sigma.jedit.fastac;
+
+import java.util.*;
+
+/**
+ * Typo-tolerant lookup over a {@link TermDictionary}: the terms within edit
+ * distance 2 of a word, for the completion fallback and "did you mean"
+ * hints.
+ *
+ * - A symmetric delete index (as in SymSpell): every way of deleting up to
+ *   MAX_DISTANCE chars from the first PREFIX chars of a term is hashed, and
+ *   the (hash, term) pairs are kept sorted in one long[]. A query hashes its
+ *   own deletes the same way and collects the terms sharing one, with a
+ *   binary search per delete; only those candidates get a real distance.
+ * - Case is folded the way {@link TermDictionary} folds it, so "animl"
+ *   finds "Animal".
+ * - Distance is Levenshtein plus adjacent transpositions (optimal string
+ *   alignment), so "Aniaml" is one edit from "Animal".
+ *
+ * Hash collisions only add candidates, which the distance check removes.
+ * Immutable and thread safe.
+ */
+public final class FuzzyIndex {
+
+    /** largest distance the index answers for */
+    public static final int MAX_DISTANCE = 2;
+    /** deletes are taken from at most this many leading chars of a term */
+    static final int PREFIX = 7;
+
+    private final TermDictionary terms;
+    /** (delete hash << 32 | term index), sorted and without duplicates */
+    private final long[] deletes;
+
+    private FuzzyIndex(TermDictionary terms, long[] deletes) {
+        this.terms = terms;
+        this.deletes = deletes;
+    }
+
+    public static FuzzyIndex of(Collection<String> words) {
+        return of(TermDictionary.of(words));
+    }
+
+    public static FuzzyIndex of(TermDictionary terms) {
+        List<String> all = terms.toList();
+        long[] pairs = new long[Math.max(16, all.size() * 8)];
+        int n = 0;
+        int[] hashes = new int[64];
+        char[] key = new char[PREFIX];
+        for (int id = 0; id < all.size(); id++) {
+            int len = fold(all.get(id), key);
+            int h = hashDeletes(key, len, hashes);
+            if (n + h > pairs.length) pairs = Arrays.copyOf(pairs, Math.max(pairs.length * 2, n + h));
+            for (int i = 0; i < h; i++) pairs[n++] = ((long) hashes[i] << 32) | id;
+        }
+        Arrays.sort(pairs, 0, n);
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (m == 0 || pairs[i] != pairs[m - 1]) pairs[m++] = pairs[i];
+        }
+        return new FuzzyIndex(terms, Arrays.copyOf(pairs, m));
+    }
+
+    public int size() {
+        return terms.size();
+    }
+
+    /** Rough heap footprint of the delete index, in bytes (the terms are shared). */
+    public long estimatedBytes() {
+        return 16L + 8L * deletes.length;
+    }
+
+    /**
+     * Up to 'limit' terms within maxDistance (at most MAX_DISTANCE) of
+     * word, ignoring case: nearest first, then in dictionary order. Words
+     * shorter than 3 chars match too much to be useful and get nothing.
+     */
+    public List<String> within(String word, int maxDistance, int limit) {
+        if (word == null || word.length() < 3 || limit <= 0) return Collections.emptyList();
+        int bound = Math.max(0, Math.min(maxDistance, MAX_DISTANCE));
+        char[] key = new char[PREFIX];
+        int[] hashes = new int[64];
+        int h = hashDeletes(key, fold(word, key), hashes);
+        BitSet seen = new BitSet(terms.size());
+        String folded = foldAll(word);
+        List<long[]> hits = new ArrayList<>();     // {distance, term index}
+        for (int i = 0; i < h; i++) {
+            long lo = (long) hashes[i] << 32;
+            for (int p = lowerBound(lo); p < deletes.length && (deletes[p] >>> 32) == (lo >>> 32); p++) {
+                int id = (int) deletes[p];
+                if (seen.get(id)) continue;
+                seen.set(id);
+                String t = terms.get(id);
+                if (Math.abs(t.length() - word.length()) > bound) continue;
+                int d = distance(folded, foldAll(t), bound);
+                if (d >= 0) hits.add(new long[] {d, id});
+            }
+        }
+        // term indexes are in dictionary order, so this sorts by distance, then term
+        hits.sort((a, b) -> (a[0] != b[0]) ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        List<String> out = new ArrayList<>(Math.min(limit, hits.size()));
+        for (int i = 0; i < hits.size() && out.size() < limit; i++) out.add(terms.get((int) hits.get(i)[1]));
+        return out;
+    }
+
+    /**
+     * Optimal string alignment distance between a and b (insertions,
+     * deletions, substitutions and adjacent transpositions), or -1 if it
+     * is more than bound.
+     */
+    public static int distance(CharSequence a, CharSequence b, int bound) {
+        int n = a.length(), m = b.length();
+        if (Math.abs(n - m) > bound) return -1;
+        int[] pprev = new int[m + 1], prev = new int[m + 1], curr = new int[m + 1];
+        for (int j = 0; j <= m; j++) prev[j] = j;
+        for (int i = 1; i <= n; i++) {
+            curr[0] = i;
+            int rowMin = i;
+            char ca = a.charAt(i - 1);
+            for (int j = 1; j <= m; j++) {
+                char cb = b.charAt(j - 1);
+                int v = Math.min(Math.min(curr[j - 1] + 1, prev[j] + 1), prev[j - 1] + (ca == cb ? 0 : 1));
+                if (i > 1 && j > 1 && ca == b.charAt(j - 2) && a.charAt(i - 2) == cb) v = Math.min(v, pprev[j - 2] + 1);
+                curr[j] = v;
+                if (v < rowMin) rowMin = v;
+            }
+            if (rowMin > bound) return -1;
+            int[] t = pprev; pprev = prev; prev = curr; curr = t;
+        }
+        return (prev[m] <= bound) ? prev[m] : -1;
+    }
+
+    /** First position in deletes whose hash is at least that of 'key'. */
+    private int lowerBound(long key) {
+        int lo = 0, hi = deletes.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (deletes[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Hash key[0, len) with every choice of up to MAX_DISTANCE chars
+     * deleted (the same delete may be hashed more than once).
+     * @return the number of hashes written to out
+     */
+    private static int hashDeletes(char[] key, int len, int[] out) {
+        int n = 0;
+        out[n++] = hash(key, len, -1, -1);
+        for (int i = 0; i < len; i++) {
+            out[n++] = hash(key, len, i, -1);
+            for (int j = i + 1; j < len; j++) out[n++] = hash(key, len, i, j);
+        }
+        return n;
+    }
+
+    private static int hash(char[] key, int len, int skip1, int skip2) {
+        int h = len - ((skip1 >= 0) ? 1 : 0) - ((skip2 >= 0) ? 1 : 0);
+        for (int i = 0; i < len; i++) {
+            if (i != skip1 && i != skip2) h = 31 * h + key[i];
+        }
+        return h;
+    }
+
+    /** Fold the first PREFIX chars of s into key. @return how many were written */
+    private static int fold(String s, char[] key) {
+        int len = Math.min(PREFIX, s.length());
+        for (int i = 0; i < len; i++) key[i] = TermDictionary.fold(s.charAt(i));
+        return len;
+    }
+
+    private static String foldAll(String s) {
+        char[] c = new char[s.length()];
+        for (int i = 0; i < c.length; i++) c[i] = TermDictionary.fold(s.charAt(i));
+        return new String(c);
+    }
+}
@@ -0,0 +1,86 @@
+package com.articulate.sigma.jedit.fastac;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The completion vocabulary of the loaded KB, for every completion UI.
+ *
+ * - Until a KB (or a KB snapshot) is published, the vocabulary is the
+ *   small {@link SumoWords} placeholder.
+ * - publish() builds the shared {@link CompletionEngine} from the KB terms
+ *   and installs it with a single volatile write, so a reader sees either
+ *   the old vocabulary or the new one, never a mix. Components that follow
+ *   the shared engine ({@link PrefixIndex#shared()}, the dropdown, the ghost
+ *   text, SmartCompose) switch over without rebuilding anything.
+ * - version() changes whenever the published terms change: when another
+ *   collection is published, and when termsChanged() reports that the
+ *   published one was changed in place (e.g. by merging an edited file
+ *   into the KB). The shared engine is cached on it.
+ * - didYouMean() offers the known terms closest to a misspelt one.
+ */
+public final class KBVocabulary {
+
+    private static volatile long version;
+    private static volatile boolean loaded;
+    /** the collection last published */
+    private static Collection<String> published;
+
+    private KBVocabulary() {}
+
+    /** The vocabulary to complete from now. Never null. */
+    public static CompletionEngine current() {
+        return CompletionEngine.shared();
+    }
+
+    /** True once KB terms have been published, false while only the placeholder is available. */
+    public static boolean isLoaded() {
+        return loaded;
+    }
+
+    /** Changes whenever the published terms change. */
+    public static long version() {
+        return version;
+    }
+
+    /**
+     * Report that the published collection was changed in place, so the
+     * next publish() of it rebuilds the vocabulary.
+     */
+    public static synchronized void termsChanged() {
+        version++;
+    }
+
+    /**
+     * Up to 'limit' known terms within edit distance 2 of term, nearest
+     * first, for hints on unknown-term diagnostics; term itself is left out.
+     */
+    public static List<String> didYouMean(String term, int limit) {
+        if (term == null || limit <= 0) return List.of();
+        List<String> out = new ArrayList<>(limit);
+        for (String t : current().similar(term, limit + 1)) {
+            if (!t.equals(term) && out.size() < limit) out.add(t);
+        }
+        return out;
+    }
+
+    /**
+     * Make the KB terms the vocabulary of every completion UI. Publishing
+     * the same collection again is a no-op unless termsChanged() was
+     * called since. Callers hold the KB's read lock, so the terms don't
+     * change while they are copied.
+     * @return the vocabulary now current
+     */
+    public static synchronized CompletionEngine publish(Collection<String> kbTerms) {
+        if (kbTerms == null) return current();
+        if (kbTerms != published) {
+            published = kbTerms;
+            version++;
+        }
+        CompletionEngine before = CompletionEngine.shared();
+        CompletionEngine engine = CompletionEngine.forTerms(kbTerms, version);
+        if (engine != before) loaded = true;
+        return engine;
+    }
+}
@@ -0,0 +1,131 @@
+package com.articulate.sigma.jedit.fastac;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The on-disk copy of {@link KifTermIndex}'s per-file tokens, so a new
+ * session can start from the last one's index instead of reading every
+ * .kif file again.
+ *
+ * - Each file is recorded with the mtime and size its tokens were read at;
+ *   the index re-reads only the files whose mtime or size differ.
+ * - Every distinct token is stored once, in a string table that is the
+ *   merged term list; files refer to their tokens by table position.
+ *
+ * Layout (big-endian): magic, version, token count + tokens, file count,
+ * then per file: path, mtime, size, token count + token positions. Strings
+ * are an int length followed by UTF-8 bytes. The file is read through a
+ * read-only memory map and written to a temporary sibling that is then
+ * moved into place, so a reader never sees a partial file.
+ */
+final class KifTermCache {
+
+    /** file name inside the plugin home */
+    static final String FILE_NAME = "kif-term-index.bin";
+
+    /** "SJKT" */
+    private static final int MAGIC = 0x534A4B54;
+
+    /** bump when the layout changes; older files are then ignored */
+    static final int VERSION = 1;
+
+    private KifTermCache() {}
+
+    /**
+     * Write the per-file tokens.
+     * @throws IOException if the cache can't be written
+     */
+    static void write(File file, Map<Path, KifTermIndex.FileTokens> files) throws IOException {
+        Map<String, Integer> table = new LinkedHashMap<>();
+        for (KifTermIndex.FileTokens f : files.values()) {
+            for (String t : f.tokens) table.putIfAbsent(t, table.size());
+        }
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir == null) throw new IOException("no directory to write the term cache in: " + file);
+        dir.mkdirs();
+        Path tmp = Files.createTempFile(dir.toPath(), FILE_NAME, ".tmp");
+        // the temporary file goes away whether the write or the move fails
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(table.size());
+                for (String t : table.keySet()) writeString(out, t);
+                out.writeInt(files.size());
+                for (Map.Entry<Path, KifTermIndex.FileTokens> e : files.entrySet()) {
+                    KifTermIndex.FileTokens f = e.getValue();
+                    writeString(out, e.getKey().toString());
+                    out.writeLong(f.modified);
+                    out.writeLong(f.size);
+                    out.writeInt(f.tokens.length);
+                    for (String t : f.tokens) out.writeInt(table.get(t));
+                }
+            }
+            try {
+                Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Read the per-file tokens.
+     * @return path -> tokens, empty if the file is missing, truncated,
+     *         corrupt or was written with a different layout version
+     */
+    static Map<Path, KifTermIndex.FileTokens> load(File file) {
+        if (file == null || !file.isFile()) return Collections.emptyMap();
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) return Collections.emptyMap();
+            byte[] scratch = new byte[256];
+            String[] table = new String[count(buf, 4)];
+            for (int i = 0; i < table.length; i++) table[i] = readString(buf, scratch);
+            int nf = count(buf, 20);
+            Map<Path, KifTermIndex.FileTokens> files = new HashMap<>(nf * 2);
+            for (int i = 0; i < nf; i++) {
+                Path path = Paths.get(readString(buf, scratch));
+                long modified = buf.getLong();
+                long size = buf.getLong();
+                String[] tokens = new String[count(buf, 4)];
+                for (int k = 0; k < tokens.length; k++) tokens[k] = table[buf.getInt()];
+                files.put(path, new KifTermIndex.FileTokens(modified, size, tokens));
+            }
+            return files;
+        }
+        catch (IOException | RuntimeException e) {
+            return Collections.emptyMap();
+        }
+    }
+
+    /** A count of items at least minBytes long each, checked against what is left of buf. */
+    private static int count(MappedByteBuffer buf, int minBytes) {
+        int n = buf.getInt();
+        if (n < 0 || (long) n * minBytes > buf.remaining()) throw new IllegalStateException("corrupt term cache");
+        return n;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(MappedByteBuffer buf, byte[] scratch) {
+        int len = buf.getInt();
+        if (len < 0 || len > buf.remaining()) throw new IllegalStateException("corrupt term cache");
+        byte[] b = len <= scratch.length ? scratch : new byte[len];
+        buf.get(b, 0, len);
+        return new String(b, 0, len, StandardCharsets.UTF_8);
+    }
+}
@@ -5,18 +5,32 @@ import org.gjt.sp.jedit.Buffer;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.regex.Pattern;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Lightweight index of SUMO terms from .kif files.
  * - Lazy singleton
- * - Fast regex tokenization ([A-Za-z][A-Za-z0-9_-]+)
+ * - Streaming tokenization ([A-Za-z][A-Za-z0-9_-]+ outside ';' comments) of
+ *   whole files, several files at a time
+ * - Each file's tokens are cached with its mtime and size; a rescan only
+ *   reads the files that changed
+ * - A WatchService on every directory under the roots reports edited, added
+ *   and deleted .kif files, which are re-indexed in the background; a new
+ *   directory is watched as soon as it is created
+ * - The per-file tokens are kept in a {@link KifTermCache} file (normally in
+ *   the plugin home), so a new session only reads the files changed since
+ *   the last one. loadCache() publishes the cached terms at startup, before
+ *   any walk; files of other projects stay in the cache when one is walked
+ * - Walks for a buffer run on a background thread; the terms published so
+ *   far stay available meanwhile
  * - De-duped, case-preserving
- * - Thread-safe, read-mostly
+ * - Thread-safe, read-mostly: a new term set is built on the side and swapped
+ *   in, so readers never see a half-built index
  *
  * Roots:
  *  1) The current buffer's directory (walks up to project root) and its subfolders
@@ -26,14 +40,46 @@ public final class KifTermIndex {
 
     private static final KifTermIndex INSTANCE = new KifTermIndex();
 
-    // Token pattern for SUMO symbol names (predicates, classes, constants)
-    private static final Pattern TOKEN = Pattern.compile("[A-Za-z][A-Za-z0-9_-]+");
+    /** name of the cache file, for callers that choose its directory */
+    public static final String CACHE_FILE_NAME = KifTermCache.FILE_NAME;
 
-    // Index storage: case-preserving; HashSet for O(1) lookups
-    private final ConcurrentSkipListSet<String> terms =
+    private static final int MAX_FILES = 100_000;
+    /** how long to wait for more change events before re-indexing */
+    private static final long SETTLE_MS = 200;
+
+    // Index storage: case-preserving, case-insensitive order; replaced as a whole
+    private volatile ConcurrentSkipListSet<String> terms =
             new ConcurrentSkipListSet<>(String.CASE_INSENSITIVE_ORDER);
 
-    // Guard to avoid re-indexing too often
+    /** tokens of one .kif file, as of its mtime and size */
+    static final class FileTokens {
+        final long modified;
+        final long size;
+        final String[] tokens;
+
+        FileTokens(long modified, long size, String[] tokens) {
+            this.modified = modified;
+            this.size = size;
+            this.tokens = tokens;
+        }
+    }
+
+    private final Map<Path, FileTokens> files = new ConcurrentHashMap<>();
+    private volatile Set<File> roots = Collections.emptySet();
+
+    private File cacheFile;
+    private boolean cacheLoaded;
+    /** whether files changed since the cache was last written */
+    private volatile boolean dirty;
+
+    /** runs the cache load and the walks for buffers, one at a time; its thread exits when idle */
+    private final ThreadPoolExecutor indexer = newIndexer();
+
+    private WatchService watcher;
+    private final Map<WatchKey, Path> watched = new HashMap<>();
+    private volatile Thread watchThread;
+
+    // Guard to avoid re-indexing too often when the file system can't be watched
     private final AtomicBoolean builtOnce = new AtomicBoolean(false);
     private volatile long lastBuildMs = 0L;
     private static final long REBUILD_MIN_INTERVAL_MS = 30_000; // throttle
@@ -44,81 +90,112 @@ public final class KifTermIndex {
         return INSTANCE;
     }
 
-    /** Suggest up to 'limit' terms that start with prefix (case-insensitive). */
+    /**
+     * Suggest up to 'limit' terms that start with prefix (case-insensitive):
+     * the exact match first, then longer matches that continue with a
+     * letter or digit, then those that continue with '-' or '_', each group
+     * in the set's case-insensitive order.
+     *
+     * The set is sorted case-insensitively, so the matches are one range of
+     * it; the range is streamed and the scan stops as soon as 'limit'
+     * matches of the first two groups are found. Only the last group is
+     * buffered, and never beyond 'limit', so the cost follows the number of
+     * results rather than the size of the vocabulary.
+     */
     public List<String> suggest(String prefix, int limit) {
         if (prefix == null || prefix.isEmpty() || limit <= 0) {
             return Collections.emptyList();
         }
 
-        String prefLower = prefix.toLowerCase(Locale.ROOT);
-
-        // Partition matches into three groups:
-        //  1) exact (case-insensitive) matches
-        //  2) longer matches that continue with an alphanumeric character
-        //  3) longer matches that continue with a non-alphanumeric character
-        List<String> exact = new ArrayList<>();
-        List<String> alnum = new ArrayList<>();
-        List<String> other = new ArrayList<>();
-
         int prefLen = prefix.length();
+        List<String> out = new ArrayList<>(Math.min(limit, 64));
+        List<String> other = new ArrayList<>();
 
-        for (String t : terms) {
-            if (!t.regionMatches(true, 0, prefLower, 0, prefLen)) {
-                continue;
+        // the exact match, if any, sorts before every longer match
+        for (String t : terms.subSet(prefix, true, prefix + Character.MAX_VALUE, true)) {
+            if (!t.regionMatches(true, 0, prefix, 0, prefLen)) break;
+            if (t.length() == prefLen || Character.isLetterOrDigit(t.charAt(prefLen))) {
+                out.add(t);
+                if (out.size() >= limit) return out;
             }
-
-            String tLower = t.toLowerCase(Locale.ROOT);
-
-            if (tLower.length() == prefLen) {
-                exact.add(t);
-            } else if (tLower.length() > prefLen) {
-                char next = tLower.charAt(prefLen);
-                if (Character.isLetterOrDigit(next)) {
-                    alnum.add(t);
-                } else {
-                    other.add(t);
-                }
-            } else {
-                // Should not happen if regionMatches above is true, but ignore defensively.
+            else if (other.size() < limit) {
+                other.add(t);
             }
         }
-
-        exact.sort(String.CASE_INSENSITIVE_ORDER);
-        alnum.sort(String.CASE_INSENSITIVE_ORDER);
-        other.sort(String.CASE_INSENSITIVE_ORDER);
-
-        List<String> out = new ArrayList<>(Math.min(limit, exact.size() + alnum.size() + other.size()));
-        for (String t : exact) {
-            out.add(t);
-            if (out.size() >= limit) return out;
-        }
-        for (String t : alnum) {
-            out.add(t);
-            if (out.size() >= limit) return out;
-        }
         for (String t : other) {
             out.add(t);
-            if (out.size() >= limit) return out;
+            if (out.size() >= limit) break;
         }
-
         return out;
     }
 
-    /** Ensure the index exists; cheap if already built recently. */
-    public void ensureIndexed(Buffer context) {
-        long now = System.currentTimeMillis();
-        if (!builtOnce.get() || now - lastBuildMs > REBUILD_MIN_INTERVAL_MS) {
-            synchronized (this) {
-                if (!builtOnce.get() || now - lastBuildMs > REBUILD_MIN_INTERVAL_MS) {
-                    Set<File> roots = discoverRoots(context);
-                    rebuild(roots);
-                    builtOnce.set(true);
-                    lastBuildMs = System.currentTimeMillis();
-                }
-            }
+    /**
+     * Ensure the index covers the buffer's project, walking it in the
+     * background; returns at once, and is cheap if already built.
+     * @return the pending walk, for callers that want to wait for it
+     */
+    public Future<?> ensureIndexed(Buffer context) {
+        Set<File> wanted = discoverRoots(context);
+        if (fresh(wanted)) return CompletableFuture.completedFuture(null);
+        return indexer.submit(() -> ensureIndexed(wanted));
+    }
+
+    /**
+     * Ensure the index covers these directories, on the caller's thread.
+     * Cheap when they are already indexed: changes are picked up by the
+     * watcher, or by a throttled rescan where the file system can't be
+     * watched. Files indexed under other directories are kept.
+     */
+    public void ensureIndexed(Set<File> wanted) {
+        if (fresh(wanted)) return;
+        synchronized (this) {
+            if (fresh(wanted)) return;
+            if (wanted.equals(roots)) rescan();
+            else index(wanted);
         }
     }
 
+    private boolean fresh(Set<File> wanted) {
+        if (!builtOnce.get() || !wanted.equals(roots)) return false;
+        return watchThread != null || System.currentTimeMillis() - lastBuildMs <= REBUILD_MIN_INTERVAL_MS;
+    }
+
+    /** Re-check every indexed file and re-read those whose mtime or size changed. */
+    public synchronized void rescan() {
+        index(roots);
+    }
+
+    /**
+     * Keep the per-file tokens in this file across sessions; null to keep
+     * them in memory only. Unsaved changes go to the old file, then the
+     * index starts over from the new one, which loadCache() or the next
+     * index reads.
+     */
+    public synchronized void setCacheFile(File file) {
+        save();
+        cacheFile = file;
+        cacheLoaded = false;
+        files.clear();
+        dirty = false;
+        publish();
+        roots = Collections.emptySet();
+        builtOnce.set(false);
+    }
+
+    /**
+     * Read the cache file in the background and publish its terms, so the
+     * last session's terms complete before anything is walked.
+     * @return the pending load, for callers that want to wait for it
+     */
+    public Future<?> loadCache() {
+        return indexer.submit(this::loadCacheNow);
+    }
+
+    /** Stop watching the file system; the terms stay available. */
+    public synchronized void shutdown() {
+        stopWatching();
+    }
+
     // ---- internals ----
 
     private Set<File> discoverRoots(Buffer context) {
@@ -149,57 +226,312 @@ public final class KifTermIndex {
         return roots;
     }
 
-    private void rebuild(Set<File> roots) {
+    private static ThreadPoolExecutor newIndexer() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "KifTermIndex-index");
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /** Read the cache file once and publish its terms. */
+    private synchronized void loadCacheNow() {
+        if (cacheLoaded) return;
+        cacheLoaded = true;
+        int before = files.size();
+        KifTermCache.load(cacheFile).forEach(files::putIfAbsent);
+        if (files.size() > before) publish();
+    }
+
+    /** Walk the roots, read the new and changed files, swap in the terms and watch the directories. */
+    private synchronized void index(Set<File> wanted) {
+        long start = System.currentTimeMillis();
+        // complete from the cache while the files are checked
+        loadCacheNow();
+        Set<Path> dirs = new LinkedHashSet<>();
+        List<Path> found = new ArrayList<>();
+        for (File root : wanted) walk(root, found, dirs);
+        int read = update(found);
+        if (prune(wanted, new HashSet<>(found))) dirty = true;
+        publish();
+        save();
+        roots = Collections.unmodifiableSet(new LinkedHashSet<>(wanted));
+        builtOnce.set(true);
+        lastBuildMs = System.currentTimeMillis();
+        watch(dirs);
+        System.out.println("[KifTermIndex] " + terms.size() + " terms from " + files.size() + " files ("
+                + read + " read) in " + (lastBuildMs - start) + " ms");
+    }
+
+    /**
+     * Bring the cached tokens of these files up to date, reading the files
+     * whose mtime or size changed in parallel; files that are gone are
+     * dropped.
+     * @return the number of files read
+     */
+    private int update(Collection<Path> paths) {
+        List<Path> stale = new ArrayList<>();
+        for (Path p : paths) {
+            BasicFileAttributes a = attributes(p);
+            FileTokens cached = files.get(p);
+            if (a == null || !a.isRegularFile()) {
+                if (files.remove(p) != null) dirty = true;
+            }
+            else if (cached == null || cached.modified != a.lastModifiedTime().toMillis() || cached.size != a.size()) stale.add(p);
+        }
+        if (!stale.isEmpty()) dirty = true;
+        stale.parallelStream().forEach(p -> {
+            BasicFileAttributes a = attributes(p);
+            if (a == null) return;
+            try {
+                files.put(p, new FileTokens(a.lastModifiedTime().toMillis(), a.size(), tokenize(p)));
+            }
+            catch (IOException e) {
+                files.remove(p);
+            }
+        });
+        return stale.size();
+    }
+
+    /**
+     * Drop the files under the walked roots that the walk didn't find, and
+     * the files elsewhere whose directory is gone. The other files stay, so
+     * one project's walk keeps another's cached tokens.
+     * @return whether any file was dropped
+     */
+    private boolean prune(Set<File> wanted, Set<Path> found) {
+        List<Path> walked = new ArrayList<>();
+        for (File root : wanted) walked.add(root.toPath().toAbsolutePath().normalize());
+        Map<Path, Boolean> dirExists = new HashMap<>();
+        boolean dropped = false;
+        for (Iterator<Path> it = files.keySet().iterator(); it.hasNext(); ) {
+            Path p = it.next();
+            boolean under = false;
+            for (Path r : walked) {
+                if (p.startsWith(r)) {
+                    under = true;
+                    break;
+                }
+            }
+            boolean keep = under ? found.contains(p)
+                    : p.getParent() != null && dirExists.computeIfAbsent(p.getParent(), Files::isDirectory);
+            if (!keep) {
+                it.remove();
+                dropped = true;
+            }
+        }
+        return dropped;
+    }
+
+    /** Build the term set from the cached files and make it the one readers see. */
+    private void publish() {
         ConcurrentSkipListSet<String> fresh =
                 new ConcurrentSkipListSet<>(String.CASE_INSENSITIVE_ORDER);
+        for (FileTokens f : files.values()) Collections.addAll(fresh, f.tokens);
+        terms = fresh;
+    }
 
-        for (File root : roots) {
-            walk(root, fresh, 40_000 /* per-file char cap */, 100_000 /* file cap */);
+    /** Write the cache file if the files changed since it was last written. */
+    private void save() {
+        if (!dirty || cacheFile == null) return;
+        try {
+            KifTermCache.write(cacheFile, new HashMap<>(files));
+            dirty = false;
         }
+        catch (IOException e) {
+            System.out.println("[KifTermIndex] could not write " + cacheFile + ": " + e.getMessage());
+        }
+    }
 
-        // swap
-        terms.clear();
-        terms.addAll(fresh);
+    private static BasicFileAttributes attributes(Path p) {
+        try {
+            return Files.readAttributes(p, BasicFileAttributes.class);
+        }
+        catch (IOException e) {
+            return null;
+        }
     }
 
-    private static void walk(File root, Set<String> out, int perFileChars, int maxFiles) {
+    /** Collect the .kif files under root, and every directory walked. */
+    private static void walk(File root, List<Path> out, Set<Path> dirs) {
         if (root == null || !root.exists()) return;
         Deque<File> dq = new ArrayDeque<>();
         dq.add(root);
-        int files = 0;
 
-        while (!dq.isEmpty() && files < maxFiles) {
+        while (!dq.isEmpty() && out.size() < MAX_FILES) {
             File f = dq.removeFirst();
             if (f.isDirectory()) {
+                // watched even while empty, so a .kif file added later is seen
+                dirs.add(f.toPath().toAbsolutePath().normalize());
                 File[] kids = f.listFiles();
                 if (kids != null) {
                     for (File k : kids) dq.addLast(k);
                 }
                 continue;
             }
-            if (!f.getName().toLowerCase(Locale.ROOT).endsWith(".kif")) continue;
+            if (!isKif(f.toPath())) continue;
 
-            files++;
-            extractTokens(f, out, perFileChars);
+            out.add(f.toPath().toAbsolutePath().normalize());
         }
     }
 
-    private static void extractTokens(File file, Set<String> out, int limitChars) {
-        try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(file))) {
-            byte[] buf = in.readNBytes(limitChars);
-            String text = new String(buf, StandardCharsets.UTF_8);
+    private static boolean isKif(Path p) {
+        Path name = p.getFileName();
+        return name != null && name.toString().toLowerCase(Locale.ROOT).endsWith(".kif");
+    }
+
+    /**
+     * The distinct tokens of a whole file outside ';' comments: a letter,
+     * then letters, digits, '_' or '-'; single letters are skipped. Read as
+     * a stream, so the file is never held in memory as one string.
+     */
+    static String[] tokenize(Path file) throws IOException {
+        Set<String> out = new HashSet<>();
+        char[] buf = new char[8192];
+        char[] tok = new char[64];
+        int len = 0;
+        boolean comment = false;
+        try (Reader in = new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8)) {
+            for (int n; (n = in.read(buf)) > 0; ) {
+                for (int i = 0; i < n; i++) {
+                    char c = buf[i];
+                    if (comment) {
+                        if (c == '\n' || c == '\r') comment = false;
+                        continue;
+                    }
+                    boolean letter = (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+                    if (len > 0 && (letter || (c >= '0' && c <= '9') || c == '_' || c == '-')) {
+                        if (len == tok.length) tok = Arrays.copyOf(tok, len * 2);
+                        tok[len++] = c;
+                        continue;
+                    }
+                    if (len > 1) out.add(new String(tok, 0, len));
+                    len = 0;
+                    if (letter) tok[len++] = c;
+                    else if (c == ';') comment = true;
+                }
+            }
+        }
+        if (len > 1) out.add(new String(tok, 0, len));
+        return out.toArray(new String[0]);
+    }
 
-            // Remove comments starting with ';' to end-of-line (KIF comment style)
-            text = text.replaceAll("(?m);.*$", "");
+    // ---- file watching ----
 
-            var m = TOKEN.matcher(text);
-            while (m.find()) {
-                String tok = m.group();
-                // Simple pruning: skip all-digit tokens
-                if (Character.isLetter(tok.charAt(0))) {
-                    out.add(tok);
+    /** Watch these directories (and only these) for .kif changes. */
+    private void watch(Set<Path> dirs) {
+        try {
+            if (watcher == null) watcher = FileSystems.getDefault().newWatchService();
+        }
+        catch (IOException | UnsupportedOperationException e) {
+            return;     // fall back to the throttled rescan
+        }
+        Set<Path> want = new HashSet<>(dirs);
+        for (Iterator<Map.Entry<WatchKey, Path>> it = watched.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<WatchKey, Path> e = it.next();
+            if (!want.remove(e.getValue())) {
+                e.getKey().cancel();
+                it.remove();
+            }
+        }
+        for (Path d : want) register(d);
+        if (watchThread == null) {
+            final WatchService ws = watcher;
+            watchThread = new Thread(() -> watchLoop(ws), "KifTermIndex-watch");
+            watchThread.setDaemon(true);
+            watchThread.start();
+        }
+    }
+
+    private void register(Path dir) {
+        try {
+            watched.put(dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), dir);
+        }
+        catch (IOException ignored) {}
+    }
+
+    /**
+     * Watch a directory created under a watched one, and its subdirectories.
+     * The .kif files already in them were created before the watch and
+     * raised no event, so they are added to changed.
+     */
+    private synchronized void watchCreated(Path created, Set<Path> changed) {
+        if (watcher == null) return;
+        Deque<Path> dq = new ArrayDeque<>();
+        dq.add(created.toAbsolutePath().normalize());
+        while (!dq.isEmpty()) {
+            Path d = dq.removeFirst();
+            // watch before listing, so nothing created in between is missed
+            if (!watched.containsValue(d)) register(d);
+            File[] kids = d.toFile().listFiles();
+            if (kids == null) continue;
+            for (File k : kids) {
+                Path p = k.toPath().toAbsolutePath().normalize();
+                if (k.isDirectory()) dq.addLast(p);
+                else if (isKif(p)) changed.add(p);
+            }
+        }
+    }
+
+    /** Collect change events until they settle, then re-index the changed files. */
+    private void watchLoop(WatchService ws) {
+        try {
+            while (true) {
+                WatchKey key = ws.take();
+                Set<Path> changed = new HashSet<>();
+                boolean overflow = false;
+                while (key != null) {
+                    overflow |= collect(key, changed);
+                    key = ws.poll(SETTLE_MS, TimeUnit.MILLISECONDS);
                 }
+                if (overflow) rescan();
+                else if (!changed.isEmpty()) reindex(changed);
             }
-        } catch (Throwable ignored) {}
+        }
+        catch (InterruptedException | ClosedWatchServiceException e) {
+            // shut down
+        }
+    }
+
+    /** @return true if events were lost and everything must be rescanned */
+    private boolean collect(WatchKey key, Set<Path> changed) {
+        Path dir;
+        synchronized (this) {
+            dir = watched.get(key);
+        }
+        boolean overflow = false;
+        for (WatchEvent<?> ev : key.pollEvents()) {
+            if (ev.kind() == StandardWatchEventKinds.OVERFLOW) overflow = true;
+            else if (dir != null && ev.context() instanceof Path) {
+                Path p = dir.resolve((Path) ev.context());
+                if (isKif(p)) changed.add(p);
+                else if (ev.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(p)) watchCreated(p, changed);
+            }
+        }
+        key.reset();
+        return overflow;
+    }
+
+    private synchronized void reindex(Set<Path> changed) {
+        if (watchThread == null) return;
+        int read = update(changed);
+        publish();
+        save();
+        System.out.println("[KifTermIndex] re-indexed " + read + " changed file(s), " + terms.size() + " terms");
+    }
+
+    private void stopWatching() {
+        if (watchThread != null) watchThread.interrupt();
+        watchThread = null;
+        watched.clear();
+        try {
+            if (watcher != null) watcher.close();
+        }
+        catch (IOException ignored) {}
+        watcher = null;
     }
 }
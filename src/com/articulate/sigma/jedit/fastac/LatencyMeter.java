@@ -0,0 +1,97 @@
+package com.articulate.sigma.jedit.fastac;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latency samples of one operation (e.g. keystroke
+ * to ghost-text paint) and reports percentiles over them.
+ *
+ * - record() is cheap: it stores one long in a ring buffer, and never
+ *   prints; it runs on the typing path.
+ * - The numbers are read through the accessors; summary() is a one-line
+ *   report, flagged when the 99th percentile is over the budget (one
+ *   60 Hz frame by default).
+ *
+ * Thread safe.
+ */
+public final class LatencyMeter {
+
+    /** one frame at 60 Hz */
+    public static final long FRAME_NANOS = 16_666_667L;
+
+    private final String name;
+    private final long budgetNanos;
+    private final long[] samples;
+    private long count;
+    private long max;
+
+    public LatencyMeter(String name, int window, long budgetNanos) {
+        this.name = name;
+        this.samples = new long[Math.max(1, window)];
+        this.budgetNanos = budgetNanos;
+    }
+
+    public LatencyMeter(String name) {
+        this(name, 256, FRAME_NANOS);
+    }
+
+    /** Record one sample, in nanoseconds; negative samples are ignored. */
+    public void record(long nanos) {
+        if (nanos < 0) return;
+        synchronized (this) {
+            samples[(int) (count % samples.length)] = nanos;
+            count++;
+            max = Math.max(max, nanos);
+        }
+    }
+
+    /** Record the time since 'startNanos', as taken from System.nanoTime(). */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public synchronized long count() {
+        return count;
+    }
+
+    /** Largest sample since the meter was created. */
+    public synchronized long maxNanos() {
+        return max;
+    }
+
+    /**
+     * The p-th percentile (0..100) of the most recent samples, in
+     * nanoseconds; 0 without samples.
+     */
+    public long percentileNanos(double p) {
+        long[] recent;
+        synchronized (this) {
+            recent = Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+        }
+        if (recent.length == 0) return 0;
+        Arrays.sort(recent);
+        int i = (int) Math.ceil(p / 100.0 * recent.length) - 1;
+        return recent[Math.max(0, Math.min(recent.length - 1, i))];
+    }
+
+    /** Whether the 99th percentile of the recent samples is within the budget. */
+    public boolean withinBudget() {
+        return percentileNanos(99) <= budgetNanos;
+    }
+
+    public String summary() {
+        long p99 = percentileNanos(99);
+        return String.format("p50 %.2f ms, p99 %.2f ms, max %.2f ms over %d samples%s",
+                percentileNanos(50) / 1e6, p99 / 1e6, maxNanos() / 1e6, count(),
+                (p99 > budgetNanos) ? String.format(" (over the %.1f ms budget)", budgetNanos / 1e6) : "");
+    }
+
+    @Override
+    public String toString() {
+        return "[" + name + "] " + summary();
+    }
+}
@@ -0,0 +1,129 @@
+package com.articulate.sigma.jedit.fastac;
+
+import java.util.*;
+
+/**
+ * The tokens of a text, kept per line and reference-counted, so an edit
+ * only re-tokenizes the lines it touched.
+ *
+ * - A token is a run of letters, digits, '_' and '-'.
+ * - Each line keeps the tokens it contains; a token is known while at
+ *   least one line holds it, and count() is the number of occurrences.
+ * - Tokens are kept in {@link CompletionEngine#ORDER}, so a prefix query
+ *   is a walk over one contiguous range; nothing is scanned at query time.
+ *
+ * Thread safe; edits and queries are serialized on the instance.
+ */
+public final class LineTokens {
+
+    private static final String[] NONE = new String[0];
+
+    /** tokens of each line, in line order */
+    private final ArrayList<String[]> lines = new ArrayList<>();
+    /** token -> {occurrences} */
+    private final TreeMap<String, int[]> counts = new TreeMap<>(CompletionEngine.ORDER);
+
+    public static boolean isTokenChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '-';
+    }
+
+    /** Forget everything and index text, split into lines at '\n'. */
+    public synchronized void reset(CharSequence text) {
+        lines.clear();
+        counts.clear();
+        if (text == null) return;
+        int start = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            if (i == text.length() || text.charAt(i) == '\n') {
+                String[] toks = tokenize(text, start, i);
+                lines.add(toks);
+                ref(toks, 1);
+                start = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Replace lines [start, start+removed) with the given lines. Lines
+     * past the end are treated as empty.
+     */
+    public synchronized void replaceLines(int start, int removed, List<? extends CharSequence> added) {
+        if (start < 0) return;
+        while (lines.size() < start) lines.add(NONE);
+        int end = Math.min(lines.size(), start + Math.max(0, removed));
+        List<String[]> old = lines.subList(start, end);
+        for (String[] toks : old) ref(toks, -1);
+        old.clear();
+        if (added == null) return;
+        List<String[]> fresh = new ArrayList<>(added.size());
+        for (CharSequence line : added) {
+            String[] toks = (line == null) ? NONE : tokenize(line, 0, line.length());
+            ref(toks, 1);
+            fresh.add(toks);
+        }
+        lines.addAll(start, fresh);
+    }
+
+    /** Occurrences of token in the text. */
+    public synchronized int count(String token) {
+        int[] c = (token == null) ? null : counts.get(token);
+        return (c == null) ? 0 : c[0];
+    }
+
+    /** Number of distinct tokens. */
+    public synchronized int size() {
+        return counts.size();
+    }
+
+    public synchronized int lineCount() {
+        return lines.size();
+    }
+
+    /** Up to 'limit' distinct tokens starting with prefix, in sorted order. */
+    public synchronized List<String> complete(String prefix, int limit, boolean caseSensitive) {
+        if (prefix == null || limit <= 0) return Collections.emptyList();
+        List<String> out = new ArrayList<>();
+        for (String t : from(prefix)) {
+            if (!t.regionMatches(true, 0, prefix, 0, prefix.length())) break;
+            if (caseSensitive && !t.startsWith(prefix)) continue;
+            out.add(t);
+            if (out.size() >= limit) break;
+        }
+        return out;
+    }
+
+    /** The tokens from the first one equal to prefix ignoring case. */
+    private NavigableSet<String> from(String prefix) {
+        String start = prefix;
+        for (String t : counts.headMap(prefix, false).descendingKeySet()) {
+            if (String.CASE_INSENSITIVE_ORDER.compare(t, prefix) != 0) break;
+            start = t;
+        }
+        return counts.tailMap(start, true).navigableKeySet();
+    }
+
+    private void ref(String[] toks, int delta) {
+        for (String t : toks) {
+            int[] c = counts.get(t);
+            if (c == null) {
+                if (delta > 0) counts.put(t, new int[] {delta});
+            }
+            else if ((c[0] += delta) <= 0) counts.remove(t);
+        }
+    }
+
+    private static String[] tokenize(CharSequence text, int from, int to) {
+        List<String> out = null;
+        int i = from;
+        while (i < to) {
+            while (i < to && !isTokenChar(text.charAt(i))) i++;
+            int s = i;
+            while (i < to && isTokenChar(text.charAt(i))) i++;
+            if (i > s) {
+                if (out == null) out = new ArrayList<>();
+                out.add(text.subSequence(s, i).toString());
+            }
+        }
+        return (out == null) ? NONE : out.toArray(NONE);
+    }
+}
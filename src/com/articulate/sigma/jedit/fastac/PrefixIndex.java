@@ -3,95 +3,62 @@ package com.articulate.sigma.jedit.fastac;
 import java.util.*;
 
 public class PrefixIndex {
-    private final Map<String, List<String>> map = new HashMap<>();
-    private List<String> all = List.of();
+    /** null means: follow the shared {@link CompletionEngine} */
+    private volatile CompletionEngine engine;
+
+    /** An index that always reads the shared completion engine, so it needs no build of its own. */
+    public static PrefixIndex shared() {
+        return new PrefixIndex(null);
+    }
+
+    public PrefixIndex() {
+        this(CompletionEngine.build(List.of()));
+    }
+
+    private PrefixIndex(CompletionEngine engine) {
+        this.engine = engine;
+    }
 
     /** Build once from all SUMO words (predicates, classes, functions, constants, keywords). */
     public void build(List<String> words) {
-        map.clear();
-        all = new ArrayList<>(words);
-        for (String w : words) {
-            if (w == null || w.isEmpty()) continue;
-            String s = w.toLowerCase(Locale.ROOT);
-            int max = Math.min(4, s.length());
-            for (int i = 1; i <= max; i++) {
-                String p = s.substring(0, i);
-                map.computeIfAbsent(p, k -> new ArrayList<>()).add(w);
-            }
-        }
-        // sort each bucket for stable, nice ordering
-        for (List<String> bucket : map.values()) {
-            bucket.sort(String.CASE_INSENSITIVE_ORDER);
-        }
+        engine = CompletionEngine.build(words);
+    }
+
+    private CompletionEngine engine() {
+        CompletionEngine e = engine;
+        return (e != null) ? e : CompletionEngine.shared();
     }
 
-    /** Fast suggestions for the current token. */
+    /** Fast suggestions for the current token, case-insensitive, in CASE_INSENSITIVE_ORDER. */
     public List<String> suggest(String typed, int limit) {
         if (typed == null || typed.isEmpty()) return List.of();
-        String key = typed.toLowerCase(Locale.ROOT);
-        if (key.length() > 4) key = key.substring(0, 4);
-        List<String> bucket = map.getOrDefault(key, List.of());
+        return engine().complete(typed, limit);
+    }
 
-        // If user typed >4 chars, narrow inside the bucket.
-        if (typed.length() > 4) {
-            String low = typed.toLowerCase(Locale.ROOT);
-            List<String> out = new ArrayList<>();
-            for (String w : bucket) {
-                if (w.toLowerCase(Locale.ROOT).startsWith(low)) {
-                    out.add(w);
-                    if (out.size() >= limit) break;
-                }
-            }
-            return out;
-        }
-        // Otherwise just cap the bucket.
-        return bucket.size() <= limit ? bucket : bucket.subList(0, limit);
+    /** Every term starting with typed, case-insensitive, decoded as it is iterated; for ranking a whole range. */
+    public Iterable<String> matches(String typed) {
+        if (typed == null || typed.isEmpty()) return List.of();
+        return engine().withPrefix(typed, false);
     }
 
-    /** Optional: small-typo fallback when bucket is empty. */
-    public List<String> fuzzy(String typed, int limit) {
-        if (typed == null || typed.length() < 3) return List.of();
-        String low = typed.toLowerCase(Locale.ROOT);
-        List<Map.Entry<String,Integer>> scored = new ArrayList<>();
-        for (String w : all) {
-            String lw = w.toLowerCase(Locale.ROOT);
-            int d = boundedEditDistance(low, lw, 2); // only small typos
-            if (d >= 0) scored.add(Map.entry(w, d));
-        }
-        scored.sort(Comparator.<Map.Entry<String,Integer>>comparingInt(Map.Entry::getValue)
-                .thenComparing(e -> e.getKey(), String.CASE_INSENSITIVE_ORDER));
-        List<String> out = new ArrayList<>(Math.min(limit, scored.size()));
-        for (int i = 0; i < Math.min(limit, scored.size()); i++) out.add(scored.get(i).getKey());
-        return out;
+    /** Terms matching typed by an inner CamelCase word or by initials, e.g. "OrgProc"; not those that start with it. */
+    public List<String> subwords(String typed, int limit) {
+        if (typed == null || typed.isEmpty()) return List.of();
+        return engine().subwords(typed, limit);
     }
 
-    private static int boundedEditDistance(String a, String b, int bound) {
-        int n=a.length(), m=b.length();
-        if (Math.abs(n-m) > bound) return -1;
-        int[] prev = new int[m+1], curr = new int[m+1];
-        for (int j=0;j<=m;j++) prev[j]=j;
-        for (int i=1;i<=n;i++){
-            curr[0]=i; int rowMin=curr[0];
-            char ca=a.charAt(i-1);
-            for (int j=1;j<=m;j++){
-                int cost=(ca==b.charAt(j-1))?0:1;
-                int v=Math.min(Math.min(curr[j-1]+1, prev[j]+1), prev[j-1]+cost);
-                curr[j]=v; if (v<rowMin) rowMin=v;
-            }
-            if (rowMin>bound) return -1;
-            int[] t=prev; prev=curr; curr=t;
-        }
-        return prev[m] <= bound ? prev[m] : -1;
+    /** Small-typo fallback when bucket is empty: terms within edit distance 2, nearest first. */
+    public List<String> fuzzy(String typed, int limit) {
+        if (typed == null || typed.length() < 3) return List.of();
+        return engine().similar(typed, limit);
     }
 
     // Return up to 'limit' suggestions for the given prefix.
     public java.util.List<String> lookup(String prefix, int limit) {
-        java.util.List<String> all = lookup(prefix);  // use the existing all-matches method
-        if (all == null || all.isEmpty() || limit >= all.size()) return all;
-        return new java.util.ArrayList<>(all.subList(0, limit));
+        return suggest(prefix, limit);
     }
 
     public java.util.List<String> lookup(String prefix) {
-        return lookup(prefix, Integer.MAX_VALUE);
+        return suggest(prefix, Integer.MAX_VALUE);
     }
 }
@@ -0,0 +1,209 @@
+package com.articulate.sigma.jedit.fastac;
+
+import java.util.*;
+
+/**
+ * Completion by the inner words of CamelCase and hyphenated terms, for the
+ * long SUMO names that a plain prefix search only finds from the start.
+ *
+ * - Every segment after the first (a CamelCase word, or the text after a
+ *   '-' or '_') is a key: "Assess" and "AssessmentAttr" both find
+ *   SubjectiveAssessmentAttribute.
+ * - The initials of the segments, from any segment on, are keys too, so
+ *   a query in chunks ("SAA", "OrgProc", "AssessAttr") finds the terms whose
+ *   consecutive segments start with those chunks.
+ *
+ * Both kinds of key are kept as sorted int[]s of (term, position) pairs and
+ * compared against the terms themselves, so the index adds no strings
+ * beyond one short initials string per multi-segment term. A lookup is a
+ * binary search per key kind, case-insensitive, plus a check of the chunks
+ * for the initials matches.
+ *
+ * Immutable and thread safe.
+ */
+public final class SubwordIndex {
+
+    /** segments and terms past this many chars are not indexed */
+    private static final int MAX_OFFSET = 255;
+
+    private final String[] terms;
+    /** initials of each term's segments, null for single-segment terms */
+    private final String[] initials;
+    /** (term << 8 | char offset of a segment), sorted by the term text from that offset */
+    private final int[] segments;
+    /** (term << 8 | segment number), sorted by the term's initials from that segment */
+    private final int[] acronyms;
+
+    private SubwordIndex(String[] terms, String[] initials, int[] segments, int[] acronyms) {
+        this.terms = terms;
+        this.initials = initials;
+        this.segments = segments;
+        this.acronyms = acronyms;
+    }
+
+    public static SubwordIndex of(Collection<String> words) {
+        return of(TermDictionary.of(words));
+    }
+
+    public static SubwordIndex of(TermDictionary dictionary) {
+        String[] terms = dictionary.toList().toArray(new String[0]);
+        String[] initials = new String[terms.length];
+        List<Integer> segs = new ArrayList<>();
+        List<Integer> acr = new ArrayList<>();
+        for (int id = 0; id < terms.length && id < (1 << 23); id++) {
+            int[] starts = starts(terms[id]);
+            if (starts.length < 2) continue;
+            StringBuilder sb = new StringBuilder(starts.length);
+            for (int s : starts) sb.append(terms[id].charAt(s));
+            initials[id] = sb.toString();
+            for (int k = 0; k < starts.length; k++) {
+                if (starts[k] > MAX_OFFSET) break;
+                if (k > 0) segs.add(id << 8 | starts[k]);
+                if (k < starts.length - 1) acr.add(id << 8 | k);
+            }
+        }
+        int[] segments = sort(segs, (a, b) -> compareFolded(terms[a >>> 8], a & 0xff, terms[b >>> 8], b & 0xff));
+        int[] acronyms = sort(acr, (a, b) -> compareFolded(initials[a >>> 8], a & 0xff, initials[b >>> 8], b & 0xff));
+        return new SubwordIndex(terms, initials, segments, acronyms);
+    }
+
+    /**
+     * Up to 'limit' terms, other than those that start with query, with a
+     * segment that starts with query or with segments whose initials and
+     * starts match query's chunks; ignoring case, in no particular order.
+     */
+    public List<String> complete(String query, int limit) {
+        if (query == null || query.isEmpty() || limit <= 0) return Collections.emptyList();
+        LinkedHashSet<String> out = new LinkedHashSet<>();
+        int from = lowerBound(segments, query, false);
+        for (int i = from; i < segments.length && out.size() < limit; i++) {
+            String t = terms[segments[i] >>> 8];
+            if (!t.regionMatches(true, segments[i] & 0xff, query, 0, query.length())) break;
+            if (!t.regionMatches(true, 0, query, 0, query.length())) out.add(t);
+        }
+        int[] chunks = chunks(query);
+        if (chunks.length < 2 || out.size() >= limit) return new ArrayList<>(out);
+        StringBuilder sb = new StringBuilder(chunks.length);
+        for (int c : chunks) sb.append(query.charAt(c));
+        String key = sb.toString();
+        from = lowerBound(acronyms, key, true);
+        for (int i = from; i < acronyms.length && out.size() < limit; i++) {
+            int id = acronyms[i] >>> 8;
+            if (!initials[id].regionMatches(true, acronyms[i] & 0xff, key, 0, key.length())) break;
+            String t = terms[id];
+            if (!t.regionMatches(true, 0, query, 0, query.length()) && chunksMatch(t, acronyms[i] & 0xff, query, chunks))
+                out.add(t);
+        }
+        return new ArrayList<>(out);
+    }
+
+    public int size() {
+        return terms.length;
+    }
+
+    /** Rough heap footprint of the keys, in bytes (the terms are shared). */
+    public long estimatedBytes() {
+        long b = 16L + 4L * terms.length + 16L + 4L * initials.length + 32L + 4L * (segments.length + acronyms.length);
+        for (String s : initials) {
+            if (s != null) b += 40 + s.length();
+        }
+        return b;
+    }
+
+    /**
+     * Start offsets of the segments of s: a new segment begins at an upper
+     * case letter after a lower case letter or digit, at the last capital
+     * of a run followed by lower case ("TPTPFormula"), and after '-' or '_'.
+     */
+    static int[] starts(String s) {
+        int[] out = new int[Math.min(s.length(), 16)];
+        int n = 0;
+        boolean open = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '-' || c == '_') {
+                open = false;
+                continue;
+            }
+            boolean boundary = !open;
+            if (open && Character.isUpperCase(c)) {
+                char p = s.charAt(i - 1);
+                boundary = Character.isLowerCase(p) || Character.isDigit(p)
+                        || (Character.isUpperCase(p) && i + 1 < s.length() && Character.isLowerCase(s.charAt(i + 1)));
+            }
+            if (boundary) {
+                if (n == out.length) out = Arrays.copyOf(out, n * 2);
+                out[n++] = i;
+            }
+            open = true;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Start offsets of the chunks of a query: every capital starts one, so
+     * "SAA" is three chunks where a term's "TPTP" is one segment, and so
+     * does the text after '-' or '_'.
+     */
+    static int[] chunks(String q) {
+        int[] out = new int[q.length()];
+        int n = 0;
+        boolean open = false;
+        for (int i = 0; i < q.length(); i++) {
+            char c = q.charAt(i);
+            if (c == '-' || c == '_') {
+                open = false;
+                continue;
+            }
+            if (!open || Character.isUpperCase(c)) out[n++] = i;
+            open = true;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Whether each chunk of query starts the matching segment of t, from
+     * segment 'first' on.
+     */
+    private static boolean chunksMatch(String t, int first, String query, int[] chunks) {
+        int[] segs = starts(t);
+        if (first + chunks.length > segs.length) return false;
+        for (int k = 0; k < chunks.length; k++) {
+            int end = (k + 1 < chunks.length) ? chunks[k + 1] : query.length();
+            int len = end - chunks[k];
+            while (len > 0 && (query.charAt(chunks[k] + len - 1) == '-' || query.charAt(chunks[k] + len - 1) == '_')) len--;
+            if (!t.regionMatches(true, segs[first + k], query, chunks[k], len)) return false;
+        }
+        return true;
+    }
+
+    /** First entry whose key is not less than query, ignoring case. */
+    private int lowerBound(int[] entries, String query, boolean byInitials) {
+        int lo = 0, hi = entries.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int e = entries[mid];
+            String s = byInitials ? initials[e >>> 8] : terms[e >>> 8];
+            if (compareFolded(s, e & 0xff, query, 0) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /** Compare a from offset i with b from offset j, as String.CASE_INSENSITIVE_ORDER does. */
+    private static int compareFolded(String a, int i, String b, int j) {
+        int n = a.length() - i, m = b.length() - j;
+        for (int k = 0, lim = Math.min(n, m); k < lim; k++) {
+            char x = TermDictionary.fold(a.charAt(i + k)), y = TermDictionary.fold(b.charAt(j + k));
+            if (x != y) return x - y;
+        }
+        return n - m;
+    }
+
+    private static int[] sort(List<Integer> entries, Comparator<Integer> order) {
+        entries.sort(order);
+        int[] out = new int[entries.size()];
+        for (int i = 0; i < out.length; i++) out[i] = entries.get(i);
+        return out;
+    }
+}
@@ -0,0 +1,82 @@
+package com.articulate.sigma.jedit.fastac;
+
+import javax.swing.AbstractListModel;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The list model behind the completion popup: a view of one result list,
+ * swapped whole on each refresh instead of being rebuilt element by element.
+ *
+ * - setItems() keeps a reference to the new results, so the lists handed
+ *   in must not change afterwards (the lookups hand over immutable lists).
+ * - Only the rows between the unchanged head and tail of the old and new
+ *   results are reported to the JList, as at most one contentsChanged plus
+ *   one intervalAdded or intervalRemoved, so a refresh repaints the rows
+ *   that changed rather than all of them.
+ * - widest() is the longest result since the last reset, measured only
+ *   over the rows that change, for the JList's prototype cell; the list then
+ *   lays out from that one cell instead of measuring every row.
+ *
+ * EDT only, like the JList it feeds.
+ */
+public final class SuggestionListModel extends AbstractListModel<String> {
+
+    private List<String> items = Collections.emptyList();
+    private String widest = "";
+
+    @Override
+    public int getSize() {
+        return items.size();
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return items.get(index);
+    }
+
+    public List<String> items() {
+        return items;
+    }
+
+    /** The longest result since the last reset, "" if there were none. */
+    public String widest() {
+        return widest;
+    }
+
+    /**
+     * Show 'next' in place of the current results.
+     * @param reset forget the widest result so far, e.g. when the popup opens
+     */
+    public void setItems(List<String> next, boolean reset) {
+        if (next == null) next = Collections.emptyList();
+        List<String> prev = items;
+        items = next;
+        if (reset) {
+            // starting over: measure every row once
+            widest = "";
+            for (String s : next) if (s.length() > widest.length()) widest = s;
+        }
+        if (next == prev) return;
+
+        int n = prev.size(), m = next.size();
+        int head = 0;
+        while (head < n && head < m && prev.get(head).equals(next.get(head))) head++;
+        int tail = 0;
+        while (tail < n - head && tail < m - head
+                && prev.get(n - 1 - tail).equals(next.get(m - 1 - tail))) tail++;
+
+        int removed = n - head - tail;
+        int added = m - head - tail;
+        if (!reset) {
+            for (int i = head; i < head + added; i++) {
+                if (next.get(i).length() > widest.length()) widest = next.get(i);
+            }
+        }
+
+        int common = Math.min(removed, added);
+        if (common > 0) fireContentsChanged(this, head, head + common - 1);
+        if (added > removed) fireIntervalAdded(this, head + common, head + added - 1);
+        else if (removed > added) fireIntervalRemoved(this, head + common, head + removed - 1);
+    }
+}
@@ -3,7 +3,7 @@ package com.articulate.sigma.jedit.fastac;
 import java.util.*;
 
 public class SumoWords {
-    /** TODO: replace with real extraction from your KB loader. */
+    /** Placeholder vocabulary until {@link KBVocabulary} publishes the KB's terms. */
     public static List<String> all() {
         // start small; add more terms anytime
         return List.of(
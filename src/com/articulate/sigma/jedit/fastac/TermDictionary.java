@@ -0,0 +1,337 @@
+package com.articulate.sigma.jedit.fastac;
+
+import java.util.*;
+
+/**
+ * Compact, immutable dictionary of sorted terms for prefix completion.
+ *
+ * - Terms are front-coded: each one stores only the characters that differ
+ *   from the term before it, in a single char[]. Every BLOCK-th term is
+ *   stored in full so a block can be decoded on its own.
+ * - Terms are sorted case-insensitively (then case-sensitively), so all terms
+ *   with a case-folded prefix form one contiguous range. The range is found
+ *   by binary search over the block heads plus a scan of one block.
+ * - Queries decode into a per-thread scratch buffer; the only allocations are
+ *   the result strings and the list they go into.
+ *
+ * Entry layout in {@code data}: [shared prefix length][suffix length][suffix chars].
+ */
+public final class TermDictionary {
+
+    /** terms per block; each block starts with a term stored in full */
+    static final int BLOCK = 16;
+
+    private static final ThreadLocal<char[]> SCRATCH = ThreadLocal.withInitial(() -> new char[64]);
+
+    private final char[] data;
+    /** offset in data of the first entry of each block */
+    private final int[] blocks;
+    private final int size;
+    private final int maxLength;
+
+    /** Build a dictionary from any words; null, empty and duplicate words are dropped. */
+    public static TermDictionary of(Collection<String> words) {
+        if (words == null || words.isEmpty()) return new TermDictionary(new String[0]);
+        String[] a = new String[words.size()];
+        int n = 0;
+        for (String w : words) {
+            if (w != null && !w.isEmpty()) a[n++] = w;
+        }
+        Arrays.sort(a, 0, n, CompletionEngine.ORDER);
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (m == 0 || !a[i].equals(a[m - 1])) a[m++] = a[i];
+        }
+        return new TermDictionary(Arrays.copyOf(a, m));
+    }
+
+    /**
+     * @param sorted distinct terms in {@link CompletionEngine#ORDER}; terms
+     *               longer than 65535 chars are dropped
+     */
+    private TermDictionary(String[] sorted) {
+        StringBuilder sb = new StringBuilder();
+        int[] heads = new int[(sorted.length + BLOCK - 1) / BLOCK];
+        String prev = "";
+        int n = 0, max = 0;
+        for (String t : sorted) {
+            if (t.length() > Character.MAX_VALUE) continue;
+            int shared = 0;
+            if (n % BLOCK == 0) heads[n / BLOCK] = sb.length();
+            else {
+                int lim = Math.min(prev.length(), t.length());
+                while (shared < lim && prev.charAt(shared) == t.charAt(shared)) shared++;
+            }
+            sb.append((char) shared).append((char) (t.length() - shared)).append(t, shared, t.length());
+            max = Math.max(max, t.length());
+            prev = t;
+            n++;
+        }
+        this.data = new char[sb.length()];
+        sb.getChars(0, sb.length(), data, 0);
+        this.blocks = Arrays.copyOf(heads, (n + BLOCK - 1) / BLOCK);
+        this.size = n;
+        this.maxLength = max;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Heap footprint of the encoded data, in bytes. */
+    public long estimatedBytes() {
+        return 16L + 2L * data.length + 16L + 4L * blocks.length + 32L;
+    }
+
+    /** The i-th term in sorted order. */
+    public String get(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException(i + " of " + size);
+        char[] buf = scratch();
+        int p = blocks[i / BLOCK], len = 0;
+        for (int k = i - i % BLOCK; k <= i; k++) {
+            len = data[p] + data[p + 1];
+            System.arraycopy(data, p + 2, buf, data[p], data[p + 1]);
+            p += 2 + data[p + 1];
+        }
+        return new String(buf, 0, len);
+    }
+
+    /** Every term, decoded, in sorted order. */
+    public List<String> toList() {
+        List<String> out = new ArrayList<>(size);
+        complete("", Integer.MAX_VALUE, false, out);
+        return out;
+    }
+
+    /** Index of the exact (case-sensitive) term, or -1. */
+    public int indexOf(String term) {
+        if (term == null) return -1;
+        char[] buf = scratch();
+        int i = rangeStart(term);
+        if (i >= size) return -1;
+        int p = entryOffset(i, buf), len = 0;
+        for (; i < size; i++) {
+            len = data[p] + data[p + 1];
+            System.arraycopy(data, p + 2, buf, data[p], data[p + 1]);
+            p += 2 + data[p + 1];
+            if (compareFolded(buf, len, term) != 0) return -1;
+            if (len == term.length() && equals(buf, term)) return i;
+        }
+        return -1;
+    }
+
+    /** Index of the first term not below prefix, ignoring case. */
+    public int rangeStart(String prefix) {
+        int lo = 0, hi = blocks.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareFolded(data, blocks[mid] + 2, data[blocks[mid] + 1], prefix) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        if (lo == 0) return 0;
+        // the answer lies in block lo-1 or is the head of block lo
+        int b = lo - 1;
+        char[] buf = scratch();
+        int p = blocks[b];
+        int end = Math.min(size, (b + 1) * BLOCK);
+        for (int i = b * BLOCK; i < end; i++) {
+            int len = data[p] + data[p + 1];
+            System.arraycopy(data, p + 2, buf, data[p], data[p + 1]);
+            p += 2 + data[p + 1];
+            if (compareFolded(buf, len, prefix) >= 0) return i;
+        }
+        return end;
+    }
+
+    /** Index just past the last term that starts with prefix, ignoring case. */
+    public int rangeEnd(String prefix) {
+        int lo = 0, hi = blocks.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int off = blocks[mid] + 2, len = data[blocks[mid] + 1];
+            if (compareFolded(data, off, len, prefix) < 0 || startsWithFolded(data, off, len, prefix)) lo = mid + 1;
+            else hi = mid;
+        }
+        if (lo == 0) return 0;
+        int b = lo - 1;
+        char[] buf = scratch();
+        int p = blocks[b];
+        int end = Math.min(size, (b + 1) * BLOCK);
+        for (int i = b * BLOCK; i < end; i++) {
+            int len = data[p] + data[p + 1];
+            System.arraycopy(data, p + 2, buf, data[p], data[p + 1]);
+            p += 2 + data[p + 1];
+            if (compareFolded(buf, len, prefix) > 0 && !startsWithFolded(buf, 0, len, prefix)) return i;
+        }
+        return end;
+    }
+
+    /**
+     * Add up to 'limit' terms starting with prefix to out, in sorted order.
+     * Case-insensitive unless caseSensitive is set.
+     * @return the number of terms added
+     */
+    public int complete(String prefix, int limit, boolean caseSensitive, List<String> out) {
+        if (prefix == null || limit <= 0 || size == 0) return 0;
+        char[] buf = scratch();
+        int i = rangeStart(prefix);
+        if (i >= size) return 0;
+        int p = entryOffset(i, buf), added = 0;
+        for (; i < size && added < limit; i++) {
+            int len = data[p] + data[p + 1];
+            System.arraycopy(data, p + 2, buf, data[p], data[p + 1]);
+            p += 2 + data[p + 1];
+            if (!startsWithFolded(buf, 0, len, prefix)) break;
+            if (caseSensitive && !startsWith(buf, len, prefix)) continue;
+            out.add(new String(buf, 0, len));
+            added++;
+        }
+        return added;
+    }
+
+    /**
+     * Every term starting with prefix, in sorted order, decoded as the
+     * iteration reaches it, so a whole range can be ranked without
+     * collecting it. Case-insensitive unless caseSensitive is set. Each
+     * iterator decodes into a buffer of its own.
+     */
+    public Iterable<String> withPrefix(String prefix, boolean caseSensitive) {
+        if (prefix == null || size == 0) return Collections.emptyList();
+        return () -> new Iterator<String>() {
+            private final char[] buf = new char[Math.max(1, maxLength)];
+            private int i = rangeStart(prefix);
+            private int p = (i < size) ? entryOffset(i, buf) : 0;
+            private String next = advance();
+
+            private String advance() {
+                while (i < size) {
+                    int len = data[p] + data[p + 1];
+                    System.arraycopy(data, p + 2, buf, data[p], data[p + 1]);
+                    p += 2 + data[p + 1];
+                    i++;
+                    if (!startsWithFolded(buf, 0, len, prefix)) {
+                        i = size;
+                        return null;
+                    }
+                    if (!caseSensitive || startsWith(buf, len, prefix)) return new String(buf, 0, len);
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (next == null) throw new NoSuchElementException();
+                String t = next;
+                next = advance();
+                return t;
+            }
+        };
+    }
+
+    /**
+     * The shortest term longer than prefix that starts with it, ignoring
+     * case; ties go to the term that is smaller case-sensitively.
+     */
+    public String shortestExtension(String prefix) {
+        if (prefix == null || prefix.isEmpty() || size == 0) return null;
+        char[] buf = scratch();
+        int i = rangeStart(prefix);
+        if (i >= size) return null;
+        int p = entryOffset(i, buf);
+        String best = null;
+        for (; i < size; i++) {
+            int len = data[p] + data[p + 1];
+            System.arraycopy(data, p + 2, buf, data[p], data[p + 1]);
+            p += 2 + data[p + 1];
+            if (!startsWithFolded(buf, 0, len, prefix)) break;
+            if (len <= prefix.length()) continue;
+            if (best == null || len < best.length() || (len == best.length() && compare(buf, len, best) < 0)) {
+                best = new String(buf, 0, len);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Decode the terms of i's block that come before i into buf, so the
+     * caller can continue decoding at term i.
+     * @return the offset of term i's entry
+     */
+    private int entryOffset(int i, char[] buf) {
+        int p = blocks[i / BLOCK];
+        for (int k = i - i % BLOCK; k < i; k++) {
+            System.arraycopy(data, p + 2, buf, data[p], data[p + 1]);
+            p += 2 + data[p + 1];
+        }
+        return p;
+    }
+
+    private char[] scratch() {
+        char[] buf = SCRATCH.get();
+        if (buf.length < maxLength) {
+            buf = new char[Math.max(maxLength, buf.length * 2)];
+            SCRATCH.set(buf);
+        }
+        return buf;
+    }
+
+    /** Case folding as done by String.CASE_INSENSITIVE_ORDER and regionMatches(true, ...). */
+    static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /** Compare chars [off, off+len) with s the way String.CASE_INSENSITIVE_ORDER does. */
+    private static int compareFolded(char[] a, int off, int len, String s) {
+        int n = Math.min(len, s.length());
+        for (int k = 0; k < n; k++) {
+            char x = a[off + k], y = s.charAt(k);
+            if (x != y) {
+                x = fold(x); y = fold(y);
+                if (x != y) return x - y;
+            }
+        }
+        return len - s.length();
+    }
+
+    private static int compareFolded(char[] a, int len, String s) {
+        return compareFolded(a, 0, len, s);
+    }
+
+    private static boolean startsWithFolded(char[] a, int off, int len, String prefix) {
+        if (len < prefix.length()) return false;
+        for (int k = 0; k < prefix.length(); k++) {
+            char x = a[off + k], y = prefix.charAt(k);
+            if (x != y && fold(x) != fold(y)) return false;
+        }
+        return true;
+    }
+
+    private static boolean startsWith(char[] a, int len, String prefix) {
+        if (len < prefix.length()) return false;
+        for (int k = 0; k < prefix.length(); k++) {
+            if (a[k] != prefix.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    private static boolean equals(char[] a, String s) {
+        for (int k = 0; k < s.length(); k++) {
+            if (a[k] != s.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    /** Case-sensitive compare, as String.compareTo. */
+    private static int compare(char[] a, int len, String s) {
+        int n = Math.min(len, s.length());
+        for (int k = 0; k < n; k++) {
+            if (a[k] != s.charAt(k)) return a[k] - s.charAt(k);
+        }
+        return len - s.length();
+    }
+}
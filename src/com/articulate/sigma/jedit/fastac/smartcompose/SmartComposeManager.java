@@ -1,10 +1,12 @@
 package com.articulate.sigma.jedit.fastac.smartcompose;
 
 import org.gjt.sp.jedit.textarea.TextArea;
+import com.articulate.sigma.jedit.fastac.CompletionRanker;
 
 public final class SmartComposeManager {
     private final TextArea ta;
     private String tail = "";
+    private String term;
     private int tailStart = -1;
 
     SmartComposeManager(TextArea ta) { this.ta = ta; }
@@ -14,6 +16,7 @@ public final class SmartComposeManager {
 
     void clear() {
         tail = "";
+        term = null;
         tailStart = -1;
         ta.getPainter().repaint();
     }
@@ -38,6 +41,7 @@ public final class SmartComposeManager {
         if (t.length() > 60) t = t.substring(0, 60);
 
         this.tail = t;
+        this.term = bestFull.substring(TopCompletionAdapter.wordStart(prefix));
         this.tailStart = caret;
         ta.getPainter().repaint();
     }
@@ -45,6 +49,7 @@ public final class SmartComposeManager {
     public boolean accept() {
         if (tail == null || tail.isEmpty()) return false;
         ta.getBuffer().insert(ta.getCaretPosition(), tail);
+        CompletionRanker.accepted(term);
         clear();
         return true;
     }
@@ -1,62 +1,61 @@
 package com.articulate.sigma.jedit.fastac.smartcompose;
 
 import org.gjt.sp.jedit.textarea.TextArea;
-import com.articulate.sigma.jedit.fastac.SumoWords;
+import com.articulate.sigma.jedit.BufferTokens;
+import com.articulate.sigma.jedit.fastac.CompletionRanker;
+import com.articulate.sigma.jedit.fastac.KBVocabulary;
 
-import java.util.Collection;
+import java.util.List;
 
 final class TopCompletionAdapter {
 
-    /** Return the best full completion for prefix, or null. */
+    /**
+     * Return the best full completion for prefix, or null. prefix may be
+     * the whole line up to the caret; only its last word is completed.
+     */
     static String bestFull(TextArea ta, String prefix) {
         if (prefix == null || prefix.isEmpty()) return null;
+        int start = wordStart(prefix);
+        String word = prefix.substring(start);
+        if (word.isEmpty()) return null;
+        String head = prefix.substring(0, start);
 
-        // 1) Try the shared vocabulary
+        // 1) Try the KB vocabulary (SumoWords until the KB is loaded), best ranked first;
+        //    the start of the prefix range is streamed through the ranker, which keeps only the best
+        int pool = CompletionRanker.pool(1);
         try {
-            Collection<String> vocab = SumoWords.all(); // same call used by FastACBootstrap
-            if (vocab != null) {
-                String best = null;
-                for (String w : vocab) {
-                    if (w != null && w.startsWith(prefix)) {
-                        if (best == null || better(prefix, w, best)) best = w;
-                    }
-                }
-                if (best != null) return best;
+            CompletionRanker.Selector ranked = CompletionRanker.shared().selector(word, 1,
+                    CompletionRanker.slotAt(prefix, start), null);
+            int n = 0;
+            for (String cand : KBVocabulary.current().withPrefix(word, true)) {
+                if (n++ == pool) break;
+                if (cand.length() > word.length()) ranked.offer(cand);
             }
+            List<String> top = ranked.result();
+            if (!top.isEmpty()) return head + top.get(0);
         } catch (Throwable ignored) {
         }
 
-        // 2) Fallback: scan current buffer tokens
+        // 2) Fallback: the buffer's tokens, kept current from edits so nothing is rescanned
         try {
-            String text = ta.getBuffer().getText(0, ta.getBuffer().getLength());
             String best = null;
-            int n = text.length(), i = 0;
-            while (i < n) {
-                while (i < n && !isWord(text.charAt(i))) i++;
-                int start = i;
-                while (i < n && isWord(text.charAt(i))) i++;
-                int end = i;
-                if (end > start) {
-                    int len = end - start;
-                    if (len >= prefix.length()) {
-                        boolean match = true;
-                        for (int k = 0; k < prefix.length(); k++) {
-                            if (text.charAt(start + k) != prefix.charAt(k)) { match = false; break; }
-                        }
-                        if (match) {
-                            String cand = text.substring(start, end);
-                            if (best == null || better(prefix, cand, best)) best = cand;
-                        }
-                    }
-                }
+            for (String cand : BufferTokens.of(ta.getBuffer()).complete(word, pool, true)) {
+                if (cand.length() > word.length() && (best == null || better(word, cand, best))) best = cand;
             }
-            return best;
+            if (best != null) return head + best;
         } catch (Throwable ignored) {
         }
 
         return null;
     }
 
+    /** Start of the word that ends prefix. */
+    static int wordStart(String prefix) {
+        int i = prefix.length();
+        while (i > 0 && isWord(prefix.charAt(i - 1))) i--;
+        return i;
+    }
+
     private static boolean isWord(char c) {
         return Character.isLetterOrDigit(c) || c == '_' || c == '-';
     }
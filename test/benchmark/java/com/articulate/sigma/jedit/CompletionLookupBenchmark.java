@@ -0,0 +1,128 @@
+package com.articulate.sigma.jedit;
+
+import com.articulate.sigma.jedit.fastac.CompletionEngine;
+import com.articulate.sigma.jedit.fastac.CompletionRanker;
+import com.articulate.sigma.jedit.fastac.KifTermIndex;
+import com.articulate.sigma.jedit.fastac.TermDictionary;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of "first K terms with prefix P" over a KB-sized
+ * vocabulary: the bucketed {@link SuggestionIndex#startsWith} against
+ * the front-coded {@link TermDictionary} behind {@link CompletionEngine}.
+ * rankedGhostCompletion measures what the ghost text does per keystroke:
+ * fetch a pool of matches from the engine and rank it for the best one.
+ * kifTermIndexSuggest streams the matching range of {@link KifTermIndex}'s
+ * sorted set, whose cost should follow the limit, not the vocabulary.
+ *
+ * The vocabulary is synthetic but shaped like SUMO: CamelCase class
+ * names, lowerCamel relations and Fn-suffixed functions built from a
+ * fixed word list, so runs are reproducible without a KB on disk.
+ *
+ * Run with: ant bench   (or ant bench -Dbench.args="-prof gc" to see
+ * allocation per query)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompletionLookupBenchmark {
+
+    private static final String[] WORDS = {
+        "Animal", "Agent", "Artifact", "Attribute", "Body", "Building", "Cell", "Chemical",
+        "Color", "Computer", "Device", "Disease", "Entity", "Event", "Food", "Function",
+        "Geographic", "Group", "Human", "Information", "Language", "Location", "Machine",
+        "Measure", "Motion", "Number", "Object", "Organism", "Organization", "Part",
+        "Physical", "Plant", "Process", "Property", "Quantity", "Region", "Relation",
+        "Role", "Set", "Shape", "Social", "Substance", "System", "Text", "Time", "Unit",
+        "Vehicle", "Water", "Weapon", "Weather"
+    };
+
+    /** number of terms in the vocabulary; SUMO with its domain ontologies has a few hundred thousand */
+    @Param({"100000"})
+    public int vocabulary;
+
+    /** typed prefix; short prefixes match many terms, long ones few */
+    @Param({"a", "or", "Phy", "instan", "humanbod"})
+    public String prefix;
+
+    @Param({"20"})
+    public int limit;
+
+    private SuggestionIndex suggestionIndex;
+    private TermDictionary dictionary;
+    private CompletionEngine engine;
+    private CompletionRanker ranker;
+    private KifTermIndex kifTermIndex;
+
+    @Setup
+    public void setUp() {
+        List<String> terms = vocabulary(vocabulary);
+        suggestionIndex = new SuggestionIndex();
+        suggestionIndex.addAllKB(terms);
+        dictionary = TermDictionary.of(terms);
+        engine = CompletionEngine.build(terms);
+        Map<String, Integer> frequency = new HashMap<>();
+        Random rnd = new Random(2);
+        for (String t : terms) frequency.put(t, rnd.nextInt(1000));
+        ranker = CompletionRanker.of(frequency, null);
+        kifTermIndex = KifTermIndex.get();
+        try {
+            Field f = KifTermIndex.class.getDeclaredField("terms");
+            f.setAccessible(true);
+            ConcurrentSkipListSet<String> set = new ConcurrentSkipListSet<>(String.CASE_INSENSITIVE_ORDER);
+            set.addAll(terms);
+            f.set(kifTermIndex, set);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static List<String> vocabulary(int n) {
+        Random rnd = new Random(1);
+        LinkedHashSet<String> out = new LinkedHashSet<>(Arrays.asList("instance", "subclass", "domain", "range"));
+        while (out.size() < n) {
+            StringBuilder sb = new StringBuilder();
+            int parts = 1 + rnd.nextInt(3);
+            for (int i = 0; i < parts; i++) sb.append(WORDS[rnd.nextInt(WORDS.length)]);
+            switch (rnd.nextInt(4)) {
+                case 0: sb.setCharAt(0, Character.toLowerCase(sb.charAt(0))); break;   // relation
+                case 1: sb.append("Fn"); break;                                        // function
+                default: break;                                                        // class
+            }
+            if (rnd.nextInt(3) == 0) sb.append(rnd.nextInt(100));
+            out.add(sb.toString());
+        }
+        return new ArrayList<>(out);
+    }
+
+    @Benchmark
+    public List<String> suggestionIndexStartsWith() {
+        return suggestionIndex.startsWith(prefix, limit, false);
+    }
+
+    @Benchmark
+    public List<String> termDictionaryComplete() {
+        List<String> out = new ArrayList<>(limit);
+        dictionary.complete(prefix, limit, false, out);
+        return out;
+    }
+
+    @Benchmark
+    public String rankedGhostCompletion() {
+        return ranker.best(engine.withPrefix(prefix, false), prefix, CompletionRanker.Slot.HEAD, null);
+    }
+
+    @Benchmark
+    public List<String> kifTermIndexSuggest() {
+        return kifTermIndex.suggest(prefix, limit);
+    }
+}
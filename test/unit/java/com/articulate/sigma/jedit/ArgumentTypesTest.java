@@ -0,0 +1,114 @@
+package com.articulate.sigma.jedit;
+
+import com.articulate.sigma.jedit.fastac.ArgumentTypes;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Standalone unit tests for {@link ArgumentTypes}, which restricts
+ * completion in an argument position to terms of the type the
+ * relation's signature expects.
+ *
+ * The tests cover:
+ *
+ *  - Finding the relation and argument number at an offset, across
+ *    nested lists, strings and comments.
+ *  - domain arguments offer instances of the class and its subclasses.
+ *  - domainSubclass arguments offer the class and its subclasses.
+ *  - Class-typed arguments offer every class.
+ *  - Entity, unknown relations and untyped arguments are not restricted.
+ */
+
+public class ArgumentTypesTest {
+
+    private ArgumentTypes types;
+
+    @Before
+    public void setUp() {
+        Map<String, List<String>> sigs = new HashMap<>();
+        sigs.put("instance", Arrays.asList("", "Entity", "SetOrClass"));
+        sigs.put("subclass", Arrays.asList("", "SetOrClass", "SetOrClass"));
+        sigs.put("birthdate", Arrays.asList("", "Human", "Day"));
+        sigs.put("hasPurpose", Arrays.asList("", "Physical", ""));
+        sigs.put("typicalPart", Arrays.asList("", "Object+", "Object+"));
+
+        Map<String, Set<String>> instanceOf = new HashMap<>();
+        instanceOf.put("Socrates", new HashSet<>(Arrays.asList("Man", "Human")));
+        instanceOf.put("Hypatia", new HashSet<>(Collections.singletonList("Woman")));
+        instanceOf.put("Sunday", new HashSet<>(Collections.singletonList("Day")));
+        instanceOf.put("instance", new HashSet<>(Collections.singletonList("BinaryPredicate")));
+
+        Map<String, Set<String>> subclasses = new HashMap<>();
+        subclasses.put("Entity", new HashSet<>(Arrays.asList("Physical", "Abstract")));
+        subclasses.put("Abstract", new HashSet<>(Collections.singletonList("SetOrClass")));
+        subclasses.put("SetOrClass", new HashSet<>(Collections.singletonList("Class")));
+        subclasses.put("Physical", new HashSet<>(Collections.singletonList("Object")));
+        subclasses.put("Object", new HashSet<>(Collections.singletonList("Human")));
+        subclasses.put("Human", new HashSet<>(Arrays.asList("Man", "Woman")));
+        types = ArgumentTypes.of(sigs, instanceOf, subclasses);
+    }
+
+    private static ArgumentTypes.Argument at(String text) {
+        return ArgumentTypes.argumentAt(text, text.length());
+    }
+
+    @Test
+    public void testArgumentAt() {
+        ArgumentTypes.Argument a = at("(birthdate ");
+        assertEquals("birthdate", a.relation);
+        assertEquals(1, a.index);
+        assertEquals(2, at("(birthdate Socrates ").index);
+        a = at("(=> (and (instance ?X Human) (birthdate ?X ");
+        assertEquals("birthdate", a.relation);
+        assertEquals(2, a.index);
+        assertEquals("instance", at("(=> (instance ?X ").relation);
+        assertEquals(3, at("(foo \"a (string) \\\" here\" ; comment (bar \n (x) ").index);
+        assertNull(at("("));
+        assertNull(at("(birthdate"));
+        assertNull(at("(birthdate Socrates) "));
+        assertNull(at("(?REL "));
+        assertNull(at("((foo) "));
+        assertNull(at("(birthdate \"open "));
+        assertNull(at("(birthdate ; comment "));
+        assertNull(ArgumentTypes.argumentAt(null, 0));
+        // the offset, not the end of the text, is where the term starts
+        assertEquals(1, ArgumentTypes.argumentAt("(birthdate Soc", 11).index);
+    }
+
+    @Test
+    public void testDomainOffersInstancesOfSubclasses() {
+        assertEquals(Arrays.asList("Hypatia", "Socrates"), types.complete("birthdate", 1, "", 10, false));
+        assertEquals(Collections.singletonList("Socrates"), types.complete("birthdate", 1, "so", 10, false));
+        assertEquals(Collections.emptyList(), types.complete("birthdate", 1, "so", 10, true));
+        assertEquals(Collections.singletonList("Sunday"), types.complete("birthdate", 2, "", 10, false));
+    }
+
+    @Test
+    public void testDomainSubclassOffersSubclasses() {
+        assertEquals("Object+", types.typeOf("typicalPart", 1));
+        assertEquals(Arrays.asList("Human", "Man", "Object", "Woman"), types.complete("typicalPart", 2, "", 10, false));
+    }
+
+    @Test
+    public void testClassArgumentsOfferEveryClass() {
+        List<String> classes = types.complete("instance", 2, "", 100, false);
+        assertTrue(classes.containsAll(Arrays.asList("Human", "Object", "Physical", "SetOrClass", "Entity")));
+        assertFalse(classes.contains("Socrates"));
+        assertEquals(classes, types.complete("subclass", 1, "", 100, false));
+    }
+
+    @Test
+    public void testUnrestrictedArguments() {
+        assertNull(types.complete("instance", 1, "S", 10, false));
+        assertNull(types.complete("hasPurpose", 2, "S", 10, false));
+        assertNull(types.complete("hasPurpose", 5, "S", 10, false));
+        assertNull(types.complete("unknownRelation", 1, "S", 10, false));
+        assertNull(types.members("birthdate", 0));
+        assertFalse(types.isEmpty());
+        assertTrue(ArgumentTypes.of(null, null, null).isEmpty());
+    }
+}
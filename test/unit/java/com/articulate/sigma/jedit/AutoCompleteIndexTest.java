@@ -1,9 +1,11 @@
 package com.articulate.sigma.jedit;
 
 import com.articulate.sigma.jedit.AutoCompleteManager;
+import com.articulate.sigma.jedit.fastac.CompletionEngine;
 import com.articulate.sigma.jedit.fastac.PrefixIndex;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -170,4 +172,27 @@ public class AutoCompleteIndexTest {
         List<String> out = si.startsWith("a", 2, false);
         assertEquals(2, out.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSuggestionIndexForEachStartingWithStopsAtLimit() {
+        SuggestionIndex si = new SuggestionIndex();
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 500; i++) words.add(String.format("Term%03d", i));
+        si.useKB(CompletionEngine.build(words));
+        for (int i = 0; i < 50; i++) si.add("termBuf" + i);
+
+        // at most limit from the KB, in sorted order, then at most limit buffer tokens
+        List<String> out = new ArrayList<>();
+        si.forEachStartingWith("term", false, 5, out::add);
+        assertEquals(Arrays.asList("Term000", "Term001", "Term002", "Term003", "Term004",
+                "termBuf0", "termBuf1", "termBuf2", "termBuf3", "termBuf4"), out);
+
+        out.clear();
+        si.forEachStartingWith("Term", true, 3, out::add);
+        assertEquals(Arrays.asList("Term000", "Term001", "Term002"), out);
+
+        out.clear();
+        si.forEachStartingWith("term", false, 0, out::add);
+        assertTrue(out.isEmpty());
+    }
+}
@@ -0,0 +1,113 @@
+package com.articulate.sigma.jedit;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Standalone unit tests for {@link BufferSnapshot}, the line-indexed
+ * copy of a buffer or file that diagnostics are resolved against
+ * before they are published to ErrorList.
+ *
+ * The tests cover:
+ *
+ *  - Line counting the way jEdit does it, including the empty last
+ *    line after a trailing newline.
+ *  - Line text and length without '\n' or "\r\n" terminators, and ""
+ *    for out-of-range lines.
+ *  - Widening a column to the end of the term it starts.
+ *  - Mapping offsets to lines by binary search, and finding the first
+ *    line that contains a string.
+ *  - Looking formulas up by their first line in the index of
+ *    top-level formula starts.
+ *  - Reading a file once, and {@code null} for a missing file.
+ */
+
+public class BufferSnapshotTest {
+
+    @Test
+    public void testLineCountMatchesJEdit() {
+        assertEquals(1, BufferSnapshot.of("").lineCount());
+        assertEquals(1, BufferSnapshot.of("abc").lineCount());
+        assertEquals(3, BufferSnapshot.of("a\nb\n").lineCount());
+        assertEquals(1, BufferSnapshot.of(null).lineCount());
+    }
+
+    @Test
+    public void testLineTextAndLength() {
+        BufferSnapshot s = BufferSnapshot.of("(instance Foo Bar)\r\n\n  (subclass A B)");
+        assertEquals("(instance Foo Bar)", s.lineText(0));
+        assertEquals(18, s.lineLength(0));
+        assertEquals("", s.lineText(1));
+        assertEquals(0, s.lineLength(1));
+        assertEquals("  (subclass A B)", s.lineText(2));
+        assertEquals(21, s.lineStart(2));
+        assertEquals("", s.lineText(3));
+        assertEquals("", s.lineText(-1));
+        assertTrue(s.fromEditor);
+    }
+
+    @Test
+    public void testTokenEnd() {
+        BufferSnapshot s = BufferSnapshot.of("x\n(instance Foo-Bar_1 Baz)");
+        assertEquals(9, s.tokenEnd(1, 1));
+        assertEquals(19, s.tokenEnd(1, 10));
+        assertEquals(1, s.tokenEnd(0, 0));
+    }
+
+    @Test
+    public void testLineOf() {
+        BufferSnapshot s = BufferSnapshot.of("ab\ncd\n\nef");
+        assertEquals(0, s.lineOf(0));
+        assertEquals(0, s.lineOf(2));
+        assertEquals(1, s.lineOf(3));
+        assertEquals(2, s.lineOf(6));
+        assertEquals(3, s.lineOf(7));
+        assertEquals(3, s.lineOf(100));
+        assertEquals(0, s.lineOf(-5));
+    }
+
+    @Test
+    public void testFirstLineContaining() {
+        BufferSnapshot s = BufferSnapshot.ofLines(new String[] {
+                "; header", "(subclass Foo Bar)", "  (instance x Foo)", "(subclass Foo Bar)"});
+        assertEquals(1, s.firstLineContaining("(subclass Foo Bar)"));
+        assertEquals(2, s.firstLineContaining("x Foo"));
+        assertEquals(-1, s.firstLineContaining("Baz"));
+        assertEquals(-1, s.firstLineContaining(""));
+        assertEquals(1, s.firstLineContaining("(subclass Foo Bar)"));
+    }
+
+    @Test
+    public void testFormulaLine() {
+        BufferSnapshot s = BufferSnapshot.of("; (subclass Foo Bar) in a comment\n"
+                + "(documentation Foo EnglishLanguage \"see (subclass Foo Bar)\")\n"
+                + "  (subclass Foo Bar)\n"
+                + "(=> (instance ?X Foo)\n    (attribute ?X Red))\n"
+                + "(subclass Foo Bar)\n");
+        assertEquals(2, s.formulaLine("(subclass Foo Bar)"));
+        assertEquals(3, s.formulaLine("(=> (instance ?X Foo)"));
+        // only formula starts are indexed
+        assertEquals(-1, s.formulaLine("(attribute ?X Red))"));
+        assertEquals(-1, s.formulaLine("(instance ?X Foo)"));
+        assertEquals(-1, s.formulaLine(""));
+        assertEquals(0, s.firstLineContaining("(subclass Foo Bar)"));
+    }
+
+    @Test
+    public void testOfFile() throws Exception {
+        File tmp = File.createTempFile("BufferSnapshotTest", ".kif");
+        tmp.deleteOnExit();
+        Files.write(tmp.toPath(), "alpha\nbeta\n".getBytes(StandardCharsets.UTF_8));
+        BufferSnapshot s = BufferSnapshot.ofFile(tmp.getPath());
+        assertNotNull(s);
+        assertFalse(s.fromEditor);
+        assertEquals("beta", s.lineText(1));
+        assertNull(BufferSnapshot.ofFile(tmp.getPath() + ".missing"));
+        assertNull(BufferSnapshot.ofFile(null));
+    }
+}
@@ -0,0 +1,83 @@
+package com.articulate.sigma.jedit;
+
+import com.articulate.sigma.jedit.fastac.CaretContext;
+import com.articulate.sigma.jedit.fastac.CompletionRanker;
+import org.junit.Test;
+
+import javax.swing.text.PlainDocument;
+
+import static org.junit.Assert.*;
+
+/**
+ * Standalone unit tests for {@link CaretContext}, which reads the word
+ * before the caret and the list it sits in for every completion UI.
+ *
+ * The tests cover:
+ *
+ *  - The prefix and where it starts, with '-' and '_' as word characters.
+ *  - The head and argument number, across lines and nested lists.
+ *  - No list context inside strings and comments, or for variable heads.
+ *  - Reading a Swing document through a Segment.
+ */
+
+public class CaretContextTest {
+
+    private static CaretContext atEnd(String text) {
+        return CaretContext.at(text, text.length());
+    }
+
+    @Test
+    public void testPrefix() {
+        CaretContext c = atEnd("(instance my-Dog_1");
+        assertEquals("my-Dog_1", c.prefix);
+        assertEquals(10, c.prefixStart);
+        assertEquals("", atEnd("(instance ").prefix);
+        assertEquals("", CaretContext.at("", 0).prefix);
+        assertEquals("Hap", CaretContext.at("Happy", 3).prefix);
+    }
+
+    @Test
+    public void testHeadAndArgument() {
+        CaretContext c = atEnd("(inst");
+        assertEquals(0, c.argument);
+        assertEquals(CompletionRanker.Slot.HEAD, c.slot());
+
+        c = atEnd("(instance Dog An");
+        assertEquals("instance", c.head);
+        assertEquals(2, c.argument);
+        assertEquals(CompletionRanker.Slot.ARGUMENT, c.slot());
+
+        c = atEnd("(=>\n  (and\n    (instance ?X Dog)\n    (attribute ?X ");
+        assertEquals("attribute", c.head);
+        assertEquals(2, c.argument);
+
+        c = atEnd("(subclass Dog Animal)\n(documentation Dog EnglishLanguage \"a dog\") ");
+        assertEquals(-1, c.argument);
+        assertEquals(CompletionRanker.Slot.ANY, c.slot());
+    }
+
+    @Test
+    public void testStringsCommentsAndVariables() {
+        assertEquals(-1, atEnd("(documentation Dog EnglishLanguage \"a (instance Do").argument);
+        assertEquals(-1, atEnd("; (instance Do").argument);
+        CaretContext c = atEnd("; (subclass\n(instance Do");
+        assertEquals("instance", c.head);
+        assertEquals(1, c.argument);
+        assertNull(atEnd("(?REL Do").head);
+        assertEquals(-1, atEnd("(?REL Do").argument);
+    }
+
+    @Test
+    public void testDocument() throws Exception {
+        PlainDocument doc = new PlainDocument();
+        doc.insertString(0, "(subclass Dog\n  Ani)", null);
+        int caret = doc.getLength() - 1;
+        CaretContext c = CaretContext.at(doc, caret);
+        assertEquals("Ani", c.prefix);
+        assertEquals(caret - 3, c.prefixStart);
+        assertEquals("subclass", c.head);
+        assertEquals(2, c.argument);
+        assertEquals("Ani", CaretContext.prefix(doc, caret));
+        assertEquals("", CaretContext.prefix((PlainDocument) null, 0));
+    }
+}
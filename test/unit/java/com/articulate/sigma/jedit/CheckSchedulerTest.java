@@ -0,0 +1,126 @@
+package com.articulate.sigma.jedit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Standalone unit tests for {@link CheckScheduler}, which keeps at most
+ * one error check per buffer current and cancels superseded ones.
+ *
+ * Jobs run on a queue that the test drains by hand, so the order of
+ * submission, cancellation and execution is fully deterministic. The
+ * tests cover:
+ *
+ *  - Increasing generation numbers.
+ *  - A newer job for the same buffer cancelling the older one, while
+ *    jobs for other buffers are unaffected.
+ *  - A job superseded before it starts never running its work.
+ *  - A job that notices cancellation part way through ending quietly.
+ *  - Explicit cancellation, e.g. when a buffer is closed.
+ *  - An edit to the buffer cancelling its running check between two
+ *    formulas, while checks of other buffers go on.
+ */
+
+public class CheckSchedulerTest {
+
+    private final List<Runnable> queue = new ArrayList<>();
+    private final List<String> ran = new ArrayList<>();
+    private CheckScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        queue.clear();
+        ran.clear();
+        scheduler = new CheckScheduler(queue::add);
+    }
+
+    private void drain() {
+        List<Runnable> todo = new ArrayList<>(queue);
+        queue.clear();
+        for (Runnable r : todo) r.run();
+    }
+
+    @Test
+    public void testGenerationsIncrease() {
+        CheckScheduler.Job a = scheduler.submit("a.kif", j -> {});
+        CheckScheduler.Job b = scheduler.submit("b.kif", j -> {});
+        assertTrue(b.generation > a.generation);
+        assertEquals(2, scheduler.running());
+        drain();
+        assertEquals(0, scheduler.running());
+    }
+
+    @Test
+    public void testNewerJobSupersedesOlder() {
+        CheckScheduler.Job first = scheduler.submit("a.kif", j -> ran.add("first"));
+        CheckScheduler.Job other = scheduler.submit("b.kif", j -> ran.add("other"));
+        CheckScheduler.Job second = scheduler.submit("a.kif", j -> ran.add("second"));
+        assertFalse(first.isCurrent());
+        assertTrue(other.isCurrent());
+        assertTrue(second.isCurrent());
+        drain();
+        assertEquals(List.of("other", "second"), ran);
+        assertEquals(0, scheduler.running());
+    }
+
+    @Test
+    public void testRunningJobStopsCooperatively() {
+        final CheckScheduler.Job[] next = new CheckScheduler.Job[1];
+        scheduler.submit("a.kif", j -> {
+            ran.add("started");
+            next[0] = scheduler.submit("a.kif", k -> ran.add("newer"));
+            j.throwIfCancelled();
+            ran.add("published");
+        });
+        drain();
+        assertEquals(List.of("started"), ran);
+        assertEquals(1, scheduler.running());
+        drain();
+        assertEquals(List.of("started", "newer"), ran);
+        assertTrue(next[0].isCurrent());
+    }
+
+    @Test
+    public void testCancel() {
+        CheckScheduler.Job job = scheduler.submit("a.kif", j -> ran.add("ran"));
+        scheduler.cancel("a.kif");
+        assertFalse(job.isCurrent());
+        try {
+            job.throwIfCancelled();
+            fail("expected CancellationException");
+        }
+        catch (CancellationException expected) {}
+        drain();
+        assertTrue(ran.isEmpty());
+        scheduler.cancel("missing.kif");
+    }
+
+    @Test
+    public void testEditCancelsRunningCheck() {
+        CancelOnEdit edits = new CancelOnEdit(scheduler, "a.kif");
+        List<String> checked = new ArrayList<>();
+        IncrementalKifChecker checker = new IncrementalKifChecker((text, path) -> {
+            if (!text.isEmpty()) checked.add(text);
+            // the user types while the second formula is being checked
+            if (text.startsWith("(q")) edits.contentInserted(null, 1, 10, 0, 1);
+            return new ArrayList<>();
+        });
+        CheckScheduler.Job other = scheduler.submit("b.kif", j -> ran.add("other"));
+        CheckScheduler.Job job = scheduler.submit("a.kif", j -> {
+            checker.check("(p A)\n(q B)\n(r C)\n", "a.kif", () -> !j.isCurrent());
+            ran.add("published");
+        });
+        drain();
+        assertFalse(job.isCurrent());
+        assertTrue(other.isCurrent());
+        assertEquals(List.of("other"), ran);
+        assertEquals(List.of("(p A)", "(q B)"), checked);
+        assertEquals(0, scheduler.running());
+    }
+}
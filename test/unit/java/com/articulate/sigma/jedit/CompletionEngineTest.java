@@ -0,0 +1,124 @@
+package com.articulate.sigma.jedit;
+
+import com.articulate.sigma.jedit.fastac.CompletionEngine;
+import com.articulate.sigma.jedit.fastac.PrefixIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Standalone unit tests for {@link CompletionEngine}, the shared,
+ * immutable completion vocabulary read by every completion UI.
+ *
+ * The tests cover:
+ *
+ *  - Building drops null, empty and duplicate words and keeps case
+ *    variants apart.
+ *  - Case-insensitive and case-sensitive prefix completion in sorted
+ *    order, with a limit.
+ *  - The shortest-extension rule used for ghost text.
+ *  - Per-buffer layers only hold tokens the shared engine lacks, and
+ *    find case variants of the prefix itself.
+ *  - {@code forTerms} builds once per KB collection and version.
+ *  - A shared {@link PrefixIndex} follows the installed engine.
+ */
+
+public class CompletionEngineTest {
+
+    private CompletionEngine original;
+
+    @Before
+    public void setUp() {
+        original = CompletionEngine.shared();
+    }
+
+    @After
+    public void tearDown() {
+        CompletionEngine.install(original);
+    }
+
+    @Test
+    public void testBuildSortsAndDeduplicates() {
+        CompletionEngine e = CompletionEngine.build(
+                Arrays.asList("beta", null, "Alpha", "", "alpha", "beta", "Gamma"));
+        assertEquals(Arrays.asList("Alpha", "alpha", "beta", "Gamma"), e.terms());
+        assertEquals(4, e.size());
+        assertTrue(e.contains("alpha"));
+        assertFalse(e.contains("ALPHA"));
+        assertTrue(e.estimatedBytes() > 0);
+        assertTrue(CompletionEngine.build(null).isEmpty());
+    }
+
+    @Test
+    public void testComplete() {
+        CompletionEngine e = CompletionEngine.build(
+                Arrays.asList("Animal", "Animate", "agent", "animalistic", "Zebra", "an"));
+        assertEquals(Arrays.asList("an", "Animal", "animalistic", "Animate"), e.complete("AN", 10));
+        assertEquals(Arrays.asList("an", "Animal"), e.complete("an", 2));
+        assertEquals(Arrays.asList("Animal", "Animate"), e.complete("Ani", 10, true));
+        assertEquals(Collections.emptyList(), e.complete("xyz", 10));
+        assertEquals(Collections.emptyList(), e.complete(null, 10));
+        assertEquals(4, e.countWithPrefix("an"));
+        assertEquals(6, e.countWithPrefix(""));
+    }
+
+    @Test
+    public void testShortestExtension() {
+        CompletionEngine e = CompletionEngine.build(
+                Arrays.asList("instance", "inst", "instrument", "Insta", "insta"));
+        assertEquals("Insta", e.shortestExtension("inst"));
+        assertEquals("instance", e.shortestExtension("instan"));
+        assertNull(e.shortestExtension("instrument"));
+        assertNull(e.shortestExtension(""));
+    }
+
+    @Test
+    public void testLayerOverlaysSharedEngine() {
+        CompletionEngine.install(CompletionEngine.build(Arrays.asList("Animal", "instance")));
+        CompletionEngine.Layer layer = new CompletionEngine.Layer();
+        layer.addAll(Arrays.asList("Animal", "ANIMAL", "animalistic", "instanceOf", null, ""));
+        assertEquals(3, layer.size());
+        assertEquals(Arrays.asList("ANIMAL", "animalistic"), layer.complete("animal", 10));
+        assertEquals("ANIMAL", layer.complete("Animal", 1).get(0));
+        assertEquals("instance", layer.shortestExtension("inst"));
+        assertEquals("instanceOf", layer.shortestExtension("instance"));
+        layer.clear();
+        assertEquals(0, layer.size());
+        assertEquals("Animal", layer.shortestExtension("anim"));
+    }
+
+    @Test
+    public void testForTermsBuildsOncePerCollectionAndVersion() {
+        Set<String> kb = new TreeSet<>(Arrays.asList("Entity", "Physical"));
+        CompletionEngine first = CompletionEngine.forTerms(kb, 1);
+        assertSame(first, CompletionEngine.shared());
+        assertSame(first, CompletionEngine.forTerms(kb, 1));
+        assertTrue(first.contains("Entity"));
+        assertTrue(first.contains("instance"));  // SumoWords are always in
+
+        // a change of the same size is seen through the version
+        kb.remove("Physical");
+        kb.add("Abstract");
+        assertSame(first, CompletionEngine.forTerms(kb, 1));
+        CompletionEngine second = CompletionEngine.forTerms(kb, 2);
+        assertNotSame(first, second);
+        assertTrue(second.contains("Abstract"));
+        assertFalse(second.contains("Physical"));
+        assertSame(second, CompletionEngine.forTerms(null, 3));
+        assertNotSame(second, CompletionEngine.forTerms(new TreeSet<>(kb), 2));
+    }
+
+    @Test
+    public void testSharedPrefixIndexFollowsEngine() {
+        PrefixIndex idx = PrefixIndex.shared();
+        CompletionEngine.install(CompletionEngine.build(Arrays.asList("Organism", "Organization")));
+        assertEquals(Arrays.asList("Organism", "Organization"), idx.lookup("org"));
+        assertEquals(Collections.singletonList("Organism"), idx.lookup("org", 1));
+        CompletionEngine.install(CompletionEngine.build(Collections.singletonList("Orange")));
+        assertEquals(Collections.singletonList("Orange"), idx.suggest("or", 10));
+    }
+}
@@ -0,0 +1,161 @@
+package com.articulate.sigma.jedit;
+
+import com.articulate.sigma.jedit.fastac.CompletionEngine;
+import com.articulate.sigma.jedit.fastac.CompletionRanker;
+import com.articulate.sigma.jedit.fastac.CompletionRanker.Kind;
+import com.articulate.sigma.jedit.fastac.CompletionRanker.Slot;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Standalone unit tests for {@link CompletionRanker}, which orders
+ * completion candidates by KB frequency, term kind, buffer usage and
+ * recency of acceptance.
+ *
+ * The tests cover:
+ *
+ *  - Without statistics, shorter candidates come first, then
+ *    case-insensitive order.
+ *  - Frequent KB terms and terms used in the buffer rank higher.
+ *  - Relations rank higher right after '(' and lower in argument
+ *    positions.
+ *  - A term that was just accepted ranks first.
+ *  - The bounded-heap top K agrees with sorting every candidate.
+ *  - A selector fed from several sources, including a whole prefix
+ *    range of the engine, counts duplicates once and finds a frequent
+ *    term however far into the range it sorts.
+ *  - The pool a UI pulls from each source grows with K and has a floor.
+ *  - Detecting the slot of the term at the caret.
+ */
+
+public class CompletionRankerTest {
+
+    private CompletionRanker original;
+
+    @Before
+    public void setUp() {
+        original = CompletionRanker.shared();
+        CompletionRanker.clearRecent();
+    }
+
+    @After
+    public void tearDown() {
+        CompletionRanker.install(original);
+        CompletionRanker.clearRecent();
+    }
+
+    private static final CompletionRanker EMPTY = CompletionRanker.of(null, null);
+
+    @Test
+    public void testShortestFirstWithoutStatistics() {
+        List<String> top = EMPTY.top(Arrays.asList("instrument", "instance", "instant", "insta", "instA"),
+                "inst", 10, Slot.ANY, null);
+        assertEquals(Arrays.asList("instA", "insta", "instant", "instance", "instrument"), top);
+        // matching the typed case counts for a little
+        assertEquals("instance", EMPTY.best(Arrays.asList("Insta", "instance"), "inst", Slot.ANY, null));
+    }
+
+    @Test
+    public void testFrequencyAndBufferUsage() {
+        Map<String, Integer> freq = new HashMap<>();
+        freq.put("subclass", 5000);
+        freq.put("subAttribute", 20);
+        CompletionRanker r = CompletionRanker.of(freq, null);
+        List<String> cands = Arrays.asList("subAttribute", "subclass", "subProcess");
+        assertEquals(Arrays.asList("subclass", "subAttribute", "subProcess"),
+                r.top(cands, "sub", 3, Slot.ANY, null));
+
+        Map<String, Integer> inBuffer = Collections.singletonMap("subProcess", 400);
+        assertEquals("subProcess", r.best(cands, "sub", Slot.ANY, t -> inBuffer.getOrDefault(t, 0)));
+    }
+
+    @Test
+    public void testKindFitsSlot() {
+        Map<String, Kind> kinds = new HashMap<>();
+        kinds.put("Human", Kind.CLASS);
+        kinds.put("holdsDuring", Kind.RELATION);
+        CompletionRanker r = CompletionRanker.of(null, kinds);
+        List<String> cands = Arrays.asList("Human", "holdsDuring");
+        assertEquals("holdsDuring", r.best(cands, "h", Slot.HEAD, null));
+        assertEquals("Human", r.best(cands, "h", Slot.ARGUMENT, null));
+        assertEquals(Kind.RELATION, r.kind("MultiplicationFn"));
+        assertEquals(Kind.CLASS, r.kind("Animal"));
+        assertEquals(Kind.RELATION, r.kind("part"));
+        assertEquals(Kind.OTHER, r.kind("=>"));
+    }
+
+    @Test
+    public void testRecentlyAcceptedRanksFirst() {
+        List<String> cands = Arrays.asList("Animal", "AnimalAnatomicalStructure", "Animate");
+        assertEquals("Animal", EMPTY.best(cands, "Ani", Slot.ANY, null));
+        CompletionRanker.accepted("AnimalAnatomicalStructure");
+        assertEquals("AnimalAnatomicalStructure", EMPTY.best(cands, "Ani", Slot.ANY, null));
+        CompletionRanker.accepted("Animate");
+        assertEquals(Arrays.asList("Animate", "AnimalAnatomicalStructure", "Animal"),
+                EMPTY.top(cands, "Ani", 3, Slot.ANY, null));
+    }
+
+    @Test
+    public void testTopKAgreesWithFullSort() {
+        Random rnd = new Random(3);
+        Map<String, Integer> freq = new HashMap<>();
+        List<String> cands = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            String t = "term" + Integer.toString(rnd.nextInt(100000), 36);
+            cands.add(t);
+            if (rnd.nextBoolean()) freq.put(t, rnd.nextInt(50));
+        }
+        CompletionRanker r = CompletionRanker.of(freq, null);
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(cands));
+        List<String> sorted = new ArrayList<>(distinct);
+        sorted.sort(Comparator.comparingDouble((String t) -> -r.score(t, "term", Slot.ANY, null))
+                .thenComparingInt(String::length)
+                .thenComparing(String.CASE_INSENSITIVE_ORDER)
+                .thenComparing(Comparator.naturalOrder()));
+        assertEquals(sorted.subList(0, 25), r.top(cands, "term", 25, Slot.ANY, null));
+        assertEquals(sorted, r.top(cands, "term", 10_000, Slot.ANY, null));
+        assertTrue(r.top(cands, "term", 0, Slot.ANY, null).isEmpty());
+    }
+
+    @Test
+    public void testSelectorStreamsWholeRange() {
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) words.add(String.format("Term%05d", i));
+        CompletionEngine engine = CompletionEngine.build(words);
+        // sorts near the end of the range, far past any fixed pool of matches
+        CompletionRanker r = CompletionRanker.of(Map.of("Term04990", 1000, "Term00007", 10), null);
+
+        CompletionRanker.Selector best = r.selector("Term", 2, Slot.ANY, null);
+        best.offerAll(engine.withPrefix("Term", false));
+        best.offerAll(Arrays.asList("Term04990", "Term00007", null));
+        assertEquals(2, best.size());
+        assertEquals(Arrays.asList("Term04990", "Term00007"), best.result());
+        // asking again gives the same answer
+        assertEquals(Arrays.asList("Term04990", "Term00007"), best.result());
+
+        assertTrue(r.selector("Term", 0, Slot.ANY, null).result().isEmpty());
+    }
+
+    @Test
+    public void testPool() {
+        assertEquals(64, CompletionRanker.pool(0));
+        assertEquals(64, CompletionRanker.pool(1));
+        assertEquals(160, CompletionRanker.pool(20));
+        assertEquals(64, CompletionRanker.pool(-5));
+    }
+
+    @Test
+    public void testSlotAt() {
+        String line = "(=> (instance ?X Hum";
+        assertEquals(Slot.HEAD, CompletionRanker.slotAt(line, 5));
+        assertEquals(Slot.ARGUMENT, CompletionRanker.slotAt(line, line.length() - 3));
+        assertEquals(Slot.HEAD, CompletionRanker.slotAt("(  ", 3));
+        assertEquals(Slot.ANY, CompletionRanker.slotAt("inst", 0));
+        assertEquals(Slot.ANY, CompletionRanker.slotAt(null, 0));
+    }
+}
@@ -0,0 +1,123 @@
+package com.articulate.sigma.jedit;
+
+import com.articulate.sigma.jedit.fastac.CompletionScheduler;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Standalone unit tests for {@link CompletionScheduler}, which runs the
+ * popup lookups of every editor on one shared pool.
+ *
+ * Jobs run on a queue that the test drains by hand, so the order of
+ * submission, cancellation and execution is fully deterministic. The
+ * tests cover:
+ *
+ *  - Requests for one editor coalescing into the latest, with one queue
+ *    entry per editor; other editors are unaffected.
+ *  - A newer request cancelling the running lookup.
+ *  - Explicit cancellation, and a failing lookup not stopping the queue.
+ *  - The queue depth, coalesced count and latency metrics.
+ *  - The shared pool running lookups on its own threads.
+ */
+
+public class CompletionSchedulerTest {
+
+    private final List<Runnable> queue = new ArrayList<>();
+    private final List<String> ran = new ArrayList<>();
+    private CompletionScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        queue.clear();
+        ran.clear();
+        scheduler = new CompletionScheduler(queue::add);
+    }
+
+    private void drain() {
+        List<Runnable> todo = new ArrayList<>(queue);
+        queue.clear();
+        for (Runnable r : todo) r.run();
+    }
+
+    @Test
+    public void testLatestRequestWins() {
+        Object a = new Object(), b = new Object();
+        scheduler.submit(a, j -> ran.add("a1"));
+        scheduler.submit(a, j -> ran.add("a2"));
+        scheduler.submit(b, j -> ran.add("b1"));
+        CompletionScheduler.Job last = scheduler.submit(a, j -> ran.add("a3"));
+        assertEquals(2, queue.size());
+        assertEquals(2, scheduler.queueDepth());
+        assertEquals(2, scheduler.coalesced());
+        assertTrue(last.isCurrent());
+
+        drain();
+        assertEquals(List.of("a3", "b1"), ran);
+        assertEquals(0, scheduler.queueDepth());
+        assertEquals(0, scheduler.pending());
+        assertEquals(2, scheduler.waitLatency().count());
+        assertEquals(2, scheduler.runLatency().count());
+    }
+
+    @Test
+    public void testNewerRequestCancelsRunningLookup() {
+        Object a = new Object();
+        scheduler.submit(a, j -> {
+            ran.add("first started");
+            scheduler.submit(a, k -> ran.add("second"));
+            j.throwIfCancelled();
+            ran.add("first published");
+        });
+        drain();
+        assertEquals(List.of("first started"), ran);
+        assertEquals(1, scheduler.pending());
+        assertEquals(0, scheduler.runLatency().count());
+
+        drain();
+        assertEquals(List.of("first started", "second"), ran);
+        assertEquals(0, scheduler.pending());
+    }
+
+    @Test
+    public void testCancelAndFailure() {
+        Object a = new Object(), b = new Object();
+        CompletionScheduler.Job job = scheduler.submit(a, j -> ran.add("a"));
+        scheduler.submit(b, j -> { throw new IllegalStateException("boom"); });
+        scheduler.cancel(a);
+        assertFalse(job.isCurrent());
+        assertEquals(1, scheduler.queueDepth());
+
+        drain();
+        assertEquals(List.of(), ran);
+        assertEquals(0, scheduler.pending());
+
+        scheduler.submit(b, j -> ran.add("b"));
+        drain();
+        assertEquals(List.of("b"), ran);
+    }
+
+    @Test
+    public void testSharedPool() throws Exception {
+        CompletionScheduler shared = CompletionScheduler.shared();
+        assertSame(shared, CompletionScheduler.shared());
+        CountDownLatch done = new CountDownLatch(1);
+        String[] thread = new String[1];
+        shared.submit(this, j -> {
+            thread[0] = Thread.currentThread().getName();
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(thread[0].startsWith("CompletionScheduler-"));
+
+        CompletionScheduler.shutdownShared();
+        assertNotSame(shared, CompletionScheduler.shared());
+        CompletionScheduler.shutdownShared();
+    }
+}
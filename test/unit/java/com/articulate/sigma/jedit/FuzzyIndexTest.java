@@ -0,0 +1,99 @@
+package com.articulate.sigma.jedit;
+
+import com.articulate.sigma.jedit.fastac.CompletionEngine;
+import com.articulate.sigma.jedit.fastac.FuzzyIndex;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Standalone unit tests for {@link FuzzyIndex}, the typo-tolerant lookup
+ * behind the completion fallback and "did you mean" hints.
+ *
+ * The tests cover:
+ *
+ *  - Substitutions, insertions, deletions and transpositions, ignoring case.
+ *  - Typos past the indexed prefix of long terms.
+ *  - Nearest first, then dictionary order; the distance bound and limit.
+ *  - The same answers as comparing against every term.
+ */
+
+public class FuzzyIndexTest {
+
+    private static final List<String> TERMS = Arrays.asList(
+            "Animal", "animals", "Animate", "agent", "instance", "subclass",
+            "Organization", "Organism", "OrganizationalProcess", "zebra");
+
+    @Test
+    public void testTypos() {
+        FuzzyIndex idx = FuzzyIndex.of(TERMS);
+        assertEquals("Animal", idx.within("animl", 2, 5).get(0));      // deletion
+        assertEquals("Animal", idx.within("Anim4l", 2, 5).get(0));     // substitution
+        assertEquals("Animal", idx.within("Aniimal", 2, 5).get(0));    // insertion
+        assertEquals(List.of("Animal"), idx.within("Aniaml", 1, 5));   // transposition
+        assertEquals(List.of("subclass"), idx.within("SUBCALSS", 1, 5));
+        assertEquals(List.of("OrganizationalProcess"), idx.within("OrganizationalProcss", 2, 5));
+        assertEquals(List.of("Organization"), idx.within("Organizaton", 1, 5));
+    }
+
+    @Test
+    public void testOrderBoundAndLimit() {
+        FuzzyIndex idx = FuzzyIndex.of(TERMS);
+        assertEquals(List.of("Animal", "animals"), idx.within("animl", 2, 5));
+        assertEquals(List.of("Animal"), idx.within("animl", 2, 1));
+        assertEquals(List.of("Animal"), idx.within("animl", 1, 5));
+        assertEquals(List.of(), idx.within("giraffe", 2, 5));
+        assertEquals(List.of(), idx.within("an", 2, 5));
+        assertEquals(List.of(), idx.within(null, 2, 5));
+        assertEquals(-1, FuzzyIndex.distance("abcdef", "abc", 2));
+        assertEquals(1, FuzzyIndex.distance("ab", "ba", 2));
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        Random r = new Random(19);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) words.add(randomWord(r));
+        FuzzyIndex idx = FuzzyIndex.of(words);
+        for (int q = 0; q < 300; q++) {
+            String query = typo(r, words.get(r.nextInt(words.size())));
+            if (query.length() < 3) continue;
+            Set<String> expected = new TreeSet<>();
+            for (String w : words) {
+                if (FuzzyIndex.distance(query.toLowerCase(), w.toLowerCase(), 2) >= 0) expected.add(w);
+            }
+            assertEquals(query, expected, new TreeSet<>(idx.within(query, 2, Integer.MAX_VALUE)));
+        }
+    }
+
+    @Test
+    public void testEngineSimilar() {
+        CompletionEngine e = CompletionEngine.build(TERMS);
+        assertSame(e.fuzzyIndex(), e.fuzzyIndex());
+        assertEquals("instance", e.similar("instnace", 3).get(0));
+    }
+
+    private static String randomWord(Random r) {
+        String letters = "abcdeABCDE";
+        StringBuilder sb = new StringBuilder();
+        int len = 3 + r.nextInt(12);
+        for (int i = 0; i < len; i++) sb.append(letters.charAt(r.nextInt(letters.length())));
+        return sb.toString();
+    }
+
+    /** w with up to two random edits. */
+    private static String typo(Random r, String w) {
+        StringBuilder sb = new StringBuilder(w);
+        for (int k = r.nextInt(3); k > 0 && sb.length() > 1; k--) {
+            int i = r.nextInt(sb.length());
+            switch (r.nextInt(3)) {
+                case 0: sb.deleteCharAt(i); break;
+                case 1: sb.insert(i, 'x'); break;
+                default: sb.setCharAt(i, 'b'); break;
+            }
+        }
+        return sb.toString();
+    }
+}
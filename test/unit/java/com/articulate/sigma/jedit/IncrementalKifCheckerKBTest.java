@@ -0,0 +1,156 @@
+package com.articulate.sigma.jedit;
+
+import com.articulate.sigma.editor.ErrRec;
+import com.articulate.sigma.editor.KifFileChecker;
+import com.articulate.sigma.trans.SUMOtoTFAform;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link IncrementalKifChecker} running the real
+ * {@link KifFileChecker} against the SUMO KB.
+ *
+ * A buffer goes through a series of edits, and after each one the
+ * incremental result must equal a fresh whole-file check of the same
+ * text, diagnostic for diagnostic. The edits cover:
+ *
+ *  - A term defined in the buffer and used further down.
+ *  - A duplicated formula.
+ *  - Editing one formula, which re-checks only that formula and keeps
+ *    the cached diagnostics of the others.
+ *  - Formulas moving to other lines, which shifts their diagnostics.
+ *  - Checking in parallel slices, which calls KifFileChecker from
+ *    several threads at once and must still match the whole-file check.
+ */
+
+public class IncrementalKifCheckerKBTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private String file;
+    private IncrementalKifChecker checker;
+
+    @BeforeClass
+    public static void beforeClass() {
+
+        SUMOtoTFAform.initOnce();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+
+        file = tmp.newFile("IncrementalKifCheckerKBTest.kif").getPath();
+        checker = new IncrementalKifChecker(KifFileChecker::check);
+    }
+
+    private List<ErrRec> wholeFile(String text) {
+
+        List<ErrRec> out = new ArrayList<>(KifFileChecker.check(text, file));
+        out.sort(IncrementalKifChecker.ORDER);
+        return out;
+    }
+
+    private IncrementalKifChecker.Result assertMatchesWholeFile(String text) {
+
+        IncrementalKifChecker.Result r = checker.check(text, file);
+        List<ErrRec> expected = wholeFile(text);
+        assertTrue("expected " + expected + " but got " + r.diagnostics,
+                IncrementalKifChecker.sameDiagnostics(expected, r.diagnostics));
+        return r;
+    }
+
+    private static List<ErrRec> between(List<ErrRec> diagnostics, int fromLine, int toLine) {
+
+        List<ErrRec> out = new ArrayList<>();
+        for (ErrRec e : diagnostics)
+            if (e.line >= fromLine && e.line <= toLine) out.add(e);
+        return out;
+    }
+
+    @Test
+    public void testMatchesWholeFileCheckAcrossEdits() {
+
+        String defs = "(subclass LocalWidget Artifact)\n"
+                + "(documentation LocalWidget EnglishLanguage \"A widget.\")\n";
+        String use = "(=>\n  (instance ?W LocalWidget)\n  (attribute ?W LocalShiny))\n";
+
+        assertMatchesWholeFile(defs + use);
+        // the local definition goes away: uses of LocalWidget are now unknown
+        assertMatchesWholeFile(use);
+        assertMatchesWholeFile(defs + use);
+        // a duplicate of an earlier formula
+        assertMatchesWholeFile(defs + use + "\n" + defs.substring(0, defs.indexOf('\n') + 1));
+        // everything moves down a line
+        assertMatchesWholeFile("\n" + defs + use);
+        // only comments and blanks change
+        IncrementalKifChecker.Result r = assertMatchesWholeFile("\n" + defs + use + "; trailing note\n\n");
+        assertEquals(0, r.checked);
+        assertTrue(r.unchanged);
+    }
+
+    @Test
+    public void testEditChangesOnlyThatFormula() {
+
+        String first = "(instance LocalAlpha Object)\n";
+        String second = "(=>\n  (instance ?X LocalBeta)\n  (attribute ?X Red))\n";
+        String third = "(instance LocalGamma Object)\n";
+        IncrementalKifChecker.Result before = assertMatchesWholeFile(first + second + third);
+
+        // edit the middle formula and push the last one a line down
+        String edited = "(=>\n  (instance ?X LocalDelta)\n  (attribute ?X Red)\n  )\n";
+        IncrementalKifChecker.Result after = assertMatchesWholeFile(first + edited + third);
+        assertEquals(1, after.checked);
+        assertEquals(2, after.reused);
+        assertTrue(IncrementalKifChecker.sameDiagnostics(between(before.diagnostics, 0, 0),
+                between(after.diagnostics, 0, 0)));
+        List<ErrRec> lastBefore = between(before.diagnostics, 4, 4);
+        List<ErrRec> lastAfter = between(after.diagnostics, 5, 5);
+        assertEquals(lastBefore.size(), lastAfter.size());
+        for (int i = 0; i < lastBefore.size(); i++) {
+            assertEquals(lastBefore.get(i).msg, lastAfter.get(i).msg);
+            assertEquals(lastBefore.get(i).start, lastAfter.get(i).start);
+        }
+        assertFalse(IncrementalKifChecker.sameDiagnostics(between(before.diagnostics, 1, 3),
+                between(after.diagnostics, 1, 4)));
+    }
+
+    @Test
+    public void testParallelMatchesWholeFile() throws Exception {
+
+        String[] pool = {
+                "(subclass LocalWidget Artifact)",
+                "(documentation LocalWidget EnglishLanguage \"A widget.\")",
+                "(=>\n  (instance ?W LocalWidget)\n  (attribute ?W LocalShiny))",
+                "(instance Fido Dog)",
+                "(attribute Fido LocalHappy)",
+                "(exists (?G)\n    (instance ?G LocalGadget))",
+        };
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 3 * IncrementalKifChecker.PARALLEL_THRESHOLD; i++)
+            sb.append(pool[(i * 7) % pool.length].replace("Fido", "Fido" + (i % 11))).append('\n');
+        String text = sb.toString();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            IncrementalKifChecker parallel = new IncrementalKifChecker(KifFileChecker::check, executor, 4);
+            IncrementalKifChecker.Result r = parallel.check(text, file);
+            assertEquals(3 * IncrementalKifChecker.PARALLEL_THRESHOLD, r.checked + r.reused);
+            assertTrue(IncrementalKifChecker.sameDiagnostics(wholeFile(text), r.diagnostics));
+            assertTrue(IncrementalKifChecker.sameDiagnostics(checker.check(text, file).diagnostics, r.diagnostics));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package com.articulate.sigma.jedit;
+
+import com.articulate.sigma.editor.ErrRec;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Standalone unit tests for {@link KifFormulaSegmenter} and
+ * {@link IncrementalKifChecker}, which checks a buffer one formula at a
+ * time and re-checks only what an edit touched.
+ *
+ * A fake whole-file checker stands in for {@code KifFileChecker}. Like
+ * the real one it reports things that depend on the rest of the file:
+ * a "not loaded" warning for the file, unknown {@code Local...} terms
+ * unless the file has a subclass statement for them, and duplicate
+ * formulas, naming the line of the first copy. The tests cover:
+ *
+ *  - Segmentation of top-level formulas, including strings and
+ *    comments that contain parentheses, multi-line formulas, stray
+ *    top-level text and an unterminated formula.
+ *  - The same diagnostics as a whole-file check, over a series of
+ *    random edits.
+ *  - Re-checking only the edited formula, shifting the cached
+ *    diagnostics of formulas that moved, and re-checking the formulas
+ *    that use a local definition or have a copy when those change.
+ *  - A KB change forcing a new check, and the unchanged flag.
+ *  - A cancelled run stops between formulas and keeps what it checked.
+ *  - Checking in parallel slices gives the same diagnostics as a
+ *    serial run and as a whole-file check, and a cancelled parallel
+ *    run keeps what its slices finished.
+ *  - Runs over different files don't wait for each other.
+ *
+ * IncrementalKifCheckerKBTest compares it with the real checker.
+ */
+
+public class IncrementalKifCheckerTest {
+
+    private static final String FILE = "/tmp/test.kif";
+    private static final String NOT_LOADED = "This file is not loaded into the KB";
+    private static final Pattern DEFINES = Pattern.compile("^\\(subclass (\\w+)");
+    private static final Pattern LOCAL = Pattern.compile("\\b(Local\\w*)");
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private IncrementalKifChecker checker;
+
+    /** Fake whole-file checker, see the class comment. */
+    static List<ErrRec> fakeCheck(String text, String path) {
+        List<ErrRec> out = new ArrayList<>();
+        out.add(new ErrRec(ErrRec.WARNING, path, 0, 0, 1, NOT_LOADED));
+        List<KifFormulaSegmenter.Segment> segs = KifFormulaSegmenter.segment(text);
+        Set<String> defined = new HashSet<>();
+        for (KifFormulaSegmenter.Segment s : segs) {
+            Matcher m = DEFINES.matcher(s.text);
+            if (m.find()) defined.add(m.group(1));
+        }
+        Map<String, Integer> seen = new HashMap<>();
+        for (KifFormulaSegmenter.Segment s : segs) {
+            Integer first = seen.putIfAbsent(s.text.replaceAll("\\s+", " "), s.line);
+            if (first != null)
+                out.add(new ErrRec(ErrRec.WARNING, path, s.line, s.column, s.column + 1, "Duplicate of formula at line " + (first + 1)));
+            String[] lines = s.text.replaceAll("\"[^\"]*\"", "\"\"").split("\n", -1);
+            for (int k = 0; k < lines.length; k++) {
+                int off = (k == 0) ? s.column : 0;
+                Matcher m = LOCAL.matcher(lines[k]);
+                while (m.find())
+                    if (!defined.contains(m.group(1)))
+                        out.add(new ErrRec(ErrRec.ERROR, path, s.line + k, m.start() + off, m.end() + off, "unknown term " + m.group(1)));
+            }
+        }
+        return out;
+    }
+
+    @Before
+    public void setUp() {
+        calls.set(0);
+        checker = new IncrementalKifChecker((text, path) -> {
+            calls.incrementAndGet();
+            return fakeCheck(text, path);
+        });
+    }
+
+    private static List<ErrRec> wholeFile(String text) {
+        List<ErrRec> out = fakeCheck(text, FILE);
+        out.sort(IncrementalKifChecker.ORDER);
+        return out;
+    }
+
+    private IncrementalKifChecker.Result assertMatchesWholeFile(String text) {
+        IncrementalKifChecker.Result r = checker.check(text, FILE);
+        List<ErrRec> expected = wholeFile(text);
+        assertTrue("expected " + expected + " but got " + r.diagnostics,
+                IncrementalKifChecker.sameDiagnostics(expected, r.diagnostics));
+        return r;
+    }
+
+    private static List<ErrRec> on(List<ErrRec> diagnostics, int line) {
+        List<ErrRec> out = new ArrayList<>();
+        for (ErrRec e : diagnostics) if (e.line == line) out.add(e);
+        return out;
+    }
+
+    @Test
+    public void testSegmentsTopLevelFormulas() {
+        String text = "; comment with ( paren\n"
+                + "(subclass Foo Entity)\n"
+                + "(documentation Foo EnglishLanguage \"has a ) in it\")\n"
+                + "  (=>\n    (instance ?X Foo)\n    (attribute ?X Red)) ; trailing (\n"
+                + "stray\n"
+                + "(instance bar";
+        List<KifFormulaSegmenter.Segment> segs = KifFormulaSegmenter.segment(text);
+        assertEquals(5, segs.size());
+        assertEquals("(subclass Foo Entity)", segs.get(0).text);
+        assertEquals(1, segs.get(0).line);
+        assertTrue(segs.get(0).complete);
+        assertEquals(2, segs.get(1).line);
+        assertTrue(segs.get(1).text.endsWith("\"has a ) in it\")"));
+        assertEquals(3, segs.get(2).line);
+        assertEquals(2, segs.get(2).column);
+        assertTrue(segs.get(2).text.endsWith("(attribute ?X Red))"));
+        assertEquals("stray", segs.get(3).text);
+        assertEquals(6, segs.get(3).line);
+        assertEquals("(instance bar", segs.get(4).text);
+        assertFalse(segs.get(4).complete);
+    }
+
+    @Test
+    public void testTermsAndDefinitions() {
+        assertTrue(KifFormulaSegmenter.terms("(p ?X Foo \"Bar baz\" 12)").contains("Foo"));
+        assertFalse(KifFormulaSegmenter.terms("(p ?X Foo \"Bar baz\" 12)").contains("Bar"));
+        assertFalse(KifFormulaSegmenter.terms("(p ?X Foo)").contains("X"));
+        assertEquals("Foo", KifFormulaSegmenter.definedTerm("( subclass Foo Entity)"));
+        assertEquals("Foo", KifFormulaSegmenter.definedTerm("(documentation Foo EnglishLanguage \"x\")"));
+        assertNull(KifFormulaSegmenter.definedTerm("(attribute Foo Red)"));
+        assertNull(KifFormulaSegmenter.definedTerm("(instance ?X Foo)"));
+    }
+
+    @Test
+    public void testMatchesWholeFileCheckAcrossEdits() {
+        Random rnd = new Random(42);
+        String[] pool = {
+                "(subclass LocalWidget Artifact)",
+                "(subclass LocalGadget LocalWidget)",
+                "(documentation LocalWidget EnglishLanguage \"A LocalThing.\")",
+                "(=>\n  (instance ?W LocalWidget)\n  (attribute ?W LocalShiny))",
+                "(instance Fido Dog)",
+                "(instance Fido Dog)",
+                "  (attribute Fido LocalHappy)",
+                "(exists (?G)\n    (instance ?G LocalGadget))",
+                "; a comment (with a paren",
+                "",
+        };
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 12; i++) lines.add(pool[rnd.nextInt(pool.length)]);
+        for (int step = 0; step < 200; step++) {
+            int at = rnd.nextInt(lines.size() + 1);
+            switch (rnd.nextInt(4)) {
+                case 0: lines.add(at, pool[rnd.nextInt(pool.length)]); break;
+                case 1: if (at < lines.size()) lines.remove(at); break;
+                case 2: if (at < lines.size()) lines.set(at, pool[rnd.nextInt(pool.length)]); break;
+                default: lines.add(at, ""); break;
+            }
+            assertMatchesWholeFile(String.join("\n", lines) + "\n");
+        }
+    }
+
+    @Test
+    public void testEditRechecksOnlyThatFormula() {
+        String before = "(instance A LocalX)\n(instance B LocalY)\n(instance C LocalZ)\n";
+        IncrementalKifChecker.Result r = assertMatchesWholeFile(before);
+        assertEquals(3, r.checked);
+
+        String after = "(instance A LocalX)\n(instance B LocalW)\n(instance C LocalZ)\n";
+        IncrementalKifChecker.Result r2 = assertMatchesWholeFile(after);
+        assertEquals(1, r2.checked);
+        assertEquals(2, r2.reused);
+        // the untouched formulas keep their diagnostics, the edited one changed
+        assertTrue(IncrementalKifChecker.sameDiagnostics(on(r.diagnostics, 2), on(r2.diagnostics, 2)));
+        assertEquals("unknown term LocalW", on(r2.diagnostics, 1).get(0).msg);
+        assertFalse(r2.unchanged);
+    }
+
+    @Test
+    public void testMovedFormulasKeepShiftedDiagnostics() {
+        assertMatchesWholeFile("(instance A LocalX)\n(instance B LocalY)\n");
+        int before = calls.get();
+
+        IncrementalKifChecker.Result r = assertMatchesWholeFile("; header\n\n(instance A LocalX)\n   (instance B LocalY)\n");
+        assertEquals(0, r.checked);
+        assertEquals(2, r.reused);
+        assertEquals(before, calls.get());
+        assertEquals(3, r.diagnostics.get(2).line);
+        assertEquals(15, r.diagnostics.get(2).start);
+    }
+
+    @Test
+    public void testDefinitionChangeRechecksItsUsers() {
+        String defs = "(subclass LocalWidget Artifact)\n";
+        String uses = "(instance W1 LocalWidget)\n(instance W2 LocalWidget)\n(instance Fido Dog)\n";
+        assertMatchesWholeFile(defs + uses);
+
+        IncrementalKifChecker.Result r = assertMatchesWholeFile(uses);
+        assertEquals(2, r.checked);
+        assertEquals(1, r.reused);
+        assertEquals(2, r.diagnostics.size() - 1);
+    }
+
+    @Test
+    public void testDuplicateNamesTheFirstCopy() {
+        assertMatchesWholeFile("(instance Fido Dog)\n(p A)\n(instance Fido Dog)\n");
+        IncrementalKifChecker.Result r = assertMatchesWholeFile("\n(instance Fido Dog)\n(p A)\n(instance Fido Dog)\n");
+        // both copies moved, so they are checked again; (p A) is shifted
+        assertEquals(2, r.checked);
+        assertEquals("Duplicate of formula at line 2", on(r.diagnostics, 3).get(0).msg);
+    }
+
+    @Test
+    public void testIdenticalRunIsUnchanged() {
+        String text = "(instance A LocalX)\n(q A)\n";
+        assertFalse(checker.check(text, FILE).unchanged);
+        int before = calls.get();
+        IncrementalKifChecker.Result r = checker.check(text + "; note\n", FILE);
+        assertTrue(r.unchanged);
+        assertEquals(0, r.checked);
+        assertEquals(before, calls.get());
+    }
+
+    @Test
+    public void testInvalidateForcesRecheck() {
+        checker.check("(p A)\n", FILE);
+        checker.check("(p A)\n", "/tmp/other.kif");
+        checker.invalidateExcept("/tmp/other.kif");
+        IncrementalKifChecker.Result r = checker.check("(p A)\n", FILE);
+        assertEquals(1, r.checked);
+        assertTrue(r.unchanged);
+        assertEquals(0, checker.check("(p A)\n", "/tmp/other.kif").checked);
+
+        checker.forget(FILE);
+        assertEquals(1, checker.check("(p A)\n", FILE).checked);
+    }
+
+    @Test
+    public void testCancelledRunKeepsCheckedFormulas() {
+        String text = "(p A)\n(p B)\n(p C)\n(p D)\n";
+        AtomicInteger polls = new AtomicInteger();
+        try {
+            checker.check(text, FILE, () -> polls.incrementAndGet() > 2);
+            fail("expected the run to be cancelled");
+        }
+        catch (CancellationException expected) {}
+        // one check of the empty file, then two formulas before giving up
+        assertEquals(3, calls.get());
+        IncrementalKifChecker.Result r = assertMatchesWholeFile(text);
+        assertEquals(2, r.checked);
+        assertEquals(2, r.reused);
+    }
+
+    /** a file of n formulas drawn from pool, some of them indented or preceded by a blank line */
+    private static String generate(Random rnd, String[] pool, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            if (rnd.nextInt(5) == 0) sb.append('\n');
+            if (rnd.nextInt(4) == 0) sb.append("  ");
+            sb.append(pool[rnd.nextInt(pool.length)].replace("?", "?V" + rnd.nextInt(3))).append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testParallelMatchesSerialAndWholeFile() throws Exception {
+        String[] pool = {
+                "(subclass LocalWidget Artifact)",
+                "(documentation LocalGadget EnglishLanguage \"A (gadget).\")",
+                "(=>\n  (instance ?W LocalWidget)\n  (attribute ?W LocalShiny))",
+                "(instance Fido Dog)",
+                "(attribute Fido LocalHappy)",
+                "(exists (?G)\n    (instance ?G LocalGadget))",
+                "(p A)",
+        };
+        Set<Thread> threads = Collections.synchronizedSet(new HashSet<>());
+        ExecutorService pool4 = Executors.newFixedThreadPool(4);
+        try {
+            IncrementalKifChecker parallel = new IncrementalKifChecker((text, path) -> {
+                threads.add(Thread.currentThread());
+                return fakeCheck(text, path);
+            }, pool4, 4);
+            Random rnd = new Random(7);
+            for (int round = 0; round < 20; round++) {
+                String text = generate(rnd, pool, IncrementalKifChecker.PARALLEL_THRESHOLD + rnd.nextInt(200));
+                parallel.invalidateExcept(null);
+                IncrementalKifChecker.Result p = parallel.check(text, FILE);
+                IncrementalKifChecker.Result s = checker.check(text, FILE);
+                assertTrue(IncrementalKifChecker.sameDiagnostics(wholeFile(text), p.diagnostics));
+                assertTrue(IncrementalKifChecker.sameDiagnostics(s.diagnostics, p.diagnostics));
+            }
+            assertTrue(threads.stream().filter(t -> t != Thread.currentThread()).count() > 1);
+        }
+        finally {
+            pool4.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCancelledParallelRunKeepsCheckedFormulas() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2 * IncrementalKifChecker.PARALLEL_THRESHOLD; i++) sb.append("(p A").append(i).append(")\n");
+        String text = sb.toString();
+        ExecutorService pool4 = Executors.newFixedThreadPool(4);
+        try {
+            IncrementalKifChecker parallel = new IncrementalKifChecker((t, path) -> {
+                calls.incrementAndGet();
+                return fakeCheck(t, path);
+            }, pool4, 4);
+            AtomicInteger polls = new AtomicInteger();
+            try {
+                parallel.check(text, FILE, () -> polls.incrementAndGet() > IncrementalKifChecker.PARALLEL_THRESHOLD);
+                fail("expected the run to be cancelled");
+            }
+            catch (CancellationException expected) {}
+            int checked = calls.get() - 1;
+            assertTrue(checked > 0 && checked < 2 * IncrementalKifChecker.PARALLEL_THRESHOLD);
+            IncrementalKifChecker.Result r = parallel.check(text, FILE);
+            assertEquals(checked, r.reused);
+            assertTrue(IncrementalKifChecker.sameDiagnostics(wholeFile(text), r.diagnostics));
+        }
+        finally {
+            pool4.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFilesDoNotWaitForEachOther() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        IncrementalKifChecker blocking = new IncrementalKifChecker((text, path) -> {
+            if (path.equals("/tmp/slow.kif") && !text.isEmpty()) {
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return fakeCheck(text, path);
+        });
+        Thread slow = new Thread(() -> blocking.check("(p A)\n", "/tmp/slow.kif"));
+        slow.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        try {
+            assertEquals(1, blocking.check("(p B)\n", FILE).checked);
+        }
+        finally {
+            release.countDown();
+            slow.join(10_000);
+        }
+    }
+}
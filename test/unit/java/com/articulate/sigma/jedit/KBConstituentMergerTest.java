@@ -0,0 +1,165 @@
+package com.articulate.sigma.jedit;
+
+import com.articulate.sigma.KB;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link KBConstituentMerger}, which merges one edited
+ * .kif file into a loaded KB in place, using a temporary file and an
+ * otherwise empty KB.
+ *
+ * The tests cover:
+ *
+ *  - Adding, removing and changing a formula, in the formula map, the
+ *    formula index lists and the term set.
+ *  - Removing a term no remaining formula mentions, and keeping one that
+ *    is still used, at any argument position.
+ *  - Rebuilding the taxonomy cache only when a formula of one of its
+ *    relations changed.
+ *  - Deciding what to merge from the modification times recorded at KB
+ *    load, including files edited after the load.
+ */
+
+public class KBConstituentMergerTest {
+
+    /** counts cache rebuilds instead of building a cache for the bare KB */
+    private static final class CountingMerger extends KBConstituentMerger {
+        int rebuilds;
+        @Override void rebuildCache(KB kb) { rebuilds++; }
+    }
+
+    private Path dir;
+    private File file;
+    private KB kb;
+    private CountingMerger merger;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("kbmerge");
+        file = dir.resolve("test.kif").toFile();
+        kb = new KB("KBConstituentMergerTest");
+        merger = new CountingMerger();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file.toPath());
+        Files.deleteIfExists(dir);
+    }
+
+    private void write(String text) throws Exception {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private boolean hasFormulaMentioning(String term) {
+        return kb.formulaMap.keySet().stream().anyMatch(f -> f.contains(term));
+    }
+
+    private boolean indexed(String term) {
+        return kb.formulas.entrySet().stream()
+                .anyMatch(e -> e.getKey().endsWith("-" + term) && !e.getValue().isEmpty());
+    }
+
+    @Test
+    public void testAddRemoveAndChange() throws Exception {
+        write("(instance Fido Dog)\n(attribute Fido Happy)\n");
+        KBConstituentMerger.Result res = merger.merge(kb, file.getPath());
+        assertEquals(2, res.added);
+        assertTrue(kb.constituents.contains(file.getPath()));
+        assertTrue(kb.terms.contains("Happy"));
+        assertTrue(indexed("Happy"));
+
+        // change one formula, keep the other
+        write("(instance Fido Dog)\n(attribute Fido Sad)\n");
+        res = merger.merge(kb, file.getPath());
+        assertEquals(1, res.added);
+        assertEquals(1, res.retracted);
+        assertEquals(1, res.kept);
+        assertTrue(hasFormulaMentioning("Sad"));
+        assertFalse(hasFormulaMentioning("Happy"));
+        assertFalse(indexed("Happy"));
+        assertTrue(indexed("Sad"));
+        // Happy is an orphan now, Fido is still used
+        assertFalse(kb.terms.contains("Happy"));
+        assertTrue(kb.terms.contains("Sad"));
+        assertTrue(kb.terms.contains("Fido"));
+
+        // remove a formula
+        write("(instance Fido Dog)\n");
+        res = merger.merge(kb, file.getPath());
+        assertEquals(0, res.added);
+        assertEquals(1, res.retracted);
+        assertFalse(hasFormulaMentioning("Sad"));
+        assertFalse(kb.terms.contains("Sad"));
+        assertTrue(kb.terms.contains("Dog"));
+        assertEquals(1, kb.formulaMap.size());
+    }
+
+    @Test
+    public void testTermUsedAtALateArgumentIsKept() throws Exception {
+        write("(links A B C D E F G H Deep)\n(attribute Deep Happy)\n");
+        merger.merge(kb, file.getPath());
+        assertTrue(kb.terms.contains("Deep"));
+
+        // Deep is left only as the ninth argument of links
+        write("(links A B C D E F G H Deep)\n");
+        merger.merge(kb, file.getPath());
+        assertTrue(kb.terms.contains("Deep"));
+        assertFalse(kb.terms.contains("Happy"));
+
+        write("(links A B C D E F G H)\n");
+        merger.merge(kb, file.getPath());
+        assertFalse(kb.terms.contains("Deep"));
+    }
+
+    @Test
+    public void testCacheRebuiltOnlyForCacheRelations() throws Exception {
+        write("(attribute Fido Happy)\n");
+        assertFalse(merger.merge(kb, file.getPath()).cacheRebuilt);
+        write("(attribute Fido Happy)\n(attribute Fido Sad)\n");
+        assertFalse(merger.merge(kb, file.getPath()).cacheRebuilt);
+        assertEquals(0, merger.rebuilds);
+
+        write("(attribute Fido Happy)\n(subclass Dog Animal)\n");
+        assertTrue(merger.merge(kb, file.getPath()).cacheRebuilt);
+        assertEquals(1, merger.rebuilds);
+
+        // retracting a cache relation counts too
+        write("(attribute Fido Happy)\n");
+        assertTrue(merger.merge(kb, file.getPath()).cacheRebuilt);
+        assertEquals(2, merger.rebuilds);
+    }
+
+    @Test
+    public void testNeedsMergeFromLoadStamps() throws Exception {
+        write("(instance Fido Dog)\n");
+        long loaded = file.lastModified();
+        assertTrue(merger.needsMerge(kb, file.getPath()));
+
+        kb.constituents.add(file.getPath());
+        // nothing recorded for the constituent: merge to be safe
+        assertTrue(merger.needsMerge(kb, file.getPath()));
+
+        merger.recordLoaded(kb, loaded + 1_000);
+        assertFalse(merger.needsMerge(kb, file.getPath()));
+
+        // edited on disk after the load, before it is opened
+        assertTrue(file.setLastModified(loaded + 10_000));
+        assertTrue(merger.needsMerge(kb, file.getPath()));
+        merger.merge(kb, file.getPath());
+        assertFalse(merger.needsMerge(kb, file.getPath()));
+
+        // edited while the KB was loading it
+        merger.recordLoaded(kb, loaded);
+        assertTrue(merger.needsMerge(kb, file.getPath()));
+    }
+}
@@ -0,0 +1,150 @@
+package com.articulate.sigma.jedit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Standalone unit tests for {@link KBSnapshot}, the versioned on-disk
+ * snapshot used to warm start term completion before the KB has
+ * finished loading.
+ *
+ * The tests cover:
+ *
+ *  - A write/load round trip preserving the KB name, constituents and
+ *    the exact term order.
+ *  - Staleness detection: touching a constituent's modification time
+ *    makes {@code isCurrent()} return false.
+ *  - The fingerprint does not depend on constituent order.
+ *  - Missing, truncated, and wrong-version files load as {@code null}
+ *    instead of throwing.
+ *  - Writing to a path without a parent directory fails with an
+ *    IOException.
+ *  - A write that fails part way leaves no temporary file behind.
+ *
+ * All files live in a per-test temporary directory, so there are no
+ * jEdit or KB dependencies.
+ */
+
+public class KBSnapshotTest {
+
+    private Path dir;
+    private File snap;
+    private File kifA;
+    private File kifB;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("KBSnapshotTest");
+        snap = dir.resolve(KBSnapshot.FILE_NAME).toFile();
+        kifA = dir.resolve("A.kif").toFile();
+        kifB = dir.resolve("B.kif").toFile();
+        Files.write(kifA.toPath(), "(subclass Foo Entity)\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(kifB.toPath(), "(instance bar Foo)\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = dir.toFile().listFiles();
+        if (files != null) for (File f : files) Files.deleteIfExists(f.toPath());
+        Files.deleteIfExists(dir);
+    }
+
+    @Test
+    public void testRoundTripPreservesContents() throws Exception {
+        List<String> constituents = Arrays.asList(kifA.getPath(), kifB.getPath());
+        List<String> terms = Arrays.asList("Entity", "Foo", "bar", "Ünïcödé");
+        KBSnapshot.write(snap, "SUMO", constituents, terms);
+
+        KBSnapshot loaded = KBSnapshot.load(snap);
+        assertNotNull(loaded);
+        assertEquals("SUMO", loaded.kbName);
+        assertEquals(constituents, loaded.constituents);
+        assertEquals(terms, loaded.terms);
+        assertTrue(loaded.isCurrent());
+    }
+
+    @Test
+    public void testModifiedConstituentMakesSnapshotStale() throws Exception {
+        KBSnapshot.write(snap, "SUMO", Collections.singletonList(kifA.getPath()), Collections.singletonList("Foo"));
+        assertTrue(kifA.setLastModified(kifA.lastModified() - 60_000L));
+
+        KBSnapshot loaded = KBSnapshot.load(snap);
+        assertNotNull(loaded);
+        assertFalse(loaded.isCurrent());
+    }
+
+    @Test
+    public void testFingerprintIgnoresOrder() {
+        long ab = KBSnapshot.fingerprint(Arrays.asList(kifA.getPath(), kifB.getPath()));
+        long ba = KBSnapshot.fingerprint(Arrays.asList(kifB.getPath(), kifA.getPath()));
+        assertEquals(ab, ba);
+        assertNotEquals(ab, KBSnapshot.fingerprint(Collections.singletonList(kifA.getPath())));
+    }
+
+    @Test
+    public void testMissingFileLoadsAsNull() {
+        assertNull(KBSnapshot.load(snap));
+        assertNull(KBSnapshot.load(null));
+    }
+
+    @Test
+    public void testTruncatedFileLoadsAsNull() throws Exception {
+        KBSnapshot.write(snap, "SUMO", Collections.singletonList(kifA.getPath()), Arrays.asList("Foo", "Entity"));
+        try (RandomAccessFile raf = new RandomAccessFile(snap, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        assertNull(KBSnapshot.load(snap));
+    }
+
+    @Test
+    public void testVersionMismatchLoadsAsNull() throws Exception {
+        KBSnapshot.write(snap, "SUMO", Collections.singletonList(kifA.getPath()), Collections.singletonList("Foo"));
+        try (RandomAccessFile raf = new RandomAccessFile(snap, "rw")) {
+            raf.seek(4);
+            raf.writeInt(KBSnapshot.VERSION + 1);
+        }
+        assertNull(KBSnapshot.load(snap));
+    }
+
+    @Test(expected = IOException.class)
+    public void testWriteWithoutParentDirectoryFails() throws Exception {
+        KBSnapshot.write(dir.getRoot().toFile(), "SUMO", Collections.emptyList(), Collections.emptyList());
+    }
+
+    @Test
+    public void testFailedWriteLeavesNoTemporaryFile() throws Exception {
+        // the term list breaks half way through, after the temporary file is created
+        List<String> terms = new AbstractList<String>() {
+            @Override public String get(int i) {
+                if (i > 0) throw new UncheckedIOException(new IOException("disk full"));
+                return "Foo";
+            }
+            @Override public int size() { return 2; }
+        };
+        try {
+            KBSnapshot.write(snap, "SUMO", Arrays.asList(kifA.getPath()), terms);
+            fail("expected the write to fail");
+        }
+        catch (UncheckedIOException expected) {
+            // the write gave up
+        }
+        String[] left = dir.toFile().list();
+        Arrays.sort(left);
+        assertEquals(Arrays.asList("A.kif", "B.kif"), Arrays.asList(left));
+    }
+}
@@ -0,0 +1,65 @@
+package com.articulate.sigma.jedit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Standalone unit tests for the staged KB readiness model: the
+ * {@link KBStage} ordering and the per-action stage requirements that
+ * {@link SUMOjEditActions} declares with {@link RequiresStage}.
+ *
+ * The tests cover:
+ *
+ *  - Stages are ordered from NONE to TFA and {@code atLeast()} follows
+ *    that order.
+ *  - {@code count()} excludes NONE so it can be used as the
+ *    denominator of the status-bar progress, and every stage is one
+ *    that initialization actually reports.
+ *  - {@code SUMOjEdit.requiredStage()} reports the annotated stage for
+ *    KB-dependent actions, NONE for pure text actions, and NONE for
+ *    unknown action names.
+ */
+
+public class KBStageTest {
+
+    @Test
+    public void testStagesAreOrdered() {
+        KBStage[] stages = KBStage.values();
+        assertEquals(KBStage.NONE, stages[0]);
+        assertEquals(KBStage.TFA, stages[stages.length - 1]);
+        assertTrue(KBStage.TFA.atLeast(KBStage.TERMS));
+        assertTrue(KBStage.PREPROCESSOR.atLeast(KBStage.PREPROCESSOR));
+        assertFalse(KBStage.TERMS.atLeast(KBStage.FORMULA_INDEXES));
+    }
+
+    @Test
+    public void testCountExcludesNone() {
+        assertEquals(KBStage.values().length - 1, KBStage.count());
+        assertEquals(KBStage.count(), KBStage.TFA.ordinal());
+    }
+
+    @Test
+    public void testKbDependentActionsDeclareStages() {
+        assertEquals(KBStage.TERMS, SUMOjEdit.requiredStage("browseTerm"));
+        assertEquals(KBStage.FORMULA_INDEXES, SUMOjEdit.requiredStage("gotoDefn"));
+        assertEquals(KBStage.TFA, SUMOjEdit.requiredStage("checkErrors"));
+        assertEquals(KBStage.TFA, SUMOjEdit.requiredStage("queryExp"));
+    }
+
+    @Test
+    public void testEveryStageIsReachedByInit() {
+        // initKB() advances through each of these; a stage it never
+        // reaches would make the progress count skip a step
+        assertArrayEquals(new KBStage[] {KBStage.NONE, KBStage.TERMS, KBStage.FORMULA_INDEXES,
+                KBStage.PREPROCESSOR, KBStage.TFA}, KBStage.values());
+    }
+
+    @Test
+    public void testTextOnlyActionsNeedNoStage() {
+        assertEquals(KBStage.NONE, SUMOjEdit.requiredStage("formatSelect"));
+        assertEquals(KBStage.NONE, SUMOjEdit.requiredStage("fromTPTP"));
+        assertEquals(KBStage.NONE, SUMOjEdit.requiredStage("tptpFormatBuffer"));
+        assertEquals(KBStage.NONE, SUMOjEdit.requiredStage("noSuchAction"));
+    }
+}
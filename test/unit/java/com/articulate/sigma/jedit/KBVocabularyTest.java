@@ -0,0 +1,81 @@
+package com.articulate.sigma.jedit;
+
+import com.articulate.sigma.jedit.fastac.CompletionEngine;
+import com.articulate.sigma.jedit.fastac.KBVocabulary;
+import com.articulate.sigma.jedit.fastac.PrefixIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Standalone unit tests for {@link KBVocabulary}, which publishes the
+ * KB's terms to every completion UI once the KB is loaded.
+ *
+ * The tests cover:
+ *
+ *  - Publishing swaps the vocabulary that shared indexes read, and
+ *    bumps the version.
+ *  - Publishing the same collection again is a no-op, until it is
+ *    reported as changed in place, even with its size unchanged.
+ *  - The placeholder words stay available after a KB is published.
+ */
+
+public class KBVocabularyTest {
+
+    private CompletionEngine original;
+
+    @Before
+    public void setUp() {
+        original = CompletionEngine.shared();
+    }
+
+    @After
+    public void tearDown() {
+        CompletionEngine.install(original);
+    }
+
+    @Test
+    public void testPublishSwapsSharedIndexes() {
+        PrefixIndex index = PrefixIndex.shared();
+        assertTrue(index.suggest("Carnivor", 10).isEmpty());
+        long before = KBVocabulary.version();
+        List<String> kbTerms = new ArrayList<>(Arrays.asList("Carnivore", "CarnivorousPlant", "carnivoreOf"));
+        CompletionEngine engine = KBVocabulary.publish(kbTerms);
+        assertSame(engine, KBVocabulary.current());
+        assertTrue(KBVocabulary.isLoaded());
+        assertEquals(before + 1, KBVocabulary.version());
+        assertEquals(Arrays.asList("Carnivore", "carnivoreOf", "CarnivorousPlant"), index.suggest("Carnivor", 10));
+    }
+
+    @Test
+    public void testRepublishingTheSameTermsIsANoOp() {
+        List<String> kbTerms = new ArrayList<>(Arrays.asList("Herbivore", "Omnivore"));
+        CompletionEngine first = KBVocabulary.publish(kbTerms);
+        long version = KBVocabulary.version();
+        assertSame(first, KBVocabulary.publish(kbTerms));
+        assertSame(first, KBVocabulary.publish(null));
+        assertEquals(version, KBVocabulary.version());
+
+        // a merge swaps one term for another in place
+        kbTerms.set(1, "Detritivore");
+        assertSame(first, KBVocabulary.publish(kbTerms));
+        KBVocabulary.termsChanged();
+        CompletionEngine second = KBVocabulary.publish(kbTerms);
+        assertNotSame(first, second);
+        assertEquals(version + 1, KBVocabulary.version());
+        assertTrue(second.contains("Detritivore"));
+        assertFalse(second.contains("Omnivore"));
+        assertSame(second, KBVocabulary.publish(kbTerms));
+    }
+
+    @Test
+    public void testPlaceholderWordsRemain() {
+        KBVocabulary.publish(new ArrayList<>(Collections.singletonList("Insect")));
+        assertTrue(KBVocabulary.current().contains("Insect"));
+        assertTrue(KBVocabulary.current().contains("instance"));
+    }
+}
@@ -0,0 +1,237 @@
+package com.articulate.sigma.jedit;
+
+import com.articulate.sigma.jedit.fastac.KifTermIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for how {@link KifTermIndex} crawls .kif files, using a
+ * temporary directory as the only root.
+ *
+ * The tests cover:
+ *
+ *  - Whole files are tokenized, past the first 40,000 chars, and ';'
+ *    comments are skipped.
+ *  - A rescan picks up edited, added and deleted files.
+ *  - The file watcher re-indexes an edited file on its own, and sees
+ *    files added to a directory that had no .kif file or was created
+ *    after the walk.
+ *  - The on-disk cache spares unchanged files from being read again, and
+ *    a corrupt cache is ignored.
+ *  - The cache is published before any walk, and walking one root keeps
+ *    the cached files of another.
+ *  - A cache file that can't be written doesn't stop the index, and
+ *    leaves no temporary file behind.
+ */
+
+public class KifTermIndexCrawlerTest {
+
+    private final KifTermIndex index = KifTermIndex.get();
+    private Path dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("kifindex");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        index.setCacheFile(null);
+        index.ensureIndexed(Collections.<File>emptySet());
+        index.shutdown();
+        try (Stream<Path> all = Files.walk(dir)) {
+            all.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private void write(String name, String text) throws Exception {
+        Path p = dir.resolve(name);
+        Files.createDirectories(p.getParent());
+        Files.write(p, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Set<File> roots() {
+        return Set.of(dir.toFile());
+    }
+
+    @Test
+    public void testWholeFileOutsideComments() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 60_000) sb.append("(instance EarlyTerm Entity)\n");
+        sb.append("(subclass LateTerm Entity) ; CommentTerm\n(instance Other-Term_2 LateTerm)");
+        write("big.kif", sb.toString());
+        write("notes.txt", "(instance TextFileTerm Entity)");
+        index.ensureIndexed(roots());
+        assertEquals(List.of("LateTerm"), index.suggest("LateT", 10));
+        assertEquals(List.of("Other-Term_2"), index.suggest("Other", 10));
+        assertEquals(List.of(), index.suggest("CommentT", 10));
+        assertEquals(List.of(), index.suggest("TextFileT", 10));
+    }
+
+    @Test
+    public void testRescanPicksUpChanges() throws Exception {
+        write("a.kif", "(instance AlphaTerm Entity)");
+        write("b.kif", "(instance BetaTerm Entity)");
+        index.ensureIndexed(roots());
+        assertEquals(List.of("AlphaTerm"), index.suggest("Alpha", 10));
+
+        write("b.kif", "(instance BetaTermRenamed Entity)");
+        write("c.kif", "(instance GammaTerm Entity)");
+        Files.delete(dir.resolve("a.kif"));
+        index.rescan();
+        assertEquals(List.of(), index.suggest("Alpha", 10));
+        assertEquals(List.of("BetaTermRenamed"), index.suggest("BetaT", 10));
+        assertEquals(List.of("GammaTerm"), index.suggest("Gamma", 10));
+    }
+
+    @Test
+    public void testWatcherReindexesEditedFile() throws Exception {
+        write("a.kif", "(instance DeltaTerm Entity)");
+        index.ensureIndexed(roots());
+        assertEquals(List.of("DeltaTerm"), index.suggest("Delta", 10));
+
+        write("a.kif", "(instance EpsilonTerm Entity)");
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (index.suggest("Epsilon", 10).isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(50);
+        assertEquals(List.of("EpsilonTerm"), index.suggest("Epsilon", 10));
+        assertEquals(List.of(), index.suggest("Delta", 10));
+    }
+
+    private List<String> awaitSuggest(String prefix) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (index.suggest(prefix, 10).isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(50);
+        return index.suggest(prefix, 10);
+    }
+
+    @Test
+    public void testWatcherSeesNewAndEmptyDirectories() throws Exception {
+        write("a.kif", "(instance ZetaTerm Entity)");
+        Files.createDirectories(dir.resolve("empty"));
+        index.ensureIndexed(roots());
+
+        write("empty/b.kif", "(instance EtaTerm Entity)");
+        assertEquals(List.of("EtaTerm"), awaitSuggest("Eta"));
+
+        // a new directory, with a file written before the watcher registers it
+        write("new/deeper/c.kif", "(instance ThetaTerm Entity)");
+        assertEquals(List.of("ThetaTerm"), awaitSuggest("Theta"));
+        write("new/deeper/d.kif", "(instance IotaTerm Entity)");
+        assertEquals(List.of("IotaTerm"), awaitSuggest("Iota"));
+    }
+
+    @Test
+    public void testCacheSkipsUnchangedFiles() throws Exception {
+        File cache = dir.resolve("cache.bin").toFile();
+        write("a.kif", "(instance AlphaTerm Entity)");
+        index.setCacheFile(cache);
+        index.ensureIndexed(roots());
+        assertTrue(cache.isFile());
+
+        // a new session: nothing in memory, only the cache
+        index.setCacheFile(null);
+        index.ensureIndexed(Collections.<File>emptySet());
+        assertEquals(List.of(), index.suggest("Alpha", 10));
+
+        // same size and mtime: trusted from the cache, not read again
+        File a = dir.resolve("a.kif").toFile();
+        long modified = a.lastModified();
+        write("a.kif", "(instance OmegaTerm Entity)");
+        assertTrue(a.setLastModified(modified));
+        index.setCacheFile(cache);
+        index.ensureIndexed(roots());
+        assertEquals(List.of("AlphaTerm"), index.suggest("Alpha", 10));
+
+        assertTrue(a.setLastModified(modified + 5_000));
+        index.rescan();
+        assertEquals(List.of("OmegaTerm"), index.suggest("Omega", 10));
+        assertEquals(List.of(), index.suggest("Alpha", 10));
+    }
+
+    @Test
+    public void testCorruptCacheIgnored() throws Exception {
+        File cache = dir.resolve("cache.bin").toFile();
+        Files.write(cache.toPath(), new byte[] {0x53, 0x4A, 0x4B, 0x54, 0, 0, 0, 1, 0x7f, 0, 0, 0});
+        write("a.kif", "(instance AlphaTerm Entity)");
+        index.setCacheFile(cache);
+        index.ensureIndexed(roots());
+        assertEquals(List.of("AlphaTerm"), index.suggest("Alpha", 10));
+    }
+
+    @Test
+    public void testLoadCachePublishesBeforeWalk() throws Exception {
+        File cache = dir.resolve("cache.bin").toFile();
+        write("a.kif", "(instance AlphaTerm Entity)");
+        index.setCacheFile(cache);
+        index.ensureIndexed(roots());
+
+        // a new session: the cached terms complete without a walk
+        index.setCacheFile(null);
+        index.setCacheFile(cache);
+        assertEquals(List.of(), index.suggest("Alpha", 10));
+        index.loadCache().get(10, TimeUnit.SECONDS);
+        assertEquals(List.of("AlphaTerm"), index.suggest("Alpha", 10));
+    }
+
+    @Test
+    public void testWalkKeepsOtherRoots() throws Exception {
+        File cache = dir.resolve("cache.bin").toFile();
+        write("one/a.kif", "(instance AlphaTerm Entity)");
+        write("two/b.kif", "(instance BetaTerm Entity)");
+        write("two/c.kif", "(instance GammaTerm Entity)");
+        index.setCacheFile(cache);
+        index.ensureIndexed(Set.of(dir.resolve("one").toFile()));
+        Files.delete(dir.resolve("two/c.kif"));
+        index.ensureIndexed(Set.of(dir.resolve("two").toFile()));
+        assertEquals(List.of("AlphaTerm"), index.suggest("Alpha", 10));
+
+        index.setCacheFile(null);
+        index.setCacheFile(cache);
+        index.loadCache().get(10, TimeUnit.SECONDS);
+        assertEquals(List.of("AlphaTerm"), index.suggest("Alpha", 10));
+        assertEquals(List.of("BetaTerm"), index.suggest("Beta", 10));
+        assertEquals(List.of(), index.suggest("Gamma", 10));
+    }
+
+    @Test
+    public void testUnwritableCacheFile() throws Exception {
+        write("a.kif", "(instance AlphaTerm Entity)");
+        // the file system root has no parent directory to write next to
+        index.setCacheFile(new File("/"));
+        index.ensureIndexed(roots());
+        assertEquals(List.of("AlphaTerm"), index.suggest("Alpha", 10));
+
+        // a directory in the way: the temporary file is written, the move fails
+        Path blocked = Files.createTempDirectory("kifcache");
+        try {
+            Files.createDirectories(blocked.resolve("cache/in-the-way"));
+            index.setCacheFile(blocked.resolve("cache").toFile());
+            write("b.kif", "(instance BetaTerm Entity)");
+            index.ensureIndexed(roots());
+            assertEquals(List.of("BetaTerm"), index.suggest("Beta", 10));
+            try (Stream<Path> left = Files.list(blocked)) {
+                assertEquals(List.of(blocked.resolve("cache")), left.collect(Collectors.toList()));
+            }
+        }
+        finally {
+            index.setCacheFile(null);
+            try (Stream<Path> all = Files.walk(blocked)) {
+                all.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+}
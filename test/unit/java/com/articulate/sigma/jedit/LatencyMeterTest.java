@@ -0,0 +1,75 @@
+package com.articulate.sigma.jedit;
+
+import com.articulate.sigma.jedit.fastac.LatencyMeter;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Standalone unit tests for {@link LatencyMeter}, which samples the
+ * ghost-text lookup and keystroke-to-paint latencies.
+ *
+ * The tests cover:
+ *
+ *  - Percentiles over the samples, and zero without samples.
+ *  - Only the most recent window of samples counts; the maximum is kept.
+ *  - The frame budget check.
+ *  - Recording prints nothing; the summary is read on demand.
+ */
+
+public class LatencyMeterTest {
+
+    @Test
+    public void testPercentiles() {
+        LatencyMeter m = new LatencyMeter("test", 1000, LatencyMeter.FRAME_NANOS);
+        assertEquals(0, m.percentileNanos(50));
+        for (int i = 100; i >= 1; i--) m.record(i);
+        m.record(-5);
+        assertEquals(100, m.count());
+        assertEquals(50, m.percentileNanos(50));
+        assertEquals(99, m.percentileNanos(99));
+        assertEquals(100, m.percentileNanos(100));
+        assertEquals(1, m.percentileNanos(0));
+        assertTrue(m.summary().contains("100 samples"));
+    }
+
+    @Test
+    public void testWindowAndMax() {
+        LatencyMeter m = new LatencyMeter("test", 4, LatencyMeter.FRAME_NANOS);
+        m.record(1_000_000_000L);
+        for (int i = 0; i < 4; i++) m.record(10);
+        assertEquals(10, m.percentileNanos(100));
+        assertEquals(1_000_000_000L, m.maxNanos());
+        assertEquals(5, m.count());
+    }
+
+    @Test
+    public void testBudget() {
+        LatencyMeter m = new LatencyMeter("test", 10, 1_000);
+        for (int i = 0; i < 10; i++) m.record(500);
+        assertTrue(m.withinBudget());
+        m.record(5_000);
+        assertFalse(m.withinBudget());
+        assertTrue(m.summary().contains("over"));
+    }
+
+    @Test
+    public void testRecordDoesNotPrint() {
+        LatencyMeter m = new LatencyMeter("quiet", 4, LatencyMeter.FRAME_NANOS);
+        PrintStream out = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured));
+        try {
+            for (int i = 0; i < 16; i++) m.record(10);
+        }
+        finally {
+            System.setOut(out);
+        }
+        assertEquals(0, captured.size());
+        assertEquals("quiet", m.name());
+        assertTrue(m.toString().startsWith("[quiet] "));
+    }
+}
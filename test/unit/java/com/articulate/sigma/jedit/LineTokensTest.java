@@ -0,0 +1,99 @@
+package com.articulate.sigma.jedit;
+
+import com.articulate.sigma.jedit.fastac.LineTokens;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Standalone unit tests for {@link LineTokens}, the per-line,
+ * reference-counted token index that {@link BufferTokens} keeps current
+ * from buffer change events.
+ *
+ * The tests cover:
+ *
+ *  - Tokenizing a text and counting occurrences.
+ *  - Replacing lines the way an insert and a remove do, and dropping a
+ *    token once no line holds it.
+ *  - Case-insensitive and case-sensitive prefix completion.
+ *  - Random edits agree with tokenizing the whole text again.
+ */
+
+public class LineTokensTest {
+
+    @Test
+    public void testResetAndCount() {
+        LineTokens t = new LineTokens();
+        t.reset("(instance Dog Animal)\n(subclass Dog Canine)\n\n; Dog-like");
+        assertEquals(4, t.lineCount());
+        assertEquals(2, t.count("Dog"));
+        assertEquals(1, t.count("Dog-like"));
+        assertEquals(0, t.count("dog"));
+        assertEquals(0, t.count("("));
+        assertEquals(6, t.size());
+    }
+
+    @Test
+    public void testInsertAndRemoveLines() {
+        LineTokens t = new LineTokens();
+        t.reset("(instance Dog Animal)\n(subclass Dog Canine)");
+        // typing a newline and a formula inside line 0: the old line 0 becomes lines 0..1
+        t.replaceLines(0, 1, Arrays.asList("(instance Dog Animal)", "(instance Cat Animal)"));
+        assertEquals(3, t.lineCount());
+        assertEquals(1, t.count("Cat"));
+        assertEquals(2, t.count("Animal"));
+        // deleting from the middle of line 0 to the middle of line 2: the old lines 0..2 become line 0
+        t.replaceLines(0, 3, Collections.singletonList("(instance Canine)"));
+        assertEquals(1, t.lineCount());
+        assertEquals(0, t.count("Cat"));
+        assertEquals(0, t.count("Animal"));
+        assertEquals(1, t.count("Canine"));
+        assertEquals(Collections.emptyList(), t.complete("Ani", 10, false));
+    }
+
+    @Test
+    public void testComplete() {
+        LineTokens t = new LineTokens();
+        t.reset("Animal ANIMAL animal Animate anim Other");
+        assertEquals(Arrays.asList("anim", "ANIMAL", "Animal", "animal", "Animate"), t.complete("anim", 10, false));
+        assertEquals(Arrays.asList("anim", "ANIMAL"), t.complete("ANIM", 2, false));
+        assertEquals(Arrays.asList("Animal", "Animate"), t.complete("Anim", 10, true));
+        assertTrue(t.complete("zzz", 10, false).isEmpty());
+        assertTrue(t.complete(null, 10, false).isEmpty());
+    }
+
+    @Test
+    public void testRandomEditsAgreeWithFullRescan() {
+        Random rnd = new Random(11);
+        String[] words = {"Dog", "dog", "Cat", "instance", "sub-class", "x_1", "(", ")", " ", "?X"};
+        List<String> text = new ArrayList<>();
+        for (int i = 0; i < 20; i++) text.add(randomLine(rnd, words));
+        LineTokens t = new LineTokens();
+        t.reset(String.join("\n", text));
+        for (int round = 0; round < 500; round++) {
+            int start = rnd.nextInt(text.size());
+            int removed = 1 + rnd.nextInt(Math.min(3, text.size() - start));
+            List<String> added = new ArrayList<>();
+            int n = 1 + rnd.nextInt(3);
+            for (int i = 0; i < n; i++) added.add(randomLine(rnd, words));
+            text.subList(start, start + removed).clear();
+            text.addAll(start, added);
+            t.replaceLines(start, removed, added);
+
+            LineTokens fresh = new LineTokens();
+            fresh.reset(String.join("\n", text));
+            assertEquals(fresh.lineCount(), t.lineCount());
+            assertEquals(fresh.complete("", Integer.MAX_VALUE, false), t.complete("", Integer.MAX_VALUE, false));
+            for (String w : words) assertEquals(w, fresh.count(w), t.count(w));
+        }
+    }
+
+    private static String randomLine(Random rnd, String[] words) {
+        StringBuilder sb = new StringBuilder();
+        int n = rnd.nextInt(6);
+        for (int i = 0; i < n; i++) sb.append(words[rnd.nextInt(words.length)]).append(' ');
+        return sb.toString();
+    }
+}
@@ -23,7 +23,7 @@ import static org.junit.Assert.*;
  *
  *  - parseIntSafe(String, int)
  *  - findTermInLine(String, String, int) and isTermChar(char)
- *  - findFormulaInBuffer(String, String[])
+ *  - findFormulaInBuffer(String, BufferSnapshot)
  *  - filespecFromForms(List<Formula>, String)
  *
  * These helpers are exercised via reflection so that the
@@ -135,13 +135,13 @@ public class SUMOjEditResidualHelpersTest {
     }
 
     // ---------------------------------------------------------------------
-    // findFormulaInBuffer(String, String[])
+    // findFormulaInBuffer(String, BufferSnapshot)
     // ---------------------------------------------------------------------
 
     @Test
     public void testFindFormulaInBufferMatchesFirstMeaningfulLine() throws Exception {
         Method m = SUMOjEdit.class.getDeclaredMethod("findFormulaInBuffer",
-                                                     String.class, String[].class);
+                                                     String.class, BufferSnapshot.class);
         m.setAccessible(true);
 
         String formula =
@@ -155,14 +155,14 @@ public class SUMOjEditResidualHelpersTest {
                 "trailing text"
         };
 
-        int idx = ((Integer) m.invoke(sje, formula, bufferLines)).intValue();
+        int idx = ((Integer) m.invoke(sje, formula, BufferSnapshot.ofLines(bufferLines))).intValue();
         assertEquals(1, idx);
     }
 
     @Test
     public void testFindFormulaInBufferUsesShortPrefixFallback() throws Exception {
         Method m = SUMOjEdit.class.getDeclaredMethod("findFormulaInBuffer",
-                                                     String.class, String[].class);
+                                                     String.class, BufferSnapshot.class);
         m.setAccessible(true);
 
         // Construct a long first line so that the method will consider a
@@ -182,23 +182,23 @@ public class SUMOjEditResidualHelpersTest {
                 "more noise"
         };
 
-        int idx = ((Integer) m.invoke(sje, formula, bufferLines)).intValue();
+        int idx = ((Integer) m.invoke(sje, formula, BufferSnapshot.ofLines(bufferLines))).intValue();
         assertEquals(1, idx);
     }
 
     @Test
     public void testFindFormulaInBufferReturnsMinusOneForEmptyOrMissing() throws Exception {
         Method m = SUMOjEdit.class.getDeclaredMethod("findFormulaInBuffer",
-                                                     String.class, String[].class);
+                                                     String.class, BufferSnapshot.class);
         m.setAccessible(true);
 
         // Empty formula: no meaningful line
         String[] bufferLines = new String[] { "line1", "line2" };
-        assertEquals(-1, ((Integer) m.invoke(sje, "", bufferLines)).intValue());
+        assertEquals(-1, ((Integer) m.invoke(sje, "", BufferSnapshot.ofLines(bufferLines))).intValue());
 
         // Formula has a first line, but it does not appear anywhere in the buffer
         String formula = "fof(ax3, axiom, (p)).\n";
-        assertEquals(-1, ((Integer) m.invoke(sje, formula, bufferLines)).intValue());
+        assertEquals(-1, ((Integer) m.invoke(sje, formula, BufferSnapshot.ofLines(bufferLines))).intValue());
     }
 
     // ---------------------------------------------------------------------
@@ -9,7 +9,7 @@ import org.junit.runners.Suite;
  * - skips AssertJ Swing / GUI harnesses
  * - each standalone test class appears exactly once
  * 
- * This test suite contains 21 standalone unit test classes in total.
+ * This test suite contains 41 standalone unit test classes in total.
  * 
  * ===================================================================================
  * Revised: 1-20-2026
@@ -63,9 +63,28 @@ import org.junit.runners.Suite;
     /** =============== Miscellaneous SUMOjEdit Helpers (Standalone) ================= */
 
     SUMOjEditResidualHelpersTest.class,
-    TermOccurrenceHighlightingTest.class,
     SafeSnippetFromFileTest.class,
-    SUMOjEditThreadConfigTest.class
+    SUMOjEditThreadConfigTest.class,
+    KBSnapshotTest.class,
+    KBStageTest.class,
+    IncrementalKifCheckerTest.class,
+    BufferSnapshotTest.class,
+    CheckSchedulerTest.class,
+    CompletionEngineTest.class,
+    TermDictionaryTest.class,
+    CompletionRankerTest.class,
+    ArgumentTypesTest.class,
+    LineTokensTest.class,
+    LatencyMeterTest.class,
+    KBVocabularyTest.class,
+    CaretContextTest.class,
+    FuzzyIndexTest.class,
+    SubwordIndexTest.class,
+    KifTermIndexCrawlerTest.class,
+    SuggestionListModelTest.class,
+    CompletionSchedulerTest.class,
+    KBConstituentMergerTest.class,
+    IncrementalKifCheckerKBTest.class
 })
 public class StandaloneOnlyTestSuite {
 }
\ No newline at end of file
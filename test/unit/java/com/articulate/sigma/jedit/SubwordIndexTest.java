@@ -0,0 +1,78 @@
+package com.articulate.sigma.jedit;
+
+import com.articulate.sigma.jedit.fastac.CompletionEngine;
+import com.articulate.sigma.jedit.fastac.CompletionRanker;
+import com.articulate.sigma.jedit.fastac.SubwordIndex;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Standalone unit tests for {@link SubwordIndex}, which completes long
+ * CamelCase terms by their inner words and initials.
+ *
+ * The tests cover:
+ *
+ *  - Matching an inner segment, and text running across segments.
+ *  - Initials and chunked abbreviations, from the first or a later segment.
+ *  - Hyphenated terms and capital runs ("TPTPFormula").
+ *  - Terms that start with the query are left to the prefix index.
+ *  - Prefix matches rank above subword matches.
+ */
+
+public class SubwordIndexTest {
+
+    private static final List<String> TERMS = Arrays.asList(
+            "SubjectiveAssessmentAttribute", "OrganizationalProcess", "Organization",
+            "ProcessTask", "AssessmentReport", "domainSubclass", "subclass",
+            "TPTPFormula", "part-of-speech", "Attribute");
+
+    private static Set<String> find(SubwordIndex idx, String q) {
+        return new TreeSet<>(idx.complete(q, 100));
+    }
+
+    @Test
+    public void testInnerWords() {
+        SubwordIndex idx = SubwordIndex.of(TERMS);
+        assertEquals(Set.of("SubjectiveAssessmentAttribute"), find(idx, "Assessment"));
+        assertEquals(Set.of("SubjectiveAssessmentAttribute"), find(idx, "assessmentatt"));
+        assertEquals(Set.of("OrganizationalProcess"), find(idx, "Proc"));
+        assertEquals(Set.of("SubjectiveAssessmentAttribute"), find(idx, "Attr"));
+        assertEquals(Set.of("domainSubclass"), find(idx, "Subclass"));
+        assertEquals(Set.of("TPTPFormula"), find(idx, "Formula"));
+        assertEquals(Set.of("part-of-speech"), find(idx, "speech"));
+        assertEquals(Set.of(), find(idx, "zzz"));
+    }
+
+    @Test
+    public void testInitials() {
+        SubwordIndex idx = SubwordIndex.of(TERMS);
+        assertEquals(Set.of("SubjectiveAssessmentAttribute"), find(idx, "SAA"));
+        assertEquals(Set.of("OrganizationalProcess"), find(idx, "OrgProc"));
+        assertEquals(Set.of("SubjectiveAssessmentAttribute"), find(idx, "AssessAttr"));
+        assertEquals(Set.of("part-of-speech"), find(idx, "of-sp"));
+        assertEquals(Set.of(), find(idx, "part-sp"));
+        assertEquals(Set.of(), find(idx, "OrgTask"));
+    }
+
+    @Test
+    public void testLimitAndEngine() {
+        SubwordIndex idx = SubwordIndex.of(TERMS);
+        assertEquals(1, idx.complete("A", 1).size());
+        CompletionEngine e = CompletionEngine.build(TERMS);
+        assertSame(e.subwordIndex(), e.subwordIndex());
+        assertEquals(List.of("OrganizationalProcess"), e.subwords("OrgProc", 10));
+        assertEquals(List.of(), e.subwords(null, 10));
+    }
+
+    @Test
+    public void testPrefixMatchesRankFirst() {
+        CompletionRanker ranker = CompletionRanker.of(Map.of("OrganizationalProcess", 20), Map.of());
+        List<String> pool = new ArrayList<>(List.of("ProcessTask"));
+        pool.addAll(SubwordIndex.of(TERMS).complete("Proc", 10));
+        assertEquals(List.of("ProcessTask", "OrganizationalProcess"),
+                ranker.top(pool, "Proc", 10, CompletionRanker.Slot.ANY, null));
+    }
+}
@@ -0,0 +1,91 @@
+package com.articulate.sigma.jedit;
+
+import com.articulate.sigma.jedit.fastac.SuggestionListModel;
+import org.junit.Test;
+
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Standalone unit tests for {@link SuggestionListModel}, the model of the
+ * FastSuggestor popup list.
+ *
+ * The tests cover:
+ *
+ *  - The new results are shown as handed in, without a copy.
+ *  - Only the rows between the unchanged head and tail are reported, as
+ *    changed, added or removed.
+ *  - No event when nothing changed.
+ *  - The widest result, kept until a reset.
+ */
+
+public class SuggestionListModelTest {
+
+    /** Records each event as "type:from-to". */
+    private static List<String> listen(SuggestionListModel model) {
+        List<String> events = new ArrayList<>();
+        model.addListDataListener(new ListDataListener() {
+            @Override public void intervalAdded(ListDataEvent e) { events.add("added:" + e.getIndex0() + "-" + e.getIndex1()); }
+            @Override public void intervalRemoved(ListDataEvent e) { events.add("removed:" + e.getIndex0() + "-" + e.getIndex1()); }
+            @Override public void contentsChanged(ListDataEvent e) { events.add("changed:" + e.getIndex0() + "-" + e.getIndex1()); }
+        });
+        return events;
+    }
+
+    @Test
+    public void testSwapsResults() {
+        SuggestionListModel model = new SuggestionListModel();
+        List<String> events = listen(model);
+        List<String> items = List.of("Animal", "Animate", "Anime");
+        model.setItems(items, true);
+        assertSame(items, model.items());
+        assertEquals(3, model.getSize());
+        assertEquals("Animate", model.getElementAt(1));
+        assertEquals(List.of("added:0-2"), events);
+
+        model.setItems(null, false);
+        assertEquals(0, model.getSize());
+        assertEquals(List.of("added:0-2", "removed:0-2"), events);
+    }
+
+    @Test
+    public void testReportsChangedRange() {
+        SuggestionListModel model = new SuggestionListModel();
+        model.setItems(List.of("a", "b", "c", "d", "e"), true);
+        List<String> events = listen(model);
+
+        model.setItems(List.of("a", "x", "c", "d", "e"), false);
+        assertEquals(List.of("changed:1-1"), events);
+
+        events.clear();
+        model.setItems(List.of("a", "x", "y", "z", "c", "d", "e"), false);
+        assertEquals(List.of("added:2-3"), events);
+
+        events.clear();
+        model.setItems(List.of("a", "q", "e"), false);
+        assertEquals(List.of("changed:1-1", "removed:2-5"), events);
+
+        events.clear();
+        model.setItems(List.of("a", "q", "e"), false);
+        assertEquals(List.of(), events);
+    }
+
+    @Test
+    public void testWidest() {
+        SuggestionListModel model = new SuggestionListModel();
+        assertEquals("", model.widest());
+        model.setItems(List.of("Organism", "OrganizationalProcess", "Organ"), true);
+        assertEquals("OrganizationalProcess", model.widest());
+
+        // kept while the popup stays open, so it doesn't shrink and jump
+        model.setItems(List.of("Organism", "Organ"), false);
+        assertEquals("OrganizationalProcess", model.widest());
+
+        model.setItems(List.of("Organism", "Organ"), true);
+        assertEquals("Organism", model.widest());
+    }
+}
@@ -0,0 +1,134 @@
+package com.articulate.sigma.jedit;
+
+import com.articulate.sigma.jedit.fastac.TermDictionary;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Standalone unit tests for {@link TermDictionary}, the front-coded
+ * sorted term array behind the shared completion engine.
+ *
+ * The tests cover:
+ *
+ *  - Decoding every term back, across block boundaries.
+ *  - Case-insensitive prefix ranges, completion with a limit, the lazy
+ *    iteration over a whole range, and case-sensitive filtering,
+ *    checked against a brute-force scan of random vocabularies.
+ *  - Exact lookup that tells case variants apart.
+ *  - The shortest-extension rule used for ghost text.
+ */
+
+public class TermDictionaryTest {
+
+    private static final Comparator<String> ORDER =
+            String.CASE_INSENSITIVE_ORDER.thenComparing(Comparator.naturalOrder());
+
+    private static List<String> sortedDistinct(Collection<String> words) {
+        TreeSet<String> set = new TreeSet<>(ORDER);
+        set.addAll(words);
+        return new ArrayList<>(set);
+    }
+
+    private static List<String> randomWords(Random rnd, int n) {
+        String alphabet = "aAbBcC-_1";
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            StringBuilder sb = new StringBuilder();
+            int len = 1 + rnd.nextInt(6);
+            for (int k = 0; k < len; k++) sb.append(alphabet.charAt(rnd.nextInt(alphabet.length())));
+            words.add(sb.toString());
+        }
+        return words;
+    }
+
+    @Test
+    public void testDecodesAllTerms() {
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 100; i++) words.add("Term" + i);
+        words.add("subclass");
+        words.add("SubClass");
+        TermDictionary d = TermDictionary.of(words);
+        List<String> expected = sortedDistinct(words);
+        assertEquals(expected.size(), d.size());
+        assertEquals(expected, d.toList());
+        for (int i = 0; i < expected.size(); i++) assertEquals(expected.get(i), d.get(i));
+        assertTrue(d.estimatedBytes() > 0);
+    }
+
+    @Test
+    public void testEmpty() {
+        TermDictionary d = TermDictionary.of(Arrays.asList(null, ""));
+        assertEquals(0, d.size());
+        List<String> out = new ArrayList<>();
+        assertEquals(0, d.complete("a", 10, false, out));
+        assertEquals(-1, d.indexOf("a"));
+        assertNull(d.shortestExtension("a"));
+        assertEquals(0, d.rangeStart("a"));
+        assertEquals(0, d.rangeEnd("a"));
+    }
+
+    @Test
+    public void testIndexOfIsCaseSensitive() {
+        TermDictionary d = TermDictionary.of(Arrays.asList("Human", "human", "HUMAN", "Humane"));
+        assertEquals(Arrays.asList("HUMAN", "Human", "human", "Humane"), d.toList());
+        assertEquals(1, d.indexOf("Human"));
+        assertEquals(2, d.indexOf("human"));
+        assertEquals(-1, d.indexOf("hUman"));
+        assertEquals(-1, d.indexOf("Hum"));
+        assertEquals(-1, d.indexOf(null));
+    }
+
+    @Test
+    public void testAgreesWithBruteForce() {
+        Random rnd = new Random(7);
+        for (int round = 0; round < 50; round++) {
+            List<String> words = randomWords(rnd, rnd.nextInt(200));
+            List<String> sorted = sortedDistinct(words);
+            TermDictionary d = TermDictionary.of(words);
+            for (String prefix : randomWords(rnd, 20)) {
+                List<String> expected = new ArrayList<>();
+                List<String> expectedCase = new ArrayList<>();
+                String shortest = null;
+                int start = sorted.size();
+                for (int i = sorted.size() - 1; i >= 0; i--) {
+                    if (String.CASE_INSENSITIVE_ORDER.compare(sorted.get(i), prefix) >= 0) start = i;
+                }
+                for (String w : sorted) {
+                    if (!w.regionMatches(true, 0, prefix, 0, prefix.length())) continue;
+                    expected.add(w);
+                    if (w.startsWith(prefix)) expectedCase.add(w);
+                    if (w.length() > prefix.length() && (shortest == null || w.length() < shortest.length()
+                            || (w.length() == shortest.length() && w.compareTo(shortest) < 0))) shortest = w;
+                }
+                String msg = "prefix '" + prefix + "' in " + sorted;
+                assertEquals(msg, start, d.rangeStart(prefix));
+                assertEquals(msg, start + expected.size(), d.rangeEnd(prefix));
+
+                List<String> out = new ArrayList<>();
+                d.complete(prefix, Integer.MAX_VALUE, false, out);
+                assertEquals(msg, expected, out);
+                out.clear();
+                d.complete(prefix, 3, false, out);
+                assertEquals(msg, expected.subList(0, Math.min(3, expected.size())), out);
+                out.clear();
+                d.complete(prefix, Integer.MAX_VALUE, true, out);
+                assertEquals(msg, expectedCase, out);
+                out.clear();
+                for (String w : d.withPrefix(prefix, false)) {
+                    // other queries in between don't disturb the iteration
+                    d.indexOf(w);
+                    out.add(w);
+                }
+                assertEquals(msg, expected, out);
+                out.clear();
+                d.withPrefix(prefix, true).forEach(out::add);
+                assertEquals(msg, expectedCase, out);
+                assertEquals(msg, shortest, d.shortestExtension(prefix));
+                assertEquals(msg, sorted.indexOf(prefix), d.indexOf(prefix));
+            }
+        }
+    }
+}
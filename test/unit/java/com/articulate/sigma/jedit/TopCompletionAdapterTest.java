@@ -105,4 +105,17 @@ public class TopCompletionAdapterTest {
 
         assertEquals("instance", result);
     }
+
+    @Test
+    public void testBestFullCompletesTheLastWordOfTheLine() throws Exception {
+        // SmartCompose passes the line up to the caret; only its last word is completed
+        Class<?> clazz = Class.forName(
+                "com.articulate.sigma.jedit.fastac.smartcompose.TopCompletionAdapter");
+        Method bestFull = clazz.getDeclaredMethod(
+                "bestFull", TextArea.class, String.class);
+        bestFull.setAccessible(true);
+
+        assertEquals("(instance ?X Animal", bestFull.invoke(null, new Object[]{null, "(instance ?X Anim"}));
+        assertNull(bestFull.invoke(null, new Object[]{null, "(instance ?X "}));
+    }
 }
\ No newline at end of file
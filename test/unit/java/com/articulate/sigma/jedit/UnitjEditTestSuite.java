@@ -17,7 +17,7 @@ import com.articulate.sigma.SuggestionComponentsIntegrationTest;
  * snippet builder, KIF/TPTP message normalizer, line/offset extractor, 
  * formula locator, file-spec composer, temporary file logic, error aggregator, etc.
  * 
- * Standalone Unit Test Classes (21 in total):
+ * Standalone Unit Test Classes (41 in total):
  *  SUMOjEditTest
  * 
  *  SUOKIFErrorCheckHelpersTest
@@ -43,9 +43,28 @@ import com.articulate.sigma.SuggestionComponentsIntegrationTest;
  *  NullEngineHandlingTest
  * 
  *  SUMOjEditResidualHelpersTest
- *  TermOccurrenceHighlightingTest
  *  SafeSnippetFromFileTest
  *  SUMOjEditThreadConfigTest
+ *  KBSnapshotTest
+ *  KBStageTest
+ *  IncrementalKifCheckerTest
+ *  BufferSnapshotTest
+ *  CheckSchedulerTest
+ *  CompletionEngineTest
+ *  TermDictionaryTest
+ *  CompletionRankerTest
+ *  ArgumentTypesTest
+ *  LineTokensTest
+ *  LatencyMeterTest
+ *  KBVocabularyTest
+ *  CaretContextTest
+ *  FuzzyIndexTest
+ *  SubwordIndexTest
+ *  KifTermIndexCrawlerTest
+ *  SuggestionListModelTest
+ *  CompletionSchedulerTest
+ *  KBConstituentMergerTest
+ *  IncrementalKifCheckerKBTest
  * 
  * ===================================================================================
  * =================== Unit Tests with External Dependencies (GUI) ===================
@@ -85,7 +104,7 @@ import com.articulate.sigma.SuggestionComponentsIntegrationTest;
  *  QueryExecutionUIFlowGUITest
  * 
  * ===================================================================================
- * Total Unit Test Classes Included: 43
+ * Total Unit Test Classes Included: 63
  * ===================================================================================
  * Revised: 2-1-2026
  * ===================================================================================
@@ -138,9 +157,28 @@ import com.articulate.sigma.SuggestionComponentsIntegrationTest;
     /** =============== Miscellaneous SUMOjEdit Helpers (Standalone) ================= */
 
     SUMOjEditResidualHelpersTest.class,
-    TermOccurrenceHighlightingTest.class,
     SafeSnippetFromFileTest.class,
     SUMOjEditThreadConfigTest.class,
+    KBSnapshotTest.class,
+    KBStageTest.class,
+    IncrementalKifCheckerTest.class,
+    BufferSnapshotTest.class,
+    CheckSchedulerTest.class,
+    CompletionEngineTest.class,
+    TermDictionaryTest.class,
+    CompletionRankerTest.class,
+    ArgumentTypesTest.class,
+    LineTokensTest.class,
+    LatencyMeterTest.class,
+    KBVocabularyTest.class,
+    CaretContextTest.class,
+    FuzzyIndexTest.class,
+    SubwordIndexTest.class,
+    KifTermIndexCrawlerTest.class,
+    SuggestionListModelTest.class,
+    CompletionSchedulerTest.class,
+    KBConstituentMergerTest.class,
+    IncrementalKifCheckerKBTest.class,
 
     /** ============================================================================== */
     /** ========================== GUI TESTS: AUTOCOMPLETE =========================== */